@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import org.lastaflute.di.core.factory.SingletonLaContainerFactory;
+
+/**
+ * Starts the components of Fess that the data store uses, from {@code test_app.xml}.
+ */
+public final class BenchmarkContainer {
+
+    private BenchmarkContainer() {
+    }
+
+    public static synchronized void initialize() {
+        if (!SingletonLaContainerFactory.hasContainer()) {
+            SingletonLaContainerFactory.setConfigPath("test_app.xml");
+            SingletonLaContainerFactory.init();
+        }
+    }
+
+    public static synchronized void destroy() {
+        if (SingletonLaContainerFactory.hasContainer()) {
+            SingletonLaContainerFactory.destroy();
+            SingletonLaContainerFactory.setExternalContext(null);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.fess.entity.DataStoreParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.amazon.awssdk.services.s3.model.ObjectStorageClass;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * The checks of the crawl parameters that every listed object passes through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConfigBenchmark {
+
+    protected AmazonS3DataStore dataStore;
+    protected DataStoreParams paramMap;
+    protected AmazonS3DataStore.Config config;
+    protected S3Object object;
+
+    @Setup
+    public void setup() {
+        BenchmarkContainer.initialize();
+        dataStore = new AmazonS3DataStore();
+        paramMap = new DataStoreParams();
+        paramMap.put("supported_mimetypes", "text/.*,application/pdf,application/vnd\\.openxmlformats.*");
+        paramMap.put("excluded_storage_classes", "GLACIER,DEEP_ARCHIVE");
+        paramMap.put("prefixes", "docs/,reports/2025/");
+        paramMap.put("max_size", "104857600");
+        config = new AmazonS3DataStore.Config(paramMap);
+        object = S3Object.builder()
+                .key("docs/2025/01/report.pdf")
+                .size(1024L * 1024)
+                .storageClass(ObjectStorageClass.STANDARD_IA)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkContainer.destroy();
+    }
+
+    @Benchmark
+    public boolean isTargetObject() {
+        return dataStore.isTargetObject(config, object);
+    }
+
+    @Benchmark
+    public boolean isSupportedMimeType() {
+        return dataStore.isSupportedMimeType(config, "application/pdf");
+    }
+
+    @Benchmark
+    public Object newConfig() {
+        return new AmazonS3DataStore.Config(paramMap);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copies a body into a {@link DeferredFileOutputStream} and reads it back. Sizes above the threshold spill to a temporary file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ContentBenchmark {
+
+    @Param({ "16384", "1048576", "8388608" })
+    public int size;
+
+    @Param({ "1048576" })
+    public int threshold;
+
+    protected AmazonS3DataStore dataStore;
+    protected byte[] data;
+
+    @Setup
+    public void setup() {
+        dataStore = new AmazonS3DataStore();
+        data = new byte[size];
+        new Random(1).nextBytes(data);
+    }
+
+    @Benchmark
+    public long downloadObject() throws Exception {
+        final DeferredFileOutputStream content = dataStore.downloadObject(new ByteArrayInputStream(data), "benchmark", threshold);
+        try {
+            return content.getByteCount();
+        } finally {
+            dataStore.deleteContent(content);
+        }
+    }
+
+    @Benchmark
+    public long downloadAndRead() throws Exception {
+        final DeferredFileOutputStream content = dataStore.downloadObject(new ByteArrayInputStream(data), "benchmark", threshold);
+        try (InputStream in = dataStore.getContentInputStream(content)) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        } finally {
+            dataStore.deleteContent(content);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codelibs.fess.Constants;
+import org.codelibs.fess.ds.callback.IndexUpdateCallback;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.mylasta.direction.FessConfig;
+import org.codelibs.fess.opensearch.config.exentity.DataConfig;
+import org.codelibs.fess.util.ComponentUtil;
+
+/**
+ * Crawls the synthetic bucket of {@link FakeS3HttpClient} with {@code storeData} and reports the throughput and the
+ * latencies of the crawl stages.
+ * <p>
+ * The arguments are {@code key=value} pairs. Keys starting with {@code load.} configure the fake S3, and the others
+ * are parameters of the data store, for example:
+ *
+ * <pre>
+ * load.objects=100000 load.object_size=1024-1048576 load.latency=30 load.slowdown_rate=0.01 number_of_threads=32
+ * </pre>
+ *
+ * With {@code load.bucket_region}, the requests are sent to the virtual-hosted endpoints of the regions instead of an
+ * endpoint override, so that a bucket in another region than {@code region} is resolved as on S3.
+ */
+public class CrawlLoadTest {
+
+    protected final DataStoreParams params;
+    protected final FakeS3HttpClient httpClient;
+    protected final AtomicLong storedObjects = new AtomicLong();
+    protected final AtomicLong failedUrls = new AtomicLong();
+    protected CrawlMetrics metrics;
+
+    public CrawlLoadTest(final DataStoreParams params) {
+        this.params = params;
+        httpClient = new FakeS3HttpClient(params);
+        if (Constants.TRUE.equalsIgnoreCase(params.getAsString(AmazonS3Client.ASYNC_FETCH))) {
+            throw new IllegalArgumentException(AmazonS3Client.ASYNC_FETCH + " is not supported by the fake S3.");
+        }
+        params.put(AmazonS3Client.REGION, params.getAsString(AmazonS3Client.REGION, "us-east-1"));
+        params.put(AmazonS3Client.ACCESS_KEY_ID, "load");
+        params.put(AmazonS3Client.SECRET_KEY, "load");
+        if (params.getAsString(FakeS3HttpClient.BUCKET_REGION) == null) {
+            // no request is sent to the endpoint
+            params.put(AmazonS3Client.ENDPOINT, "http://localhost:9");
+        }
+        params.put(AmazonS3DataStore.BUCKETS, params.getAsString(AmazonS3DataStore.BUCKETS, httpClient.getBucket()));
+    }
+
+    public static void main(final String[] args) {
+        final DataStoreParams params = new DataStoreParams();
+        for (final String arg : args) {
+            final int pos = arg.indexOf('=');
+            if (pos <= 0) {
+                throw new IllegalArgumentException("Not key=value: " + arg);
+            }
+            params.put(arg.substring(0, pos), arg.substring(pos + 1));
+        }
+        BenchmarkContainer.initialize();
+        try {
+            new CrawlLoadTest(params).run();
+        } finally {
+            BenchmarkContainer.destroy();
+        }
+    }
+
+    public void run() {
+        final AmazonS3DataStore dataStore = new AmazonS3DataStore() {
+            @Override
+            protected AmazonS3Client createClient(final DataStoreParams paramMap) {
+                return new AmazonS3Client(paramMap, httpClient);
+            }
+
+            @Override
+            protected CrawlMetrics startMetrics(final DataConfig dataConfig, final Config config, final AmazonS3Client client,
+                    final CrawlPipeline pipeline) {
+                metrics = super.startMetrics(dataConfig, config, client, pipeline);
+                return metrics;
+            }
+
+            @Override
+            protected void storeFailureUrl(final DataConfig dataConfig, final String errorName, final String url, final Throwable target) {
+                if (failedUrls.getAndIncrement() < 10) {
+                    System.err.println("[" + errorName + "] " + url + " : " + target);
+                }
+            }
+        };
+
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final Map<String, String> scriptMap = new HashMap<>();
+        scriptMap.put(fessConfig.getIndexFieldUrl(), "object.url");
+        scriptMap.put(fessConfig.getIndexFieldTitle(), "object.key");
+        scriptMap.put(fessConfig.getIndexFieldContent(), "object.contents");
+        scriptMap.put(fessConfig.getIndexFieldMimetype(), "object.mimetype");
+        scriptMap.put(fessConfig.getIndexFieldFiletype(), "object.filetype");
+        scriptMap.put(fessConfig.getIndexFieldFilename(), "object.filename");
+        scriptMap.put(fessConfig.getIndexFieldContentLength(), "object.size");
+        scriptMap.put(fessConfig.getIndexFieldLastModified(), "object.last_modified");
+
+        final long start = System.nanoTime();
+        dataStore.storeData(new DataConfig(), new IndexUpdateCallback() {
+            @Override
+            public void store(final DataStoreParams paramMap, final Map<String, Object> dataMap) {
+                storedObjects.incrementAndGet();
+            }
+
+            @Override
+            public long getDocumentSize() {
+                return storedObjects.get();
+            }
+
+            @Override
+            public long getExecuteTime() {
+                return 0;
+            }
+
+            @Override
+            public void commit() {
+            }
+        }, params, scriptMap, new HashMap<>());
+        final double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        System.out.println(String.format("objects: %d of %d stored, %d failed in %.1f s", storedObjects.get(), httpClient.getObjects(),
+                failedUrls.get(), seconds));
+        System.out.println(String.format("throughput: %.1f objects/s, %.1f MB/s", storedObjects.get() / seconds,
+                httpClient.getSentBytes() / seconds / 1024 / 1024));
+        System.out.println("requests: " + httpClient);
+        if (metrics != null) {
+            metrics.getStages().forEach((name, stats) -> System.out.println("  " + name + ": " + stats));
+        }
+    }
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.codelibs.fess.entity.DataStoreParams;
+
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.ExecutableHttpRequest;
+import software.amazon.awssdk.http.HttpExecuteRequest;
+import software.amazon.awssdk.http.HttpExecuteResponse;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.utils.http.SdkHttpUtils;
+
+/**
+ * Answers the S3 requests of {@link AmazonS3Client} in process, for load tests without a network.
+ * <p>
+ * The bucket holds a synthetic key space: {@code load.objects} text objects spread evenly over {@code load.prefixes}
+ * top-level prefixes. A key, its size and its content are computed from its index, so millions of keys take no memory.
+ * Every request waits for the latency, and 503 SlowDown errors are returned at random or above a request rate per
+ * prefix. Bodies are sent at most at the bandwidth of a connection and of all connections together.
+ * <p>
+ * The bucket is in the region {@code load.bucket_region}. A virtual-hosted request to the endpoint of another region
+ * is answered with a 301 redirect, as S3 does, while path-style requests to an endpoint override are always served.
+ */
+public class FakeS3HttpClient implements SdkHttpClient {
+
+    protected static final String BUCKET = "load.bucket";
+    protected static final String OBJECTS = "load.objects";
+    protected static final String PREFIXES = "load.prefixes";
+    // a size in bytes, or min-max for sizes distributed log-uniformly
+    protected static final String OBJECT_SIZE = "load.object_size";
+    protected static final String LATENCY = "load.latency";
+    // the mean of an exponentially distributed latency added to each request
+    protected static final String LATENCY_JITTER = "load.latency_jitter";
+    protected static final String BANDWIDTH = "load.bandwidth";
+    protected static final String TOTAL_BANDWIDTH = "load.total_bandwidth";
+    protected static final String SLOWDOWN_RATE = "load.slowdown_rate";
+    // the requests per second to a top-level prefix above which 503 SlowDown is returned
+    protected static final String REQUEST_RATE = "load.request_rate";
+    protected static final String BUCKET_REGION = "load.bucket_region";
+
+    protected static final Instant LAST_MODIFIED = Instant.parse("2025-01-01T00:00:00Z");
+    protected static final String NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+    protected static final int MAX_KEYS = 1000;
+    protected static final int CHUNK_SIZE = 16384;
+    protected static final byte[] TEXT =
+            "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.\n"
+                    .getBytes(StandardCharsets.US_ASCII);
+
+    protected final String bucket;
+    protected final String bucketRegion;
+    protected final long objects;
+    protected final long objectsPerPrefix;
+    protected final long minSize;
+    protected final long maxSize;
+    protected final long latencyMillis;
+    protected final long latencyJitterMillis;
+    protected final long bandwidth;
+    protected final double slowdownRate;
+    protected final long requestRate;
+    // the time of the last request and the tokens left for each prefix
+    protected final Map<String, double[]> requestTokens = new ConcurrentHashMap<>();
+    // null if the bandwidth of all connections is not limited
+    protected final Pacer totalPacer;
+
+    protected final LongAdder listRequests = new LongAdder();
+    protected final LongAdder getRequests = new LongAdder();
+    protected final LongAdder headRequests = new LongAdder();
+    protected final LongAdder otherRequests = new LongAdder();
+    protected final LongAdder redirects = new LongAdder();
+    protected final LongAdder slowdowns = new LongAdder();
+    protected final LongAdder sentBytes = new LongAdder();
+
+    public FakeS3HttpClient(final DataStoreParams params) {
+        bucket = params.getAsString(BUCKET, "load");
+        bucketRegion = params.getAsString(BUCKET_REGION, "us-east-1");
+        objects = Long.parseLong(params.getAsString(OBJECTS, "10000"));
+        final long prefixes = Math.max(Long.parseLong(params.getAsString(PREFIXES, "100")), 1);
+        objectsPerPrefix = Math.max((objects + prefixes - 1) / prefixes, 1);
+        final String size = params.getAsString(OBJECT_SIZE, "4096");
+        final int pos = size.indexOf('-');
+        minSize = Long.parseLong(pos < 0 ? size : size.substring(0, pos));
+        maxSize = Long.parseLong(pos < 0 ? size : size.substring(pos + 1));
+        latencyMillis = Long.parseLong(params.getAsString(LATENCY, "20"));
+        latencyJitterMillis = Long.parseLong(params.getAsString(LATENCY_JITTER, "5"));
+        bandwidth = Long.parseLong(params.getAsString(BANDWIDTH, "0"));
+        final long totalBandwidth = Long.parseLong(params.getAsString(TOTAL_BANDWIDTH, "0"));
+        totalPacer = totalBandwidth > 0 ? new Pacer(totalBandwidth) : null;
+        slowdownRate = Double.parseDouble(params.getAsString(SLOWDOWN_RATE, "0"));
+        requestRate = Long.parseLong(params.getAsString(REQUEST_RATE, "0"));
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public long getObjects() {
+        return objects;
+    }
+
+    public String getKey(final long index) {
+        return String.format("d%05d/f%010d.txt", index / objectsPerPrefix, index);
+    }
+
+    public long getSize(final long index) {
+        if (minSize >= maxSize) {
+            return minSize;
+        }
+        // a fixed size for each key, distributed log-uniformly between the bounds
+        final double u = (mix(index) >>> 11) * 0x1.0p-53;
+        return Math.min((long) Math.exp(Math.log(Math.max(minSize, 1)) + u * (Math.log(maxSize) - Math.log(Math.max(minSize, 1)))),
+                maxSize);
+    }
+
+    protected String getETag(final long index) {
+        return "\"" + Long.toHexString(mix(index)) + "\"";
+    }
+
+    protected static long mix(final long value) {
+        long z = value + 0x9e3779b97f4a7c15L;
+        z = (z ^ z >>> 30) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ z >>> 27) * 0x94d049bb133111ebL;
+        return z ^ z >>> 31;
+    }
+
+    /**
+     * @return the index of the first key not less than the text, or the number of objects
+     */
+    protected long lowerBound(final String text) {
+        long low = 0;
+        long high = objects;
+        while (low < high) {
+            final long mid = low + high >>> 1;
+            if (getKey(mid).compareTo(text) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the key, or -1 if it is not in the bucket
+     */
+    protected long indexOf(final String key) {
+        final long index = lowerBound(key);
+        return index < objects && getKey(index).equals(key) ? index : -1;
+    }
+
+    @Override
+    public ExecutableHttpRequest prepareRequest(final HttpExecuteRequest request) {
+        return new ExecutableHttpRequest() {
+            @Override
+            public HttpExecuteResponse call() throws IOException {
+                return execute(request.httpRequest());
+            }
+
+            @Override
+            public void abort() {
+            }
+        };
+    }
+
+    protected HttpExecuteResponse execute(final SdkHttpRequest request) throws IOException {
+        sleep(getLatency());
+        String path = request.encodedPath() != null && request.encodedPath().startsWith("/") ? request.encodedPath().substring(1)
+                : request.encodedPath();
+        // a virtual-hosted request has the bucket in the host name: <bucket>.s3.<region>.amazonaws.com
+        final String host = request.host();
+        final int hostPos = host.indexOf(".s3.");
+        String region = null;
+        if (hostPos > 0 && host.endsWith(".amazonaws.com")) {
+            path = host.substring(0, hostPos) + "/" + path;
+            final String rest = host.substring(hostPos + ".s3.".length());
+            region = rest.substring(0, rest.indexOf('.'));
+        }
+        final int pos = path.indexOf('/');
+        final String bucketName = pos < 0 ? path : path.substring(0, pos);
+        final String key = pos < 0 ? "" : SdkHttpUtils.urlDecode(path.substring(pos + 1));
+
+        if (slowdownRate > 0 && ThreadLocalRandom.current().nextDouble() < slowdownRate
+                || isOverRequestRate(key.isEmpty() ? request.firstMatchingRawQueryParameter("prefix").orElse("") : key)) {
+            slowdowns.increment();
+            return error(503, "SlowDown", "Please reduce your request rate.");
+        }
+        if (bucketName.isEmpty()) {
+            otherRequests.increment();
+            return xml(listBuckets());
+        }
+        if (!bucket.equals(bucketName)) {
+            otherRequests.increment();
+            return error(404, "NoSuchBucket", "The specified bucket does not exist");
+        }
+        if (key.isEmpty() && request.firstMatchingRawQueryParameter("location").isPresent()) {
+            otherRequests.increment();
+            return xml("<LocationConstraint xmlns=\"" + NAMESPACE + "\">" + ("us-east-1".equals(bucketRegion) ? "" : bucketRegion)
+                    + "</LocationConstraint>");
+        }
+        if (region != null && !region.equals(bucketRegion)) {
+            redirects.increment();
+            return redirect();
+        }
+        if (key.isEmpty() && request.method() == SdkHttpMethod.HEAD) {
+            otherRequests.increment();
+            return HttpExecuteResponse.builder()
+                    .response(SdkHttpResponse.builder().statusCode(200).putHeader("x-amz-bucket-region", bucketRegion).build())
+                    .build();
+        }
+        if (key.isEmpty()) {
+            listRequests.increment();
+            return xml(listObjects(request));
+        }
+        final long index = indexOf(key);
+        if (request.method() == SdkHttpMethod.HEAD) {
+            headRequests.increment();
+            if (index < 0) {
+                return error(404, "NoSuchKey", "The specified key does not exist.");
+            }
+            return getObject(request, index, false);
+        }
+        getRequests.increment();
+        if (index < 0) {
+            return error(404, "NoSuchKey", "The specified key does not exist.");
+        }
+        return getObject(request, index, true);
+    }
+
+    /**
+     * Takes a token for the request from the bucket of its top-level prefix, which holds the tokens of a tenth of a second.
+     *
+     * @return true if the prefix has no token left
+     */
+    protected boolean isOverRequestRate(final String key) {
+        if (requestRate <= 0) {
+            return false;
+        }
+        final int pos = key.indexOf('/');
+        final double[] bucket = requestTokens.computeIfAbsent(pos < 0 ? "" : key.substring(0, pos), k -> new double[2]);
+        final long now = System.nanoTime();
+        final double capacity = Math.max(requestRate / 10.0, 1);
+        synchronized (bucket) {
+            bucket[1] = bucket[0] == 0 ? capacity : Math.min(bucket[1] + (now - (long) bucket[0]) * requestRate / 1e9, capacity);
+            bucket[0] = now;
+            if (bucket[1] < 1) {
+                return true;
+            }
+            bucket[1]--;
+            return false;
+        }
+    }
+
+    protected long getLatency() {
+        if (latencyJitterMillis <= 0) {
+            return latencyMillis;
+        }
+        return latencyMillis + (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * latencyJitterMillis);
+    }
+
+    protected String listBuckets() {
+        return "<ListAllMyBucketsResult xmlns=\"" + NAMESPACE + "\"><Owner><ID>owner</ID><DisplayName>Owner</DisplayName></Owner>"
+                + "<Buckets><Bucket><Name>" + bucket + "</Name><CreationDate>" + LAST_MODIFIED + "</CreationDate><BucketRegion>"
+                + bucketRegion + "</BucketRegion></Bucket></Buckets></ListAllMyBucketsResult>";
+    }
+
+    protected String listObjects(final SdkHttpRequest request) {
+        final String prefix = request.firstMatchingRawQueryParameter("prefix").orElse("");
+        final String delimiter = request.firstMatchingRawQueryParameter("delimiter").filter(s -> !s.isEmpty()).orElse(null);
+        final int maxKeys = Math.min(request.firstMatchingRawQueryParameter("max-keys").map(Integer::parseInt).orElse(MAX_KEYS), MAX_KEYS);
+        final boolean fetchOwner = request.firstMatchingRawQueryParameter("fetch-owner").map(Boolean::parseBoolean).orElse(false);
+        String start = prefix;
+        final String startAfter = request.firstMatchingRawQueryParameter("start-after").orElse(null);
+        if (startAfter != null && startAfter.compareTo(start) >= 0) {
+            start = startAfter + '\0';
+        }
+        // the token is the first key of the next page
+        final String token = request.firstMatchingRawQueryParameter("continuation-token").orElse(null);
+        if (token != null && token.compareTo(start) > 0) {
+            start = token;
+        }
+
+        final StringBuilder contents = new StringBuilder();
+        int count = 0;
+        long index = lowerBound(start);
+        while (index < objects && count < maxKeys) {
+            final String key = getKey(index);
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            final int pos = delimiter != null ? key.indexOf(delimiter, prefix.length()) : -1;
+            if (pos >= 0) {
+                final String commonPrefix = key.substring(0, pos + delimiter.length());
+                contents.append("<CommonPrefixes><Prefix>").append(commonPrefix).append("</Prefix></CommonPrefixes>");
+                index = lowerBound(commonPrefix + Character.MAX_VALUE);
+            } else {
+                contents.append("<Contents><Key>")
+                        .append(key)
+                        .append("</Key><LastModified>")
+                        .append(LAST_MODIFIED)
+                        .append("</LastModified><ETag>")
+                        .append(getETag(index).replace("\"", "&quot;"))
+                        .append("</ETag><Size>")
+                        .append(getSize(index))
+                        .append("</Size><StorageClass>STANDARD</StorageClass>");
+                if (fetchOwner) {
+                    contents.append("<Owner><ID>owner</ID><DisplayName>Owner</DisplayName></Owner>");
+                }
+                contents.append("</Contents>");
+                index++;
+            }
+            count++;
+        }
+        final boolean truncated = index < objects && getKey(index).startsWith(prefix);
+        final StringBuilder buf = new StringBuilder();
+        buf.append("<ListBucketResult xmlns=\"").append(NAMESPACE).append("\"><Name>").append(bucket).append("</Name><Prefix>");
+        buf.append(prefix).append("</Prefix><KeyCount>").append(count).append("</KeyCount><MaxKeys>").append(maxKeys);
+        buf.append("</MaxKeys><IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated) {
+            buf.append("<NextContinuationToken>").append(getKey(index)).append("</NextContinuationToken>");
+        }
+        buf.append(contents).append("</ListBucketResult>");
+        return buf.toString();
+    }
+
+    protected HttpExecuteResponse getObject(final SdkHttpRequest request, final long index, final boolean withBody) {
+        final String eTag = getETag(index);
+        final String ifMatch = request.firstMatchingHeader("If-Match").orElse(null);
+        if (ifMatch != null && !ifMatch.equals(eTag)) {
+            return error(412, "PreconditionFailed", "At least one of the pre-conditions you specified did not hold");
+        }
+        final long size = getSize(index);
+        long start = 0;
+        long end = size - 1;
+        boolean partial = request.firstMatchingRawQueryParameter("partNumber").isPresent();
+        final String range = request.firstMatchingHeader("Range").orElse(null);
+        if (range != null && range.startsWith("bytes=")) {
+            final String[] values = range.substring("bytes=".length()).split("-", 2);
+            start = Long.parseLong(values[0]);
+            end = values[1].isEmpty() ? size - 1 : Math.min(Long.parseLong(values[1]), size - 1);
+            partial = true;
+        }
+        final long length = Math.max(end - start + 1, 0);
+        final SdkHttpResponse.Builder builder = SdkHttpResponse.builder()
+                .statusCode(partial ? 206 : 200)
+                .putHeader("Content-Type", "text/plain")
+                .putHeader("Content-Length", Long.toString(length))
+                .putHeader("ETag", eTag)
+                .putHeader("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(LAST_MODIFIED.atOffset(ZoneOffset.UTC)))
+                .putHeader("Accept-Ranges", "bytes");
+        if (partial) {
+            builder.putHeader("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+        final HttpExecuteResponse.Builder response = HttpExecuteResponse.builder().response(builder.build());
+        if (withBody) {
+            response.responseBody(AbortableInputStream.create(new ContentInputStream(start, length)));
+        }
+        return response.build();
+    }
+
+    protected HttpExecuteResponse xml(final String body) {
+        final byte[] bytes = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + body).getBytes(StandardCharsets.UTF_8);
+        return HttpExecuteResponse.builder()
+                .response(SdkHttpResponse.builder()
+                        .statusCode(200)
+                        .putHeader("Content-Type", "application/xml")
+                        .putHeader("Content-Length", Integer.toString(bytes.length))
+                        .build())
+                .responseBody(AbortableInputStream.create(new ByteArrayInputStream(bytes)))
+                .build();
+    }
+
+    /**
+     * @return a 301 response to a request sent to the endpoint of another region than the bucket
+     */
+    protected HttpExecuteResponse redirect() {
+        final HttpExecuteResponse response = error(301, "PermanentRedirect",
+                "The bucket you are attempting to access must be addressed using the specified endpoint.");
+        return HttpExecuteResponse.builder()
+                .response(response.httpResponse().toBuilder().putHeader("x-amz-bucket-region", bucketRegion).build())
+                .responseBody(response.responseBody().orElse(null))
+                .build();
+    }
+
+    protected HttpExecuteResponse error(final int status, final String code, final String message) {
+        final byte[] bytes = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Error><Code>" + code + "</Code><Message>" + message
+                + "</Message><RequestId>load</RequestId></Error>").getBytes(StandardCharsets.UTF_8);
+        return HttpExecuteResponse.builder()
+                .response(SdkHttpResponse.builder()
+                        .statusCode(status)
+                        .putHeader("Content-Type", "application/xml")
+                        .putHeader("Content-Length", Integer.toString(bytes.length))
+                        .build())
+                .responseBody(AbortableInputStream.create(new ByteArrayInputStream(bytes)))
+                .build();
+    }
+
+    protected static void sleep(final long millis) throws InterruptedIOException {
+        sleepNanos(millis * 1_000_000L);
+    }
+
+    protected static void sleepNanos(final long nanos) throws InterruptedIOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    public long getSlowdowns() {
+        return slowdowns.sum();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    public long getRedirects() {
+        return redirects.sum();
+    }
+
+    @Override
+    public String clientName() {
+        return "FakeS3";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return "FakeS3HttpClient [list=" + listRequests.sum() + ", get=" + getRequests.sum() + ", head=" + headRequests.sum() + ", other="
+                + otherRequests.sum() + ", redirect=" + redirects.sum() + ", slowdown=" + slowdowns.sum() + ", sent=" + sentBytes.sum()
+                + "]";
+    }
+
+    /**
+     * Spaces out the bytes sent so that they do not exceed the rate.
+     */
+    protected static class Pacer {
+        final double nanosPerByte;
+        long next = System.nanoTime();
+
+        Pacer(final long bytesPerSecond) {
+            nanosPerByte = 1_000_000_000d / bytesPerSecond;
+        }
+
+        /**
+         * @return the nanoseconds to wait until the bytes are sent
+         */
+        synchronized long reserve(final int bytes) {
+            final long now = System.nanoTime();
+            next = Math.max(next, now) + (long) (bytes * nanosPerByte);
+            return next - now;
+        }
+    }
+
+    /**
+     * Repeats a line of text from the offset of a range.
+     */
+    protected class ContentInputStream extends InputStream {
+        private final Pacer pacer = bandwidth > 0 ? new Pacer(bandwidth) : null;
+        private long position;
+        private long remaining;
+
+        ContentInputStream(final long start, final long length) {
+            position = start;
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int n = (int) Math.min(Math.min(len, CHUNK_SIZE), remaining);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = TEXT[(int) ((position + i) % TEXT.length)];
+            }
+            long wait = pacer != null ? pacer.reserve(n) : 0;
+            if (totalPacer != null) {
+                wait = Math.max(wait, totalPacer.reserve(n));
+            }
+            sleepNanos(wait);
+            position += n;
+            remaining -= n;
+            sentBytes.add(n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.codelibs.fess.entity.DataStoreParams;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.Bucket;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectStorageClass;
+import software.amazon.awssdk.services.s3.model.Owner;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Serves the objects of one bucket from memory, so that the benchmarks run without a network or a container.
+ */
+public class InMemoryAmazonS3Client extends AmazonS3Client {
+
+    protected static final Instant LAST_MODIFIED = Instant.parse("2025-01-01T00:00:00Z");
+
+    protected final Bucket bucket;
+    protected final Map<String, byte[]> objects = new LinkedHashMap<>();
+
+    public InMemoryAmazonS3Client(final String bucketName) {
+        this(bucketName, newParams());
+    }
+
+    public InMemoryAmazonS3Client(final String bucketName, final DataStoreParams params) {
+        super(params);
+        bucket = Bucket.builder().name(bucketName).creationDate(LAST_MODIFIED).build();
+    }
+
+    public static DataStoreParams newParams() {
+        final DataStoreParams params = new DataStoreParams();
+        params.put(REGION, "us-east-1");
+        params.put(ACCESS_KEY_ID, "benchmark");
+        params.put(SECRET_KEY, "benchmark");
+        // no request is sent to the endpoint
+        params.put(ENDPOINT, "http://localhost:9");
+        return params;
+    }
+
+    public void putObject(final String key, final byte[] data) {
+        objects.put(key, data);
+    }
+
+    public Bucket getBucket() {
+        return bucket;
+    }
+
+    public S3Object getS3Object(final String key) {
+        final byte[] data = getData(key);
+        return S3Object.builder()
+                .key(key)
+                .size((long) data.length)
+                .eTag(getETag(key))
+                .lastModified(LAST_MODIFIED)
+                .storageClass(ObjectStorageClass.STANDARD)
+                .owner(Owner.builder().id("owner").displayName("Owner").build())
+                .build();
+    }
+
+    @Override
+    public void getBuckets(final Consumer<Bucket> consumer) {
+        consumer.accept(bucket);
+    }
+
+    @Override
+    public void getBuckets(final String[] bucketNames, final Consumer<Bucket> consumer) {
+        consumer.accept(bucket);
+    }
+
+    @Override
+    public void getObjects(final String bucketName, final String prefix, final int maxKeys, final Consumer<S3Object> consumer) {
+        for (final String key : objects.keySet()) {
+            if (prefix == null || key.startsWith(prefix)) {
+                consumer.accept(getS3Object(key));
+            }
+        }
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(final String bucketName, final String key) {
+        return getObject(bucketName, key, null, null, null);
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(final String bucketName, final String key, final String eTag,
+            final Integer partNumber, final String range) {
+        final byte[] data = getData(key);
+        int start = 0;
+        int end = data.length - 1;
+        if (range != null) {
+            final String[] values = range.substring("bytes=".length()).split("-");
+            start = Integer.parseInt(values[0]);
+            end = Math.min(Integer.parseInt(values[1]), data.length - 1);
+        }
+        final GetObjectResponse response = GetObjectResponse.builder()
+                .eTag(getETag(key))
+                .contentType("text/plain")
+                .contentLength((long) end - start + 1)
+                .lastModified(LAST_MODIFIED)
+                .build();
+        return new ResponseInputStream<>(response,
+                AbortableInputStream.create(new ByteArrayInputStream(data, start, end - start + 1)));
+    }
+
+    @Override
+    public HeadObjectResponse headObject(final String bucketName, final String key, final Integer partNumber) {
+        final byte[] data = getData(key);
+        return HeadObjectResponse.builder()
+                .eTag(getETag(key))
+                .contentType("text/plain")
+                .contentLength((long) data.length)
+                .lastModified(LAST_MODIFIED)
+                .build();
+    }
+
+    protected byte[] getData(final String key) {
+        final byte[] data = objects.get(key);
+        if (data == null) {
+            throw NoSuchKeyException.builder().statusCode(404).message(key).build();
+        }
+        return data;
+    }
+
+    protected String getETag(final String key) {
+        return "\"" + Integer.toHexString(key.hashCode()) + "\"";
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.Bucket;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * The object map of one downloaded text object, with all fields and with the fields of a metadata-only mapping,
+ * and the URLs of an object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ObjectMapBenchmark {
+
+    protected static final String REGION = "us-east-1";
+
+    protected AmazonS3DataStore dataStore;
+    protected InMemoryAmazonS3Client client;
+    protected Bucket bucket;
+    protected S3Object object;
+    protected String url;
+    protected GetObjectResponse response;
+    protected DeferredFileOutputStream content;
+    protected Set<String> metadataFields;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkContainer.initialize();
+        dataStore = new AmazonS3DataStore();
+        client = new InMemoryAmazonS3Client("benchmark");
+        final String key = "docs/2025/01/report with spaces.txt";
+        client.putObject(key, "The quick brown fox jumps over the lazy dog.\n".repeat(200).getBytes(StandardCharsets.UTF_8));
+        bucket = client.getBucket();
+        object = client.getS3Object(key);
+        url = dataStore.getUrl(client.getEndpoint(), REGION, bucket.name(), key);
+        try (ResponseInputStream<GetObjectResponse> stream = client.getObject(bucket.name(), key)) {
+            response = stream.response();
+            content = dataStore.downloadObject(stream, url);
+        }
+        metadataFields = Set.of(AmazonS3DataStore.OBJECT_URL, AmazonS3DataStore.OBJECT_KEY, AmazonS3DataStore.OBJECT_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataStore.deleteContent(content);
+        client.close();
+        BenchmarkContainer.destroy();
+    }
+
+    @Benchmark
+    public Object getObjectMap() throws Exception {
+        return dataStore.getObjectMap(REGION, bucket, object, url, response, content, false);
+    }
+
+    @Benchmark
+    public Object getObjectMapWithMetadataFields() throws Exception {
+        return dataStore.getObjectMap(REGION, bucket, object, url, null, null, false, metadataFields, null);
+    }
+
+    @Benchmark
+    public String getUrl() throws Exception {
+        return dataStore.getUrl(client.getEndpoint(), REGION, bucket.name(), object.key());
+    }
+
+    @Benchmark
+    public String getManagementUrl() throws Exception {
+        return dataStore.getManagementUrl(REGION, bucket.name(), object.key());
+    }
+}
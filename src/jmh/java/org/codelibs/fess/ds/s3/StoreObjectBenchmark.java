@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.fess.ds.callback.IndexUpdateCallback;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.opensearch.config.exentity.DataConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Fetches, extracts and indexes one object per call through {@code storeObject}, with a callback that only consumes the document.
+ * The mapping is the default mapping of the README, or one that reads only the listing fields.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StoreObjectBenchmark {
+
+    protected static final int OBJECTS = 100;
+
+    @Param({ "4096", "262144" })
+    public int size;
+
+    @Param({ "default", "metadata" })
+    public String mapping;
+
+    protected AmazonS3DataStore dataStore;
+    protected InMemoryAmazonS3Client client;
+    protected DataConfig dataConfig;
+    protected DataStoreParams paramMap;
+    protected AmazonS3DataStore.Config config;
+    protected ScriptMapping scriptMapping;
+    protected List<S3Object> objects;
+    protected NoOpCallback callback;
+    protected int index;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        BenchmarkContainer.initialize();
+        dataStore = new AmazonS3DataStore() {
+            @Override
+            protected void storeFailureUrl(final DataConfig dataConfig, final String errorName, final String url, final Throwable target) {
+                throw new IllegalStateException(errorName + ": " + url, target);
+            }
+        };
+        client = new InMemoryAmazonS3Client("benchmark");
+        final byte[] line = "The quick brown fox jumps over the lazy dog.\n".getBytes(StandardCharsets.UTF_8);
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = line[i % line.length];
+        }
+        for (int i = 0; i < OBJECTS; i++) {
+            client.putObject("docs/" + i / 10 + "/file-" + i + ".txt", data);
+        }
+        objects = client.objects.keySet().stream().map(client::getS3Object).toList();
+
+        final Map<String, String> scriptMap = new HashMap<>();
+        scriptMap.put("url", "object.url");
+        scriptMap.put("title", "object.key");
+        scriptMap.put("filename", "object.filename");
+        scriptMap.put("content_length", "object.size");
+        scriptMap.put("last_modified", "object.last_modified");
+        if ("default".equals(mapping)) {
+            scriptMap.put("content", "object.contents");
+            scriptMap.put("mimetype", "object.mimetype");
+            scriptMap.put("filetype", "object.filetype");
+        }
+        dataConfig = new DataConfig();
+        paramMap = new DataStoreParams();
+        config = new AmazonS3DataStore.Config(paramMap);
+        scriptMapping = dataStore.createScriptMapping(paramMap, scriptMap);
+        callback = new NoOpCallback(blackhole);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        BenchmarkContainer.destroy();
+    }
+
+    @Benchmark
+    public void storeObject() {
+        final S3Object object = objects.get(index++ % OBJECTS);
+        dataStore.storeObject(dataConfig, callback, paramMap, scriptMapping, new HashMap<>(), config, client, client.getBucket(), object);
+    }
+
+    static class NoOpCallback implements IndexUpdateCallback {
+        private final Blackhole blackhole;
+        private long documentSize;
+
+        NoOpCallback(final Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void store(final DataStoreParams paramMap, final Map<String, Object> dataMap) {
+            blackhole.consume(dataMap);
+            documentSize++;
+        }
+
+        @Override
+        public long getDocumentSize() {
+            return documentSize;
+        }
+
+        @Override
+        public long getExecuteTime() {
+            return 0;
+        }
+
+        @Override
+        public void commit() {
+        }
+    }
+}
@@ -15,31 +15,73 @@
  */
 package org.codelibs.fess.ds.s3;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
 import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.Constants;
 import org.codelibs.fess.entity.DataStoreParams;
 import org.codelibs.fess.exception.DataStoreException;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.http.apache.ApacheHttpClient;
 import software.amazon.awssdk.http.apache.ProxyConfiguration;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3ClientBuilder;
 import software.amazon.awssdk.services.s3.model.Bucket;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
 public class AmazonS3Client implements AutoCloseable {
@@ -56,21 +98,110 @@ public class AmazonS3Client implements AutoCloseable {
 
     // other parameters
     protected static final String MAX_CACHED_CONTENT_SIZE = "max_cached_content_size";
+    protected static final String ASYNC_FETCH = "async_fetch";
+    protected static final String MAX_IN_FLIGHT = "max_in_flight";
+    protected static final String MAX_CONNECTIONS = "max_connections";
+    protected static final String MULTIPART_THRESHOLD = "multipart_threshold";
+    protected static final String MULTIPART_SIZE = "multipart_size";
+    protected static final String MULTIPART_THREADS = "multipart_threads";
+    protected static final String MULTIPART_RETRIES = "multipart_retries";
+    protected static final String FETCH_OWNER = "fetch_owner";
+    protected static final String FETCH_CREATION_DATE = "fetch_creation_date";
+    protected static final String ADAPTIVE_CONCURRENCY = "adaptive_concurrency";
+    protected static final String MIN_CONCURRENCY = "min_concurrency";
+    protected static final String INITIAL_CONCURRENCY = "initial_concurrency";
+    protected static final String MAX_CONCURRENCY = "max_concurrency";
+    protected static final String MAX_LIST_RATE = "max_list_rate";
+    protected static final String MAX_GET_RATE = "max_get_rate";
+    protected static final String MAX_BYTES_RATE = "max_bytes_rate";
+    protected static final String MAX_REQUESTS = "max_requests";
+
+    protected static final int DEFAULT_MAX_CACHED_CONTENT_SIZE = 1024 * 1024;
+    protected static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    protected static final int DEFAULT_MAX_CONNECTIONS = 50;
+    protected static final long DEFAULT_MULTIPART_THRESHOLD = 64L * 1024 * 1024;
+    protected static final long DEFAULT_MULTIPART_SIZE = 8L * 1024 * 1024;
+    protected static final int DEFAULT_MULTIPART_THREADS = 4;
+    protected static final int DEFAULT_MULTIPART_RETRIES = 3;
+    protected static final int DEFAULT_MIN_CONCURRENCY = 1;
+    protected static final int DEFAULT_INITIAL_CONCURRENCY = 4;
+
+    // the permit of the request running on the thread, for the interceptor to suspend during retries
+    protected static final ThreadLocal<ConcurrencyLimiter.Permit> CURRENT_PERMIT = new ThreadLocal<>();
+
+    protected static final String DELIMITER = "/";
+    protected static final int PREFIXES_PER_THREAD = 4;
+    protected static final int MAX_RESOLVER_THREADS = 16;
+    protected static final String BUCKET_REGION_HEADER = "x-amz-bucket-region";
 
     protected final DataStoreParams params;
 
+    // the clients of the configured region
     protected final S3Client client;
+    protected final S3AsyncClient asyncClient;
+    // the clients of the other regions, which share the HTTP clients
+    protected final Map<Region, S3Client> regionClients = new ConcurrentHashMap<>();
+    protected final Map<Region, S3AsyncClient> regionAsyncClients = new ConcurrentHashMap<>();
+    // the regions of the buckets
+    protected final Map<String, Region> bucketRegions = new ConcurrentHashMap<>();
+    protected final AwsCredentialsProvider credentialsProvider;
+    protected final SdkHttpClient httpClient;
+    // false if the HTTP client is closed by its owner
+    protected final boolean closeHttpClient;
+    protected final SdkAsyncHttpClient asyncHttpClient;
+    protected final int maxInFlight;
+    protected final int maxConnections;
     protected final Region region;
     protected final String endpoint;
-    protected int maxCachedContentSize = 1024 * 1024;
+    // 0 or less if multipart downloads are disabled
+    protected final long multipartThreshold;
+    protected final long multipartSize;
+    protected final int multipartThreads;
+    protected final int multipartRetries;
+    // created by the first multipart download
+    protected MultipartDownloader multipartDownloader;
+    // false to list objects without their owners
+    protected final boolean fetchOwner;
+    // false to resolve named buckets without their creation dates
+    protected final boolean fetchCreationDate;
+    // null if the requests are not limited
+    protected final ConcurrencyLimiter limiter;
+    protected final RequestBudget budget;
+    protected CrawlMetrics metrics = new CrawlMetrics();
+    protected int maxCachedContentSize = DEFAULT_MAX_CACHED_CONTENT_SIZE;
 
     public AmazonS3Client(final DataStoreParams params) {
+        this(params, null);
+    }
+
+    /**
+     * @param httpClient the HTTP client of the synchronous requests, or null to create an Apache HTTP client from the parameters
+     */
+    protected AmazonS3Client(final DataStoreParams params, final SdkHttpClient httpClient) {
         this.params = params;
         final String size = params.getAsString(MAX_CACHED_CONTENT_SIZE);
         if (StringUtil.isNotBlank(size)) {
             maxCachedContentSize = Integer.parseInt(size);
         }
 
+        // a threshold of 0 or less disables multipart downloads
+        multipartThreshold = getLongValue(params, MULTIPART_THRESHOLD, DEFAULT_MULTIPART_THRESHOLD, Long.MIN_VALUE);
+        multipartSize = getLongValue(params, MULTIPART_SIZE, DEFAULT_MULTIPART_SIZE, 1L);
+        multipartThreads = getIntValue(params, MULTIPART_THREADS, DEFAULT_MULTIPART_THREADS, 1);
+        multipartRetries = getIntValue(params, MULTIPART_RETRIES, DEFAULT_MULTIPART_RETRIES, 0);
+        if (multipartThreshold > 0 && logger.isDebugEnabled()) {
+            logger.debug("multipart download: threshold={}, partSize={}, threads={}, retries={}", multipartThreshold, multipartSize,
+                    multipartThreads, multipartRetries);
+        }
+
+        fetchOwner = !Constants.FALSE.equalsIgnoreCase(params.getAsString(FETCH_OWNER, Constants.TRUE));
+        fetchCreationDate = !Constants.FALSE.equalsIgnoreCase(params.getAsString(FETCH_CREATION_DATE, Constants.TRUE));
+        // the parameters are read before any client is built, so that no client is left open if one is invalid
+        maxInFlight = getIntValue(params, MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT);
+        maxConnections = getIntValue(params, MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+        limiter = createConcurrencyLimiter();
+        budget = createRequestBudget();
+
         final String region = params.getAsString(REGION, StringUtil.EMPTY);
         if (region.isEmpty()) {
             throw new DataStoreException("Parameter '" + REGION + "' is required");
@@ -79,38 +210,227 @@ public class AmazonS3Client implements AutoCloseable {
         this.endpoint = params.getAsString(ENDPOINT);
         final String httpProxyHost = params.getAsString(PROXY_HOST_PARAM, StringUtil.EMPTY);
         final String httpProxyPort = params.getAsString(PROXY_PORT_PARAM, StringUtil.EMPTY);
-        logger.info("region:{}, endpoint:{}, proxy:{}:{}", region, endpoint, httpProxyHost, httpProxyPort);
-        final AwsCredentialsProvider awsCredentialsProvider = new AwsBasicCredentialsProvider(params);
+        logger.info("region:{}, endpoint:{}, proxy:{}:{}, maxConnections:{}", region, endpoint, httpProxyHost, httpProxyPort,
+                maxConnections);
+        credentialsProvider = new AwsBasicCredentialsProvider(params);
+        closeHttpClient = httpClient == null;
         try {
-            final ApacheHttpClient.Builder httpClientBuilder = ApacheHttpClient.builder();
+            this.httpClient = httpClient != null ? httpClient : createHttpClient(httpProxyHost, httpProxyPort);
+            client = createClient(this.region);
+        } catch (final Exception e) {
+            throw new DataStoreException("Failed to create a client.", e);
+        }
 
-            if (!httpProxyHost.isEmpty()) {
-                if (httpProxyPort.isEmpty()) {
-                    throw new DataStoreException(PROXY_PORT_PARAM + " required.");
+        if (Constants.TRUE.equalsIgnoreCase(params.getAsString(ASYNC_FETCH, Constants.FALSE))) {
+            logger.info("async fetch: maxInFlight={}", maxInFlight);
+            SdkAsyncHttpClient createdHttpClient = null;
+            try {
+                createdHttpClient = createAsyncHttpClient(httpProxyHost, httpProxyPort);
+                asyncHttpClient = createdHttpClient;
+                asyncClient = createAsyncClient(this.region);
+            } catch (final RuntimeException e) {
+                if (createdHttpClient != null) {
+                    createdHttpClient.close();
                 }
-                try {
-                    httpClientBuilder.proxyConfiguration(ProxyConfiguration.builder()
-                            .useSystemPropertyValues(true)
-                            .endpoint(URI.create(httpProxyHost + ":" + Integer.parseInt(httpProxyPort)))
-                            .build());
-                } catch (final NumberFormatException e) {
-                    throw new DataStoreException("parameter " + "'" + PROXY_PORT_PARAM + "' invalid.", e);
+                client.close();
+                if (closeHttpClient) {
+                    this.httpClient.close();
                 }
+                throw e;
+            }
+        } else {
+            asyncHttpClient = null;
+            asyncClient = null;
+        }
+    }
+
+    /**
+     * @return the value of the parameter, or the default value if it is not set or not a number
+     */
+    protected static int getIntValue(final DataStoreParams params, final String key, final int defaultValue) {
+        return getIntValue(params, key, defaultValue, Integer.MIN_VALUE);
+    }
+
+    /**
+     * @return the value of the parameter, or the default value if it is not set, not a number or less than the minimum value
+     */
+    protected static int getIntValue(final DataStoreParams params, final String key, final int defaultValue, final int minValue) {
+        final String value = params.getAsString(key);
+        if (StringUtil.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            final int number = Integer.parseInt(value.trim());
+            if (number >= minValue) {
+                return number;
+            }
+        } catch (final NumberFormatException e) {
+            // the default value is used
+        }
+        logger.warn("Invalid value of {}: {}. {} is used instead.", key, value, defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * @return the value of the parameter, or the default value if it is not set, not a number or less than the minimum value
+     */
+    protected static long getLongValue(final DataStoreParams params, final String key, final long defaultValue, final long minValue) {
+        final String value = params.getAsString(key);
+        if (StringUtil.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            final long number = Long.parseLong(value.trim());
+            if (number >= minValue) {
+                return number;
+            }
+        } catch (final NumberFormatException e) {
+            // the default value is used
+        }
+        logger.warn("Invalid value of {}: {}. {} is used instead.", key, value, defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * @return the value of the parameter, or the default value if it is not set, not a finite number or less than the minimum value
+     */
+    protected static double getDoubleValue(final DataStoreParams params, final String key, final double defaultValue,
+            final double minValue) {
+        final String value = params.getAsString(key);
+        if (StringUtil.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            final double number = Double.parseDouble(value.trim());
+            if (Double.isFinite(number) && number >= minValue) {
+                return number;
+            }
+        } catch (final NumberFormatException e) {
+            // the default value is used
+        }
+        logger.warn("Invalid value of {}: {}. {} is used instead.", key, value, defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * @return the limiter of the requests running at once, or null if {@code adaptive_concurrency} is not enabled
+     */
+    private ConcurrencyLimiter createConcurrencyLimiter() {
+        if (!Constants.TRUE.equalsIgnoreCase(params.getAsString(ADAPTIVE_CONCURRENCY, Constants.FALSE))) {
+            return null;
+        }
+        final int minLimit = getIntValue(params, MIN_CONCURRENCY, DEFAULT_MIN_CONCURRENCY, 1);
+        int maxLimit = getIntValue(params, MAX_CONCURRENCY, Math.max(maxConnections, minLimit), 1);
+        if (maxLimit < minLimit) {
+            logger.warn("{} ({}) is less than {} ({}). {} is used instead.", MAX_CONCURRENCY, maxLimit, MIN_CONCURRENCY, minLimit,
+                    minLimit);
+            maxLimit = minLimit;
+        }
+        int initialLimit = getIntValue(params, INITIAL_CONCURRENCY, DEFAULT_INITIAL_CONCURRENCY, 1);
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            final int limit = Math.min(Math.max(initialLimit, minLimit), maxLimit);
+            if (params.containsKey(INITIAL_CONCURRENCY)) {
+                logger.warn("{} ({}) is not between {} and {}. {} is used instead.", INITIAL_CONCURRENCY, initialLimit, minLimit,
+                        maxLimit, limit);
+            }
+            initialLimit = limit;
+        }
+        logger.info("adaptive concurrency: min={}, initial={}, max={}", minLimit, initialLimit, maxLimit);
+        return new ConcurrencyLimiter(minLimit, initialLimit, maxLimit);
+    }
+
+    private RequestBudget createRequestBudget() {
+        // 0 for no limit
+        final double listRate = getDoubleValue(params, MAX_LIST_RATE, 0d, 0d);
+        final double getRate = getDoubleValue(params, MAX_GET_RATE, 0d, 0d);
+        final double bytesRate = getDoubleValue(params, MAX_BYTES_RATE, 0d, 0d);
+        final long maxRequests = getLongValue(params, MAX_REQUESTS, 0L, 0L);
+        if (listRate > 0 || getRate > 0 || bytesRate > 0 || maxRequests > 0) {
+            logger.info("request budget: listRate={}, getRate={}, bytesRate={}, maxRequests={}", listRate, getRate, bytesRate,
+                    maxRequests);
+        }
+        return new RequestBudget(listRate, getRate, bytesRate, maxRequests);
+    }
+
+    private SdkHttpClient createHttpClient(final String httpProxyHost, final String httpProxyPort) {
+        final ApacheHttpClient.Builder httpClientBuilder = ApacheHttpClient.builder().maxConnections(maxConnections);
+
+        if (!httpProxyHost.isEmpty()) {
+            if (httpProxyPort.isEmpty()) {
+                throw new DataStoreException(PROXY_PORT_PARAM + " required.");
+            }
+            try {
+                httpClientBuilder.proxyConfiguration(ProxyConfiguration.builder()
+                        .useSystemPropertyValues(true)
+                        .endpoint(URI.create(httpProxyHost + ":" + Integer.parseInt(httpProxyPort)))
+                        .build());
+            } catch (final NumberFormatException e) {
+                throw new DataStoreException("parameter " + "'" + PROXY_PORT_PARAM + "' invalid.", e);
             }
+        }
+        return httpClientBuilder.build();
+    }
+
+    /**
+     * @return a client of the region that sends its requests with the shared HTTP client
+     */
+    private S3Client createClient(final Region region) {
+        final S3ClientBuilder builder = S3Client.builder() //
+                .region(region) //
+                .httpClient(httpClient) //
+                .credentialsProvider(credentialsProvider);
+        if (limiter != null) {
+            builder.overrideConfiguration(c -> c.addExecutionInterceptor(new ThrottlingInterceptor()));
+        }
+        if (Objects.nonNull(this.endpoint)) {
+            builder.endpointOverride(URI.create(this.endpoint))//
+                    .forcePathStyle(true);
+        }
+        return builder.build();
+    }
+
+    private SdkAsyncHttpClient createAsyncHttpClient(final String httpProxyHost, final String httpProxyPort) {
+        try {
+            final NettyNioAsyncHttpClient.Builder httpClientBuilder = NettyNioAsyncHttpClient.builder() //
+                    .maxConcurrency(maxInFlight) //
+                    .maxPendingConnectionAcquires(maxInFlight * 2);
+            if (!httpProxyHost.isEmpty()) {
+                final URI proxyUri = URI.create(httpProxyHost);
+                httpClientBuilder.proxyConfiguration(software.amazon.awssdk.http.nio.netty.ProxyConfiguration.builder()
+                        .useSystemPropertyValues(true)
+                        .scheme(proxyUri.getScheme() != null ? proxyUri.getScheme() : "http")
+                        .host(proxyUri.getHost() != null ? proxyUri.getHost() : httpProxyHost)
+                        .port(Integer.parseInt(httpProxyPort))
+                        .build());
+            }
+            return httpClientBuilder.build();
+        } catch (final NumberFormatException e) {
+            throw new DataStoreException("parameter " + "'" + PROXY_PORT_PARAM + "' invalid.", e);
+        } catch (final Exception e) {
+            throw new DataStoreException("Failed to create an async client.", e);
+        }
+    }
 
-            final S3ClientBuilder builder = S3Client.builder() //
-                    .region(this.region) //
-                    .httpClient(httpClientBuilder.build()) //
-                    .credentialsProvider(awsCredentialsProvider);
+    /**
+     * @return an async client of the region that sends its requests with the shared async HTTP client
+     */
+    private S3AsyncClient createAsyncClient(final Region region) {
+        try {
+            final S3AsyncClientBuilder builder = S3AsyncClient.builder() //
+                    .region(region) //
+                    .httpClient(asyncHttpClient) //
+                    .credentialsProvider(credentialsProvider);
+            if (limiter != null) {
+                builder.overrideConfiguration(c -> c.addExecutionInterceptor(new ThrottlingInterceptor()));
+            }
             if (Objects.nonNull(this.endpoint)) {
                 builder.endpointOverride(URI.create(this.endpoint))//
                         .forcePathStyle(true);
             }
-            client = builder.build();
+            return builder.build();
         } catch (final Exception e) {
-            throw new DataStoreException("Failed to create a client.", e);
+            throw new DataStoreException("Failed to create an async client.", e);
         }
-
     }
 
     public Region getRegion() {
@@ -121,13 +441,169 @@ public class AmazonS3Client implements AutoCloseable {
         return endpoint;
     }
 
+    public boolean isAsync() {
+        return asyncClient != null;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return the size up to which the content of an object is kept in memory instead of a temporary file
+     */
+    public int getMaxCachedContentSize() {
+        return maxCachedContentSize;
+    }
+
+    /**
+     * Passes the named buckets to the consumer in their order, without listing all buckets.
+     * The regions of the buckets are resolved at once, and the buckets that do not exist are skipped.
+     * The buckets have no creation date.
+     */
     public void getBuckets(final String[] bucketNames, final Consumer<Bucket> consumer) {
-        final Set<String> names = Arrays.stream(bucketNames).collect(Collectors.toSet());
-        client.listBuckets().buckets().stream().filter(bucket -> names.contains(bucket.name())).forEach(consumer);
+        final List<String> names = Arrays.stream(bucketNames).filter(StringUtil::isNotBlank).distinct().toList();
+        if (names.isEmpty()) {
+            return;
+        }
+        final Map<String, Instant> creationDates = fetchCreationDate ? getCreationDates() : Collections.emptyMap();
+        final List<Bucket> buckets = new ArrayList<>();
+        final ExecutorService executorService = Executors.newFixedThreadPool(Math.min(names.size(), MAX_RESOLVER_THREADS));
+        try {
+            final List<Future<Region>> futures = names.stream().map(name -> executorService.submit(() -> resolveRegion(name))).toList();
+            for (int i = 0; i < names.size(); i++) {
+                final String name = names.get(i);
+                final Region bucketRegion;
+                try {
+                    bucketRegion = futures.get(i).get();
+                } catch (final InterruptedException e) {
+                    throw new InterruptedRuntimeException(e);
+                } catch (final ExecutionException e) {
+                    throw new DataStoreException("Failed to resolve the region of " + name, e.getCause());
+                }
+                if (bucketRegion == null) {
+                    logger.warn("Bucket {} does not exist.", name);
+                    continue;
+                }
+                bucketRegions.put(name, bucketRegion);
+                buckets.add(Bucket.builder().name(name).bucketRegion(bucketRegion.id()).creationDate(creationDates.get(name)).build());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        buckets.forEach(consumer);
+    }
+
+    /**
+     * Reads the creation dates of the buckets with ListBuckets, which HeadBucket does not return.
+     *
+     * @return the creation dates by bucket name, or an empty map if ListBuckets is not allowed
+     */
+    protected Map<String, Instant> getCreationDates() {
+        budget.acquireList(null);
+        final Map<String, Instant> creationDates = new HashMap<>();
+        try {
+            client.listBuckets().buckets().forEach(bucket -> creationDates.put(bucket.name(), bucket.creationDate()));
+        } catch (final S3Exception e) {
+            logger.warn("Failed to list buckets, so object.creation_date is not set. {}", e.getMessage());
+        }
+        return creationDates;
     }
 
     public void getBuckets(final Consumer<Bucket> consumer) {
-        client.listBuckets().buckets().forEach(consumer);
+        budget.acquireList(null);
+        client.listBuckets().buckets().forEach(bucket -> {
+            if (StringUtil.isNotBlank(bucket.bucketRegion())) {
+                bucketRegions.put(bucket.name(), Region.of(bucket.bucketRegion()));
+            }
+            consumer.accept(bucket);
+        });
+    }
+
+    /**
+     * Finds the region of the bucket with a HeadBucket request, or with GetBucketLocation if the response has no region.
+     *
+     * @return the region of the bucket, or null if it does not exist
+     */
+    protected Region resolveRegion(final String bucket) {
+        String name;
+        try {
+            name = limited(CrawlMetrics.Stage.HEAD, bucket, null, () -> client.headBucket(builder -> builder.bucket(bucket).build()))
+                    .bucketRegion();
+        } catch (final NoSuchBucketException e) {
+            return null;
+        } catch (final S3Exception e) {
+            if (e.statusCode() == 404) {
+                return null;
+            }
+            // a bucket in another region answers 301, and a bucket without access 403, both with the region header
+            name = e.awsErrorDetails() != null && e.awsErrorDetails().sdkHttpResponse() != null
+                    ? e.awsErrorDetails().sdkHttpResponse().firstMatchingHeader(BUCKET_REGION_HEADER).orElse(null)
+                    : null;
+            if (logger.isDebugEnabled()) {
+                logger.debug("HeadBucket of {} failed with status {}, region: {}", bucket, e.statusCode(), name);
+            }
+        }
+        if (StringUtil.isBlank(name)) {
+            try {
+                name = limited(CrawlMetrics.Stage.HEAD, bucket, null,
+                        () -> client.getBucketLocation(builder -> builder.bucket(bucket).build())).locationConstraintAsString();
+                // buckets in us-east-1 have no location constraint, and old buckets in eu-west-1 have EU
+                if (StringUtil.isBlank(name)) {
+                    name = Region.US_EAST_1.id();
+                } else if ("EU".equals(name)) {
+                    name = Region.EU_WEST_1.id();
+                }
+            } catch (final NoSuchBucketException e) {
+                return null;
+            } catch (final S3Exception e) {
+                logger.warn("Failed to get the location of {}. The region {} is used.", bucket, region, e);
+                return region;
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Bucket {} is in {}", bucket, name);
+        }
+        return Region.of(name);
+    }
+
+    /**
+     * @return the region of the bucket, resolved on the first request if the bucket was not listed
+     */
+    protected Region getBucketRegion(final String bucket) {
+        if (Objects.nonNull(endpoint)) {
+            return region;
+        }
+        // the requests of a bucket resolved by another thread wait for its region
+        return bucketRegions.computeIfAbsent(bucket, name -> {
+            final Region bucketRegion = resolveRegion(name);
+            return bucketRegion != null ? bucketRegion : region;
+        });
+    }
+
+    /**
+     * @return the client of the region of the bucket, so that the requests are not redirected
+     */
+    protected S3Client getClient(final String bucket) {
+        final Region bucketRegion = getBucketRegion(bucket);
+        if (bucketRegion.equals(region)) {
+            return client;
+        }
+        return regionClients.computeIfAbsent(bucketRegion, r -> {
+            logger.info("Creating a client of {} for {}", r, bucket);
+            return createClient(r);
+        });
+    }
+
+    protected S3AsyncClient getAsyncClient(final String bucket) {
+        final Region bucketRegion = getBucketRegion(bucket);
+        if (bucketRegion.equals(region)) {
+            return asyncClient;
+        }
+        return regionAsyncClients.computeIfAbsent(bucketRegion, r -> {
+            logger.info("Creating an async client of {} for {}", r, bucket);
+            return createAsyncClient(r);
+        });
     }
 
     public void getObjects(final String bucket, final Consumer<S3Object> consumer) {
@@ -135,27 +611,669 @@ public class AmazonS3Client implements AutoCloseable {
     }
 
     public void getObjects(final String bucket, final int maxKeys, final Consumer<S3Object> consumer) {
-        ListObjectsV2Response response = client.listObjectsV2(builder -> builder.bucket(bucket).fetchOwner(true).maxKeys(maxKeys).build());
+        getObjects(bucket, null, maxKeys, consumer);
+    }
+
+    public void getObjects(final String bucket, final String prefix, final int maxKeys, final Consumer<S3Object> consumer) {
+        getObjects(bucket, prefix, null, maxKeys, consumer);
+    }
+
+    /**
+     * @param startAfter the key to list after, or null to list from the first key
+     */
+    public void getObjects(final String bucket, final String prefix, final String startAfter, final int maxKeys,
+            final Consumer<S3Object> consumer) {
+        final S3Client bucketClient = getClient(bucket);
+        ListObjectsV2Response response = limited(CrawlMetrics.Stage.LIST, bucket, prefix, () -> bucketClient.listObjectsV2(
+                builder -> builder.bucket(bucket).prefix(prefix).fetchOwner(fetchOwner).maxKeys(maxKeys).startAfter(startAfter).build()));
         while (true) {
             response.contents().forEach(consumer);
             if (!response.isTruncated()) {
                 break;
             }
             final S3Object lastObj = response.contents().get(response.contents().size() - 1);
-            response = client
-                    .listObjectsV2(builder -> builder.bucket(bucket).fetchOwner(true).maxKeys(maxKeys).startAfter(lastObj.key()).build());
+            response = limited(CrawlMetrics.Stage.LIST, bucket, prefix, () -> bucketClient.listObjectsV2(builder -> builder.bucket(bucket)
+                    .prefix(prefix)
+                    .fetchOwner(fetchOwner)
+                    .maxKeys(maxKeys)
+                    .startAfter(lastObj.key())
+                    .build()));
+        }
+    }
+
+    /**
+     * Lists one level of the prefix tree. Objects directly under the prefix are passed to the consumer
+     * and the common prefixes below it are returned.
+     */
+    public List<String> getCommonPrefixes(final String bucket, final String prefix, final String delimiter, final int maxKeys,
+            final Consumer<S3Object> consumer) {
+        return getCommonPrefixes(bucket, prefix, delimiter, maxKeys, null, consumer);
+    }
+
+    /**
+     * Lists one level of the prefix tree as above. The objects that finished in a previous crawl are not passed to the consumer.
+     *
+     * @param checkpoint the progress of the listings, or null
+     */
+    public List<String> getCommonPrefixes(final String bucket, final String prefix, final String delimiter, final int maxKeys,
+            final CrawlCheckpoint checkpoint, final Consumer<S3Object> consumer) {
+        return getCommonPrefixes(bucket, prefix, delimiter, maxKeys, null, checkpoint, consumer);
+    }
+
+    /**
+     * @param keyFilter the filter of the objects of the shard, or null
+     */
+    protected List<String> getCommonPrefixes(final String bucket, final String prefix, final String delimiter, final int maxKeys,
+            final Predicate<String> keyFilter, final CrawlCheckpoint checkpoint, final Consumer<S3Object> consumer) {
+        final CrawlCheckpoint.Listing listing = checkpoint != null ? checkpoint.open(bucket, prefix, true) : null;
+        final Consumer<S3Object> objectConsumer = filterObjects(keyFilter, listing, consumer);
+        final S3Client bucketClient = getClient(bucket);
+        final List<String> prefixes = new ArrayList<>();
+        String token = null;
+        do {
+            final String continuationToken = token;
+            final ListObjectsV2Response response =
+                    limited(CrawlMetrics.Stage.LIST, bucket, prefix, () -> bucketClient.listObjectsV2(builder -> builder.bucket(bucket)
+                            .prefix(prefix)
+                            .delimiter(delimiter)
+                            .fetchOwner(fetchOwner)
+                            .maxKeys(maxKeys)
+                            .continuationToken(continuationToken)
+                            .build()));
+            response.contents().forEach(objectConsumer);
+            response.commonPrefixes().forEach(p -> prefixes.add(p.prefix()));
+            token = response.isTruncated() ? response.nextContinuationToken() : null;
+        } while (token != null);
+        if (listing != null) {
+            listing.finish();
+        }
+        return prefixes;
+    }
+
+    /**
+     * Lists all objects in the bucket with several paginators running at once.
+     * The prefix tree is expanded level by level with delimiter calls until there are enough prefixes
+     * for the parallelism or maxDepth is reached, and each remaining prefix is then listed by its own paginator.
+     * Prefixes returned by a delimiter call are disjoint, so each key is passed to the consumer exactly once.
+     * The consumer is called from multiple threads.
+     */
+    public void getObjects(final String bucket, final int maxKeys, final int parallelism, final int maxDepth,
+            final Consumer<S3Object> consumer) {
+        getObjects(bucket, null, maxKeys, parallelism, maxDepth, null, consumer);
+    }
+
+    /**
+     * Lists the objects under the prefix with several paginators running at once, as above.
+     * Common prefixes rejected by the filter are not listed, so that excluded subtrees are pruned at the delimiter level.
+     *
+     * @param prefix the key prefix to list, or null for the whole bucket
+     * @param prefixFilter the filter of common prefixes, or null
+     */
+    public void getObjects(final String bucket, final String prefix, final int maxKeys, final int parallelism, final int maxDepth,
+            final Predicate<String> prefixFilter, final Consumer<S3Object> consumer) {
+        getObjects(bucket, prefix, maxKeys, parallelism, maxDepth, prefixFilter, null, consumer);
+    }
+
+    /**
+     * Lists the objects under the prefix as above, resuming each listing from its checkpoint. The objects that finished
+     * in a previous crawl are not passed to the consumer, and the consumer has to pass the others to
+     * {@link CrawlCheckpoint#done(String, String)} when they finish.
+     *
+     * @param checkpoint the progress of the listings, or null
+     */
+    public void getObjects(final String bucket, final String prefix, final int maxKeys, final int parallelism, final int maxDepth,
+            final Predicate<String> prefixFilter, final CrawlCheckpoint checkpoint, final Consumer<S3Object> consumer) {
+        getObjects(bucket, prefix, maxKeys, parallelism, maxDepth, prefixFilter, null, checkpoint, consumer);
+    }
+
+    /**
+     * Lists the objects of the shard under the prefix as above. A shard by prefix expands the prefix tree at least to
+     * its depth and lists only its own prefixes there, and the objects above that depth belong to the shard of their key.
+     * A shard by key lists all objects and passes only its own to the consumer.
+     *
+     * @param shard the part of the key space to list, or null for all keys
+     * @param checkpoint the progress of the listings, or null
+     */
+    public void getObjects(final String bucket, final String prefix, final int maxKeys, final int parallelism, final int maxDepth,
+            final Predicate<String> prefixFilter, final KeyShard shard, final CrawlCheckpoint checkpoint,
+            final Consumer<S3Object> consumer) {
+        final int shardDepth = shard != null ? shard.getPrefixDepth() : 0;
+        final Predicate<String> keyFilter = shard != null ? shard::owns : null;
+        if (parallelism <= 1 && shardDepth == 0) {
+            getObjects(bucket, prefix, maxKeys, keyFilter, checkpoint, consumer);
+            return;
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(Math.max(parallelism, 1));
+        try {
+            List<String> prefixes = filterPrefixes(
+                    getCommonPrefixes(bucket, prefix, DELIMITER, maxKeys, getKeyFilter(keyFilter, shardDepth, 0), checkpoint, consumer),
+                    prefixFilter);
+            int depth = 1;
+            if (depth == shardDepth) {
+                prefixes = filterPrefixes(prefixes, keyFilter);
+            }
+            while (!prefixes.isEmpty()
+                    && (depth < shardDepth || prefixes.size() < parallelism * PREFIXES_PER_THREAD && depth < maxDepth)) {
+                final Predicate<String> levelFilter = getKeyFilter(keyFilter, shardDepth, depth);
+                final List<Future<List<String>>> futures = new ArrayList<>();
+                for (final String parent : prefixes) {
+                    futures.add(executorService
+                            .submit(() -> getCommonPrefixes(bucket, parent, DELIMITER, maxKeys, levelFilter, checkpoint, consumer)));
+                }
+                final List<String> children = new ArrayList<>();
+                for (final Future<List<String>> future : futures) {
+                    children.addAll(filterPrefixes(getResult(bucket, future), prefixFilter));
+                }
+                prefixes = children;
+                depth++;
+                if (depth == shardDepth) {
+                    prefixes = filterPrefixes(prefixes, keyFilter);
+                }
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Listing {} prefixes in {} with {} threads.", prefixes.size(), bucket, parallelism);
+            }
+            final Predicate<String> leafFilter = getKeyFilter(keyFilter, shardDepth, depth);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (final String child : prefixes) {
+                futures.add(executorService.submit(() -> getObjects(bucket, child, maxKeys, leafFilter, checkpoint, consumer)));
+            }
+            for (final Future<?> future : futures) {
+                getResult(bucket, future);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the filter of the objects under a prefix at the depth, or null if they all belong to the shard
+     */
+    protected Predicate<String> getKeyFilter(final Predicate<String> keyFilter, final int shardDepth, final int depth) {
+        return shardDepth == 0 || depth < shardDepth ? keyFilter : null;
+    }
+
+    /**
+     * Lists the objects of the shard under the prefix from the checkpoint of the listing.
+     *
+     * @param keyFilter the filter of the objects of the shard, or null
+     * @param checkpoint the progress of the listings, or null
+     */
+    protected void getObjects(final String bucket, final String prefix, final int maxKeys, final Predicate<String> keyFilter,
+            final CrawlCheckpoint checkpoint, final Consumer<S3Object> consumer) {
+        final CrawlCheckpoint.Listing listing = checkpoint != null ? checkpoint.open(bucket, prefix, false) : null;
+        if (listing != null && listing.isCompleted()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Skipped the completed listing of {} in {}", prefix, bucket);
+            }
+            return;
+        }
+        getObjects(bucket, prefix, listing != null ? listing.getStartAfter() : null, maxKeys, filterObjects(keyFilter, listing, consumer));
+        if (listing != null) {
+            listing.finish();
+        }
+    }
+
+    /**
+     * @return the consumer of the objects that belong to the shard and did not finish in a previous crawl
+     */
+    protected Consumer<S3Object> filterObjects(final Predicate<String> keyFilter, final CrawlCheckpoint.Listing listing,
+            final Consumer<S3Object> consumer) {
+        if (keyFilter == null && listing == null) {
+            return consumer;
+        }
+        return object -> {
+            // the objects of other shards are not added to the listing, so that it can complete
+            if ((keyFilter == null || keyFilter.test(object.key())) && (listing == null || listing.listed(object.key()))) {
+                consumer.accept(object);
+            }
+        };
+    }
+
+    protected List<String> filterPrefixes(final List<String> prefixes, final Predicate<String> prefixFilter) {
+        if (prefixFilter == null) {
+            return prefixes;
+        }
+        final List<String> result = new ArrayList<>(prefixes.size());
+        for (final String prefix : prefixes) {
+            if (prefixFilter.test(prefix)) {
+                result.add(prefix);
+            } else if (logger.isDebugEnabled()) {
+                logger.debug("Skipped prefix: {}", prefix);
+            }
+        }
+        return result;
+    }
+
+    protected <T> T getResult(final String bucket, final Future<T> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        } catch (final ExecutionException e) {
+            throw new DataStoreException("Failed to list objects in " + bucket, e.getCause());
         }
     }
 
     public ResponseInputStream<GetObjectResponse> getObject(final String bucket, final String key) {
-        return client.getObject(builder -> builder.bucket(bucket).key(key).build());
+        final S3Client bucketClient = getClient(bucket);
+        return limitedGet(bucket, key, () -> bucketClient.getObject(builder -> builder.bucket(bucket).key(key).build()));
+    }
+
+    /**
+     * Gets a part or a byte range of the object.
+     *
+     * @param eTag the ETag the object must have, or null
+     * @param partNumber the part number, or null
+     * @param range the Range header, or null
+     */
+    public ResponseInputStream<GetObjectResponse> getObject(final String bucket, final String key, final String eTag,
+            final Integer partNumber, final String range) {
+        final S3Client bucketClient = getClient(bucket);
+        return limitedGet(bucket, key, () -> bucketClient
+                .getObject(builder -> builder.bucket(bucket).key(key).ifMatch(eTag).partNumber(partNumber).range(range).build()));
+    }
+
+    public HeadObjectResponse headObject(final String bucket, final String key, final Integer partNumber) {
+        final S3Client bucketClient = getClient(bucket);
+        return limited(CrawlMetrics.Stage.HEAD, bucket, key,
+                () -> bucketClient.headObject(builder -> builder.bucket(bucket).key(key).partNumber(partNumber).build()));
+    }
+
+    /**
+     * @return true if an object of the size is downloaded in parts
+     */
+    public boolean isMultipartDownload(final Long size) {
+        return multipartThreshold > 0 && size != null && size >= multipartThreshold;
+    }
+
+    /**
+     * The body of an async download is written by the HTTP client threads, so only an object that is kept in memory
+     * is downloaded without blocking. A larger object would be written to a file by those threads.
+     *
+     * @return true if the object of the size is downloaded by {@link #getObjectAsync(String, String, Function)}
+     */
+    public boolean isAsyncDownload(final Long size) {
+        return asyncClient != null && size != null && size <= maxCachedContentSize && !isMultipartDownload(size);
+    }
+
+    /**
+     * Downloads the object in parts running at once into the file.
+     *
+     * @param head the HEAD response for the first part of the object
+     * @return the response of the first part with the content length of the whole object
+     * @see MultipartDownloader
+     */
+    public GetObjectResponse downloadObject(final String bucket, final String key, final HeadObjectResponse head, final Path file)
+            throws IOException {
+        if (multipartThreshold <= 0) {
+            throw new DataStoreException("Parameter '" + MULTIPART_THRESHOLD + "' is not enabled.");
+        }
+        return getMultipartDownloader().download(bucket, key, head, file);
+    }
+
+    /**
+     * @return the downloader of the parts, created on the first call
+     */
+    protected synchronized MultipartDownloader getMultipartDownloader() {
+        if (multipartDownloader == null) {
+            multipartDownloader = new MultipartDownloader(this, multipartSize, multipartThreads, multipartRetries);
+        }
+        return multipartDownloader;
+    }
+
+    /**
+     * Downloads the object without blocking the calling thread.
+     * The body is written to the stream returned by the output factory, which receives the response headers first.
+     * If the factory returns null, the body is not read and the future completes with null.
+     * The factory may be called again when the request is retried.
+     */
+    public <T extends OutputStream> CompletableFuture<T> getObjectAsync(final String bucket, final String key,
+            final Function<GetObjectResponse, T> outputFactory) {
+        if (asyncClient == null) {
+            throw new DataStoreException("Parameter '" + ASYNC_FETCH + "' is not enabled.");
+        }
+        final S3AsyncClient bucketAsyncClient = getAsyncClient(bucket);
+        acquireBudget(CrawlMetrics.Stage.GET, bucket);
+        final ConcurrencyLimiter.Permit permit =
+                limiter != null ? limiter.acquire(ConcurrencyLimiter.getPartition(CrawlMetrics.Stage.GET.name(), bucket, key)) : null;
+        final long start = System.nanoTime();
+        final AtomicBoolean responded = new AtomicBoolean();
+        final CompletableFuture<T> future;
+        try {
+            future = bucketAsyncClient.getObject(builder -> builder.bucket(bucket).key(key).build(),
+                    new OutputStreamResponseTransformer<>(response -> {
+                        if (!responded.getAndSet(true)) {
+                            metrics.record(CrawlMetrics.Stage.GET, start);
+                            if (permit != null) {
+                                permit.succeeded(System.nanoTime() - start);
+                            }
+                        }
+                        return outputFactory.apply(response);
+                        // the next request of the bucket waits for the bytes, so that the client threads do not block
+                    }, budget.isBytesLimited() ? bytes -> budget.transferred(bucket, bytes) : null));
+        } catch (final RuntimeException e) {
+            if (permit != null) {
+                permit.release();
+            }
+            throw e;
+        }
+        future.whenComplete((output, t) -> {
+            if (permit != null) {
+                permit.release();
+            }
+            // an error after the response is a transfer error
+            if (t != null && !responded.get()) {
+                metrics.recordError(CrawlMetrics.Stage.GET, start, t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs a request in the request budget of its bucket and the concurrency limit of its partition, and records its latency.
+     *
+     * @param key the key or the prefix of the request
+     */
+    protected <T> T limited(final CrawlMetrics.Stage stage, final String bucket, final String key, final Supplier<T> request) {
+        acquireBudget(stage, bucket);
+        if (limiter == null) {
+            return timed(stage, request);
+        }
+        final ConcurrencyLimiter.Permit permit = limiter.acquire(ConcurrencyLimiter.getPartition(stage.name(), bucket, key));
+        CURRENT_PERMIT.set(permit);
+        try {
+            final long start = System.nanoTime();
+            final T result = timed(stage, request);
+            permit.succeeded(System.nanoTime() - start);
+            return result;
+        } finally {
+            CURRENT_PERMIT.remove();
+            permit.release();
+        }
+    }
+
+    /**
+     * Sends a GET request in the request budget of its bucket and the concurrency limit of its partition.
+     * The request holds its slot until the body is closed, and the body is read at most at the transfer rate of the bucket.
+     */
+    protected ResponseInputStream<GetObjectResponse> limitedGet(final String bucket, final String key,
+            final Supplier<ResponseInputStream<GetObjectResponse>> request) {
+        acquireBudget(CrawlMetrics.Stage.GET, bucket);
+        if (limiter == null && !budget.isBytesLimited()) {
+            return timed(CrawlMetrics.Stage.GET, request);
+        }
+        final ConcurrencyLimiter.Permit permit =
+                limiter != null ? limiter.acquire(ConcurrencyLimiter.getPartition(CrawlMetrics.Stage.GET.name(), bucket, key)) : null;
+        CURRENT_PERMIT.set(permit);
+        try {
+            final long start = System.nanoTime();
+            final ResponseInputStream<GetObjectResponse> in = timed(CrawlMetrics.Stage.GET, request);
+            CURRENT_PERMIT.remove();
+            if (permit != null) {
+                permit.succeeded(System.nanoTime() - start);
+            }
+            return new ResponseInputStream<>(in.response(), AbortableInputStream.create(new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    final int b = super.read();
+                    if (b >= 0) {
+                        RequestBudget.sleep(budget.transferred(bucket, 1));
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    final int n = super.read(b, off, len);
+                    if (n > 0) {
+                        RequestBudget.sleep(budget.transferred(bucket, n));
+                    }
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (permit != null) {
+                            permit.release();
+                        }
+                    }
+                }
+            }, in));
+        } catch (final RuntimeException e) {
+            CURRENT_PERMIT.remove();
+            if (permit != null) {
+                permit.release();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until the budget of the bucket allows the request.
+     *
+     * @throws RequestBudget.ExhaustedException if the crawl used up its requests
+     */
+    protected void acquireBudget(final CrawlMetrics.Stage stage, final String bucket) {
+        if (stage == CrawlMetrics.Stage.LIST) {
+            budget.acquireList(bucket);
+        } else {
+            budget.acquireGet(bucket);
+        }
+    }
+
+    /**
+     * @return the request rates and the requests of the crawl
+     */
+    public RequestBudget getRequestBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the limiter of the requests running at once, or null
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Runs a request and records its latency.
+     */
+    protected <T> T timed(final CrawlMetrics.Stage stage, final Supplier<T> request) {
+        final long start = System.nanoTime();
+        try {
+            final T result = request.get();
+            metrics.record(stage, start);
+            return result;
+        } catch (final RuntimeException e) {
+            metrics.recordError(stage, start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * @param metrics the metrics of the crawl that records the requests of this client
+     */
+    public void setMetrics(final CrawlMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public CrawlMetrics getMetrics() {
+        return metrics;
     }
 
     @Override
     public void close() {
+        synchronized (this) {
+            if (multipartDownloader != null) {
+                multipartDownloader.close();
+            }
+        }
+        regionAsyncClients.values().forEach(S3AsyncClient::close);
+        if (asyncClient != null) {
+            asyncClient.close();
+        }
+        regionClients.values().forEach(S3Client::close);
         if (client != null) {
             client.close();
         }
+        // the SDK clients do not close the HTTP clients given to them
+        if (asyncHttpClient != null) {
+            asyncHttpClient.close();
+        }
+        if (closeHttpClient && httpClient != null) {
+            httpClient.close();
+        }
+    }
+
+    /**
+     * Writes the response body to an output stream as the chunks arrive.
+     * The writes run on the HTTP client threads, so the output stream should not block for long, and should not write to a file.
+     */
+    static class OutputStreamResponseTransformer<T extends OutputStream> implements AsyncResponseTransformer<GetObjectResponse, T> {
+        private final Function<GetObjectResponse, T> outputFactory;
+        // null if the written bytes are not counted
+        private final LongConsumer transferred;
+        private volatile CompletableFuture<T> future;
+        private volatile T output;
+
+        OutputStreamResponseTransformer(final Function<GetObjectResponse, T> outputFactory) {
+            this(outputFactory, null);
+        }
+
+        OutputStreamResponseTransformer(final Function<GetObjectResponse, T> outputFactory, final LongConsumer transferred) {
+            this.outputFactory = outputFactory;
+            this.transferred = transferred;
+        }
+
+        @Override
+        public CompletableFuture<T> prepare() {
+            future = new CompletableFuture<>();
+            output = null;
+            return future;
+        }
+
+        @Override
+        public void onResponse(final GetObjectResponse response) {
+            output = outputFactory.apply(response);
+        }
+
+        @Override
+        public void onStream(final SdkPublisher<ByteBuffer> publisher) {
+            final T out = output;
+            final CompletableFuture<T> result = future;
+            publisher.subscribe(new Subscriber<ByteBuffer>() {
+                private Subscription subscription;
+
+                @Override
+                public void onSubscribe(final Subscription s) {
+                    subscription = s;
+                    if (out == null) {
+                        s.cancel();
+                        result.complete(null);
+                    } else {
+                        s.request(1);
+                    }
+                }
+
+                @Override
+                public void onNext(final ByteBuffer buffer) {
+                    try {
+                        if (transferred != null) {
+                            transferred.accept(buffer.remaining());
+                        }
+                        if (buffer.hasArray()) {
+                            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                        } else {
+                            final byte[] bytes = new byte[buffer.remaining()];
+                            buffer.get(bytes);
+                            out.write(bytes);
+                        }
+                        subscription.request(1);
+                    } catch (final IOException e) {
+                        subscription.cancel();
+                        onError(e);
+                    }
+                }
+
+                @Override
+                public void onError(final Throwable t) {
+                    closeQuietly(out);
+                    result.completeExceptionally(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    try {
+                        out.close();
+                        result.complete(out);
+                    } catch (final IOException e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void exceptionOccurred(final Throwable error) {
+            closeQuietly(output);
+            final CompletableFuture<T> result = future;
+            if (result != null) {
+                result.completeExceptionally(error);
+            }
+        }
+
+        private static void closeQuietly(final OutputStream out) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (final IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Shrinks the concurrency limit on every throttling response, including those the SDK retries.
+     * The slot of a throttled request is suspended while the SDK waits to retry it.
+     */
+    protected class ThrottlingInterceptor implements ExecutionInterceptor {
+        @Override
+        public void beforeTransmission(final Context.BeforeTransmission context, final ExecutionAttributes executionAttributes) {
+            final ConcurrencyLimiter.Permit permit = CURRENT_PERMIT.get();
+            if (permit != null) {
+                permit.resume();
+            }
+        }
+
+        @Override
+        public void afterTransmission(final Context.AfterTransmission context, final ExecutionAttributes executionAttributes) {
+            final int status = context.httpResponse().statusCode();
+            if (status != 503 && status != 429) {
+                return;
+            }
+            final ConcurrencyLimiter.Permit permit = CURRENT_PERMIT.get();
+            if (permit != null) {
+                permit.suspend();
+            }
+            final SdkRequest request = context.request();
+            final String partition;
+            if (request instanceof final GetObjectRequest r) {
+                partition = ConcurrencyLimiter.getPartition(CrawlMetrics.Stage.GET.name(), r.bucket(), r.key());
+            } else if (request instanceof final HeadObjectRequest r) {
+                partition = ConcurrencyLimiter.getPartition(CrawlMetrics.Stage.HEAD.name(), r.bucket(), r.key());
+            } else if (request instanceof final ListObjectsV2Request r) {
+                partition = ConcurrencyLimiter.getPartition(CrawlMetrics.Stage.LIST.name(), r.bucket(), r.prefix());
+            } else {
+                return;
+            }
+            limiter.throttled(partition);
+        }
     }
 
     static class AwsBasicCredentialsProvider implements AwsCredentialsProvider {
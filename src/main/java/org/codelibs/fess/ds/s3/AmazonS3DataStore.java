@@ -22,18 +22,28 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.commons.io.output.DeferredFileOutputStream;
@@ -55,16 +65,21 @@ import org.codelibs.fess.ds.AbstractDataStore;
 import org.codelibs.fess.ds.callback.IndexUpdateCallback;
 import org.codelibs.fess.entity.DataStoreParams;
 import org.codelibs.fess.exception.DataStoreCrawlingException;
+import org.codelibs.fess.exception.DataStoreException;
 import org.codelibs.fess.helper.CrawlerStatsHelper;
 import org.codelibs.fess.helper.CrawlerStatsHelper.StatsAction;
 import org.codelibs.fess.helper.CrawlerStatsHelper.StatsKeyObject;
+import org.codelibs.fess.mylasta.direction.FessConfig;
 import org.codelibs.fess.opensearch.config.exentity.DataConfig;
 import org.codelibs.fess.util.ComponentUtil;
 import org.lastaflute.di.core.exception.ComponentNotFoundException;
+import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
 
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.services.s3.model.Bucket;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.Owner;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
@@ -74,6 +89,20 @@ public class AmazonS3DataStore extends AbstractDataStore {
 
     protected static final int DEFAULT_MAX_KEYS = 1000;
     protected static final long DEFAULT_MAX_SIZE = 10000000L; // 10m
+    protected static final int DEFAULT_LISTING_PARALLELISM = 1;
+    protected static final int DEFAULT_LISTING_PREFIX_DEPTH = 2;
+    protected static final String DEFAULT_EXCLUDED_STORAGE_CLASSES = "GLACIER,DEEP_ARCHIVE";
+    protected static final String DEFAULT_MIMETYPE = "application/octet-stream";
+    protected static final int DEFAULT_MANIFEST_RUN_SIZE = 100000;
+    protected static final int DEFAULT_DELETE_BATCH_SIZE = 1000;
+    protected static final long DEFAULT_CONTENT_DISK_BUDGET = -1L;
+    protected static final int DEFAULT_SNIFF_SIZE = 8192;
+    protected static final long DEFAULT_METRICS_LOG_INTERVAL = 60000L;
+    protected static final long DEFAULT_CHECKPOINT_INTERVAL = 60000L;
+    protected static final long DEFAULT_SHUTDOWN_TIMEOUT = 60000L;
+    protected static final long DEFAULT_EXTRACT_TIMEOUT = 300000L;
+    protected static final String EXECUTOR_TYPE_PLATFORM = "platform";
+    protected static final String EXECUTOR_TYPE_VIRTUAL = "virtual";
 
     // parameters
     protected static final String MAX_KEYS = "max_keys";
@@ -82,7 +111,44 @@ public class AmazonS3DataStore extends AbstractDataStore {
     protected static final String SUPPORTED_MIMETYPES = "supported_mimetypes";
     protected static final String INCLUDE_PATTERN = "include_pattern";
     protected static final String EXCLUDE_PATTERN = "exclude_pattern";
+    protected static final String EXCLUDED_STORAGE_CLASSES = "excluded_storage_classes";
     protected static final String NUMBER_OF_THREADS = "number_of_threads";
+    protected static final String EXECUTOR_TYPE = "executor_type";
+    protected static final String FETCH_THREADS = "fetch_threads";
+    protected static final String FETCH_QUEUE_SIZE = "fetch_queue_size";
+    protected static final String EXTRACT_THREADS = "extract_threads";
+    protected static final String EXTRACT_QUEUE_SIZE = "extract_queue_size";
+    protected static final String EXTRACT_CONCURRENCY = "extract_concurrency";
+    protected static final String EXTRACT_TIMEOUT = "extract_timeout";
+    protected static final String EXTRACT_TIMEOUTS = "extract_timeouts";
+    protected static final String EXTRACT_MAX_SIZE = "extract_max_size";
+    protected static final String EXTRACT_MAX_SIZES = "extract_max_sizes";
+    protected static final String STORE_THREADS = "store_threads";
+    protected static final String STORE_QUEUE_SIZE = "store_queue_size";
+    protected static final String METRICS_LOG_INTERVAL = "metrics_log_interval";
+    protected static final String LISTING_PARALLELISM = "listing_parallelism";
+    protected static final String LISTING_PREFIX_DEPTH = "listing_prefix_depth";
+    protected static final String INCREMENTAL = "incremental";
+    protected static final String MANIFEST_DIR = "manifest_dir";
+    protected static final String MANIFEST_RUN_SIZE = "manifest_run_size";
+    protected static final String DELETE_OLD_DOCS = "delete_old_docs";
+    protected static final String DELETE_REMOVED_OBJECTS = "delete_removed_objects";
+    protected static final String DELETE_BATCH_SIZE = "delete_batch_size";
+    protected static final String CHECKPOINT = "checkpoint";
+    protected static final String CHECKPOINT_INTERVAL = "checkpoint_interval";
+    protected static final String MAX_CRAWL_DURATION = "max_crawl_duration";
+    protected static final String SHUTDOWN_TIMEOUT = "shutdown_timeout";
+    protected static final String SHARD_INDEX = "shard_index";
+    protected static final String SHARD_COUNT = "shard_count";
+    protected static final String SHARD_PREFIX_DEPTH = "shard_prefix_depth";
+    protected static final String INVENTORY_MANIFESTS = "inventory_manifests";
+    protected static final String EVENT_SOURCE = "event_source";
+    protected static final String EVENT_SOURCE_FILE = "file";
+    protected static final String SNIFF_MIMETYPE = "sniff_mimetype";
+    protected static final String SNIFF_SIZE = "sniff_size";
+    protected static final String CONTENT_MEMORY_BUDGET = "content_memory_budget";
+    protected static final String CONTENT_DISK_BUDGET = "content_disk_budget";
+    protected static final String PREFIXES = "prefixes";
     protected static final String BUCKETS = "buckets";
 
     // scripts
@@ -133,6 +199,16 @@ public class AmazonS3DataStore extends AbstractDataStore {
     protected static final String OBJECT_VERSION_ID = "version_id";
     protected static final String OBJECT_WEBSITE_REDIRECT_LOCATION = "website_redirect_location";
 
+    // the fields computed from the downloaded content
+    protected static final Set<String> CONTENT_FIELDS = Set.of(OBJECT_CONTENTS, OBJECT_MIMETYPE, OBJECT_FILETYPE, OBJECT_CONTENT_TYPE);
+    // the fields read from the response headers
+    protected static final Set<String> RESPONSE_FIELDS = Set.of(OBJECT_ACCEPT_RANGES, OBJECT_CACHE_CONTROL, OBJECT_CONTENT_DISPOSITION,
+            OBJECT_CONTENT_ENCODING, OBJECT_CONTENT_LANGUAGE, OBJECT_CONTENT_LENGTH, OBJECT_CONTENT_RANGE, OBJECT_DELETE_MARKER,
+            OBJECT_EXPIRATION, OBJECT_EXPIRES, OBJECT_MISSING_META, OBJECT_OBJECT_LOCK_LEGAL_HOLD_STATUS, OBJECT_OBJECT_LOCK_MODE,
+            OBJECT_OBJECT_LOCK_RETAIN_UNTIL_DATE, OBJECT_PARTS_COUNT, OBJECT_REPLICATION_STATUS, OBJECT_REQUEST_CHARGED, OBJECT_RESTORE,
+            OBJECT_SERVER_SIDE_ENCRYPTION, OBJECT_SSE_CUSTOMER_ALGORITHM, OBJECT_SSE_CUSTOMER_KEY_MD5, OBJECT_SSEKMS_KEY_ID,
+            OBJECT_TAG_COUNT, OBJECT_VERSION_ID, OBJECT_WEBSITE_REDIRECT_LOCATION);
+
     protected String extractorName = "tikaExtractor";
 
     @Override
@@ -147,31 +223,134 @@ public class AmazonS3DataStore extends AbstractDataStore {
         if (logger.isDebugEnabled()) {
             logger.debug("config: {}", config);
         }
-        final ExecutorService executorService = newFixedThreadPool(Integer.parseInt(paramMap.getAsString(NUMBER_OF_THREADS, "1")));
 
-        try (final AmazonS3Client client = createClient(paramMap)) {
-            crawlBuckets(dataConfig, callback, paramMap, scriptMap, defaultDataMap, config, executorService, client);
-            if (logger.isDebugEnabled()) {
-                logger.debug("Shutting down thread executor.");
+        final ScriptMapping scriptMapping = createScriptMapping(paramMap, scriptMap);
+        final DataStoreParams clientParams = paramMap.newInstance();
+        if (!clientParams.containsKey(AmazonS3Client.MAX_CONNECTIONS)) {
+            // every download and listing thread holds a pooled connection
+            clientParams.put(AmazonS3Client.MAX_CONNECTIONS,
+                    Integer.toString(Math.max(AmazonS3Client.DEFAULT_MAX_CONNECTIONS,
+                            config.fetchThreads + config.listingParallelism + config.multipartThreads)));
+        }
+        final Set<String> objectFields = scriptMapping.getReferencedProperties(OBJECT);
+        if (!clientParams.containsKey(AmazonS3Client.FETCH_OWNER) && objectFields != null
+                && !objectFields.contains(OBJECT_OWNER_ID) && !objectFields.contains(OBJECT_OWNER_DISPLAY_NAME)) {
+            clientParams.put(AmazonS3Client.FETCH_OWNER, Constants.FALSE);
+        }
+        if (!clientParams.containsKey(AmazonS3Client.FETCH_CREATION_DATE) && objectFields != null
+                && !objectFields.contains(OBJECT_BUCKET_CREATION_DATE)) {
+            clientParams.put(AmazonS3Client.FETCH_CREATION_DATE, Constants.FALSE);
+        }
+
+        final ObjectEventSource eventSource = createEventSource(paramMap);
+        if (eventSource != null && (Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(INCREMENTAL))
+                || Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(DELETE_REMOVED_OBJECTS)))) {
+            logger.warn("{} and {} are ignored because {} is set.", INCREMENTAL, DELETE_REMOVED_OBJECTS, EVENT_SOURCE);
+        }
+        if (config.shard != null) {
+            logger.info("Crawling shard {} of {}.", config.shard.getIndex(), config.shard.getCount());
+        }
+        if (config.deleteRemovedObjects || eventSource != null) {
+            final String urlScript = scriptMap.get(ComponentUtil.getFessConfig().getIndexFieldUrl());
+            if (urlScript == null || !(OBJECT + "." + OBJECT_URL).equals(urlScript.trim())) {
+                logger.warn("Documents of removed objects are deleted by object.url, but the url field is \"{}\".", urlScript);
+            }
+        }
+
+        try (eventSource; config.extractor; final AmazonS3Client client = createClient(clientParams);
+                final CrawlPipeline pipeline = createPipeline(config)) {
+            startMetrics(dataConfig, config, client, pipeline);
+            // the metrics are closed before the client and the pipeline that they read
+            try (config.metrics; final CrawlCheckpoint checkpoint = eventSource == null ? createCheckpoint(dataConfig, config) : null;
+                    final ManifestStore manifest = eventSource == null ? createManifestStore(dataConfig, config, checkpoint) : null) {
+                boolean stopped = false;
+                try {
+                    if (eventSource != null) {
+                        crawlEvents(dataConfig, callback, paramMap, scriptMapping, defaultDataMap, config, pipeline, eventSource, client);
+                    } else {
+                        crawlBuckets(dataConfig, callback, paramMap, scriptMapping, defaultDataMap, config, pipeline, manifest, checkpoint,
+                                client);
+                    }
+                } catch (final RuntimeException e) {
+                    if (!RequestBudget.isExhausted(e) && !CrawlStoppedException.isStopped(e)) {
+                        throw e;
+                    }
+                    logger.warn("Stopped listing objects. {}", e.getMessage());
+                    stopped = true;
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Shutting down crawl pipeline: {}", pipeline);
+                }
+                // the objects not fetched within the requests or the duration of the crawl are left for the next crawl
+                boolean terminated = pipeline.shutdown(config.shutdownTimeout, TimeUnit.MILLISECONDS) && !stopped
+                        && !client.getRequestBudget().isExhausted();
+                if (config.stoppedObjects.sum() > 0) {
+                    logger.warn("{} objects were not processed and are left for the next crawl.", config.stoppedObjects.sum());
+                    terminated = false;
+                }
+                if (eventSource != null) {
+                    if (terminated) {
+                        eventSource.commit();
+                    } else {
+                        logger.warn("The crawl did not complete, so the events of {} are not committed.", eventSource);
+                    }
+                }
+                boolean suspended = false;
+                if (manifest != null) {
+                    if (terminated) {
+                        manifest.commit(config.deleteBatchSize,
+                                config.deleteRemovedObjects ? (bucket, keys) -> deleteObjects(dataConfig, client, bucket, keys) : null);
+                    } else if (checkpoint != null && manifest.suspend()) {
+                        suspended = true;
+                    } else {
+                        logger.warn("The crawl did not complete, so {} is not updated.", manifest);
+                    }
+                }
+                if (checkpoint != null) {
+                    if (terminated) {
+                        checkpoint.clear();
+                    } else if (manifest == null || suspended) {
+                        checkpoint.save();
+                        logger.info("The crawl did not complete, so the next crawl resumes from {}", checkpoint);
+                    } else {
+                        // the previous checkpoint matches the previous partial manifest
+                        logger.warn("The crawl did not complete, so {} is not updated.", checkpoint);
+                    }
+                }
             }
-            executorService.shutdown();
-            executorService.awaitTermination(60, TimeUnit.SECONDS);
         } catch (final InterruptedException e) {
             throw new InterruptedRuntimeException(e);
-        } finally {
-            executorService.shutdownNow();
         }
     }
 
     protected void crawlBuckets(final DataConfig dataConfig, final IndexUpdateCallback callback, final DataStoreParams paramMap,
-            final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap, final Config config,
-            final ExecutorService executorService, final AmazonS3Client client) {
+            final ScriptMapping scriptMapping, final Map<String, Object> defaultDataMap, final Config config,
+            final CrawlPipeline pipeline, final ManifestStore manifest, final CrawlCheckpoint checkpoint, final AmazonS3Client client) {
+        final InventoryReader inventoryReader = createInventoryReader(client);
+        final Map<String, InventoryReader.Manifest> inventories = getInventoryManifests(inventoryReader, paramMap);
         final Consumer<Bucket> processOnBucket = bucket -> {
+            if (manifest != null) {
+                // an empty listing removes all objects of the previous manifest
+                manifest.begin(bucket.name());
+            }
+            final InventoryReader.Manifest inventory = inventories.get(bucket.name());
+            if (inventory != null) {
+                logger.info("Crawling bucket objects from the inventory: {}", inventory);
+                final List<String> prefixes = config.shard != null ? getListingPrefixes(config, getBucketUrl(client, bucket.name())) : null;
+                // the inventory is read from the start by every crawl
+                inventoryReader.getObjects(inventory, config.listingParallelism, object -> {
+                    if (isShardObject(config, prefixes, object.key())) {
+                        processObject(pipeline, new ObjectTask(dataConfig, callback, paramMap, scriptMapping, defaultDataMap, config,
+                                client, manifest, null, bucket, object));
+                    }
+                });
+                return;
+            }
             if (logger.isDebugEnabled()) {
                 logger.debug("Crawling bucket objects: {}", bucket.name());
             }
-            client.getObjects(bucket.name(), config.maxKeys, object -> executorService
-                    .execute(() -> storeObject(dataConfig, callback, paramMap, scriptMap, defaultDataMap, config, client, bucket, object)));
+            listObjects(config, client, bucket.name(), checkpoint, object -> processObject(pipeline, new ObjectTask(dataConfig, callback,
+                    paramMap, scriptMapping, defaultDataMap, config, client, manifest, checkpoint, bucket, object)));
         };
         final String bucketNames = paramMap.getAsString(BUCKETS);
         if (StringUtil.isNotBlank(bucketNames)) {
@@ -188,77 +367,703 @@ public class AmazonS3DataStore extends AbstractDataStore {
         }
     }
 
+    /**
+     * Lists the objects of the bucket under the prefixes of the {@code prefixes} parameter, or else under the literal
+     * prefix of {@code include_pattern}. With parallel listing, common prefixes under the literal prefix of an
+     * {@code exclude_pattern} ending with {@code .*} are not listed.
+     */
+    protected void listObjects(final Config config, final AmazonS3Client client, final String bucket, final CrawlCheckpoint checkpoint,
+            final Consumer<S3Object> consumer) {
+        final String bucketUrl = getBucketUrl(client, bucket);
+        final List<String> prefixes = getListingPrefixes(config, bucketUrl);
+        final String excludedPrefix = getExcludedPrefix(config, bucketUrl);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Listing {} with prefixes {}, excluding {}", bucket, prefixes, excludedPrefix);
+        }
+        final Predicate<String> prefixFilter = excludedPrefix != null ? prefix -> !prefix.startsWith(excludedPrefix) : null;
+        for (final String prefix : prefixes) {
+            if (prefixFilter == null || prefixFilter.test(prefix)) {
+                client.getObjects(bucket, StringUtil.isEmpty(prefix) ? null : prefix, config.maxKeys, config.listingParallelism,
+                        config.listingPrefixDepth, prefixFilter, config.shard, checkpoint, consumer);
+            }
+        }
+    }
+
+    protected String getBucketUrl(final AmazonS3Client client, final String bucket) {
+        try {
+            return getUrl(client.getEndpoint(), client.getRegion().id(), bucket, StringUtil.EMPTY);
+        } catch (final URISyntaxException e) {
+            throw new DataStoreException("Failed to create the url of " + bucket, e);
+        }
+    }
+
+    /**
+     * @param prefixes the listing prefixes of the bucket
+     * @return true if the object belongs to the shard of the crawl as it does when the bucket is listed
+     */
+    protected boolean isShardObject(final Config config, final List<String> prefixes, final String key) {
+        if (config.shard == null) {
+            return true;
+        }
+        for (final String prefix : prefixes) {
+            if (key.startsWith(prefix)) {
+                return config.shard.ownsKey(key, prefix);
+            }
+        }
+        return config.shard.owns(key);
+    }
+
+    /**
+     * @return the key prefixes to list, an empty string to list all keys, or no prefix if no key can be included
+     */
+    protected List<String> getListingPrefixes(final Config config, final String bucketUrl) {
+        if (!config.prefixes.isEmpty()) {
+            return config.prefixes;
+        }
+        if (StringUtil.isBlank(config.includePattern)) {
+            return List.of(StringUtil.EMPTY);
+        }
+        final String literal = ListingPrefixes.getLiteralPrefix(config.includePattern, bucketUrl);
+        final String prefix = ListingPrefixes.toKeyPrefix(literal, bucketUrl, false);
+        return prefix != null ? List.of(prefix) : List.of();
+    }
+
+    /**
+     * @return the key prefix of the subtree excluded by the exclude pattern, or null
+     */
+    protected String getExcludedPrefix(final Config config, final String bucketUrl) {
+        if (StringUtil.isBlank(config.excludePattern)) {
+            return null;
+        }
+        final String literal = ListingPrefixes.getSubtreePrefix(config.excludePattern, bucketUrl);
+        return literal != null ? ListingPrefixes.toKeyPrefix(literal, bucketUrl, true) : null;
+    }
+
+    /**
+     * Processes only the objects in the pending events. Events on the same key are merged into the latest one,
+     * the documents of removed objects are deleted in batches, and created objects are passed through the pipeline.
+     */
+    protected void crawlEvents(final DataConfig dataConfig, final IndexUpdateCallback callback, final DataStoreParams paramMap,
+            final ScriptMapping scriptMapping, final Map<String, Object> defaultDataMap, final Config config,
+            final CrawlPipeline pipeline, final ObjectEventSource eventSource, final AmazonS3Client client) {
+        final String bucketNames = paramMap.getAsString(BUCKETS);
+        final Set<String> targetBuckets = StringUtil.isNotBlank(bucketNames)
+                ? StreamUtil.split(bucketNames, ",").get(stream -> stream.map(String::trim).collect(Collectors.toSet()))
+                : null;
+        final Map<String, ObjectEvent> events = new LinkedHashMap<>();
+        eventSource.read(event -> {
+            if (targetBuckets == null || targetBuckets.contains(event.getBucket())) {
+                events.merge(event.getBucket() + "/" + event.getKey(), event, (e1, e2) -> e2.isAfter(e1) ? e2 : e1);
+            }
+        });
+        logger.info("Crawling {} changed objects from {}", events.size(), eventSource);
+
+        final Map<String, List<String>> removedKeys = new LinkedHashMap<>();
+        for (final ObjectEvent event : events.values()) {
+            if (event.isRemoved()) {
+                final List<String> keys = removedKeys.computeIfAbsent(event.getBucket(), name -> new ArrayList<>());
+                keys.add(event.getKey());
+                if (keys.size() >= config.deleteBatchSize) {
+                    deleteObjects(dataConfig, client, event.getBucket(), new ArrayList<>(keys));
+                    keys.clear();
+                }
+            }
+        }
+        removedKeys.entrySet()
+                .stream()
+                .filter(e -> !e.getValue().isEmpty())
+                .forEach(e -> deleteObjects(dataConfig, client, e.getKey(), e.getValue()));
+
+        final Map<String, Bucket> buckets = new HashMap<>();
+        for (final ObjectEvent event : events.values()) {
+            if (!event.isRemoved()) {
+                final Bucket bucket = buckets.computeIfAbsent(event.getBucket(), name -> Bucket.builder().name(name).build());
+                processObject(pipeline, new ObjectTask(dataConfig, callback, paramMap, scriptMapping, defaultDataMap, config, client,
+                        bucket, event.toObject()));
+            }
+        }
+    }
+
+    /**
+     * @return the event source, or null if the buckets are listed
+     */
+    protected ObjectEventSource createEventSource(final DataStoreParams paramMap) {
+        final String name = paramMap.getAsString(EVENT_SOURCE);
+        if (StringUtil.isBlank(name)) {
+            return null;
+        }
+        if (EVENT_SOURCE_FILE.equalsIgnoreCase(name.trim())) {
+            return new FileEventSource(paramMap);
+        }
+        try {
+            final Class<?> clazz = Class.forName(name.trim(), true, getClass().getClassLoader());
+            return (ObjectEventSource) clazz.getConstructor(DataStoreParams.class).newInstance(paramMap);
+        } catch (final Exception e) {
+            throw new DataStoreException("Failed to create the event source: " + name, e);
+        }
+    }
+
+    /**
+     * @return the inventory manifests by source bucket name
+     */
+    protected Map<String, InventoryReader.Manifest> getInventoryManifests(final InventoryReader inventoryReader,
+            final DataStoreParams paramMap) {
+        final Map<String, InventoryReader.Manifest> inventories = new HashMap<>();
+        final String locations = paramMap.getAsString(INVENTORY_MANIFESTS);
+        if (StringUtil.isNotBlank(locations)) {
+            StreamUtil.split(locations, ",").of(stream -> stream.map(String::trim).filter(StringUtil::isNotBlank).forEach(location -> {
+                final InventoryReader.Manifest inventory = inventoryReader.readManifest(location);
+                inventories.put(inventory.getSourceBucket(), inventory);
+            }));
+        }
+        return inventories;
+    }
+
+    /**
+     * Passes the object through the fetch, extract and store stages of the pipeline.
+     */
+    protected void processObject(final CrawlPipeline pipeline, final ObjectTask task) {
+        if (task.config.isExpired()) {
+            throw new CrawlStoppedException("The crawl reached its maximum duration of " + task.config.maxCrawlDuration + " ms.");
+        }
+        pipeline.fetch(() -> {
+            // the objects written to files are downloaded by the fetch thread
+            if (task.client.isAsyncDownload(task.object.size()) && isContentUsed(task)) {
+                fetchObjectAsync(pipeline, task);
+            } else if (fetchObject(task)) {
+                extractAndStoreObject(pipeline, task);
+            }
+        });
+    }
+
+    protected void extractAndStoreObject(final CrawlPipeline pipeline, final ObjectTask task) {
+        dispatch(task, pipeline::extract, () -> {
+            if (extractObject(task)) {
+                dispatch(task, pipeline::store, () -> indexObject(task));
+            }
+        });
+    }
+
+    protected void dispatch(final ObjectTask task, final Consumer<Runnable> stage, final Runnable runnable) {
+        try {
+            stage.accept(runnable);
+        } catch (final RejectedExecutionException e) {
+            logger.warn("Failed to process {}. {}", task.url, e.getMessage());
+            task.stopped = true;
+            finishObject(task);
+        }
+    }
+
     protected void storeObject(final DataConfig dataConfig, final IndexUpdateCallback callback, final DataStoreParams paramMap,
-            final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap, final Config config, final AmazonS3Client client,
+            final ScriptMapping scriptMapping, final Map<String, Object> defaultDataMap, final Config config, final AmazonS3Client client,
             final Bucket bucket, final S3Object object) {
+        final ObjectTask task =
+                new ObjectTask(dataConfig, callback, paramMap, scriptMapping, defaultDataMap, config, client, bucket, object);
+        if (fetchObject(task) && extractObject(task)) {
+            indexObject(task);
+        }
+    }
+
+    /**
+     * Downloads the object content.
+     *
+     * @return true if the task continues to the extract stage
+     */
+    protected boolean fetchObject(final ObjectTask task) {
         final CrawlerStatsHelper crawlerStatsHelper = ComponentUtil.getCrawlerStatsHelper();
-        final Map<String, Object> dataMap = new HashMap<>(defaultDataMap);
-        final StatsKeyObject statsKey = new StatsKeyObject(bucket.name() + "@" + object.key());
-        paramMap.put(Constants.CRAWLER_STATS_KEY, statsKey);
-        String url = StringUtil.EMPTY;
+        boolean next = false;
         try {
-            crawlerStatsHelper.begin(statsKey);
-            url = getUrl(client.getEndpoint(), client.getRegion().id(), bucket.name(), object.key());
+            if (!prepareObject(task)) {
+                return false;
+            }
+            if (!isContentUsed(task)) {
+                next = fetchMetadata(task);
+                return next;
+            }
+            // no connection is held while waiting for the budget
+            reserveContent(task, task.object.size());
+            if (!sniffObject(task)) {
+                return false;
+            }
 
-            final UrlFilter urlFilter = config.urlFilter;
-            if (urlFilter != null && !urlFilter.match(url)) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Not matched: {}", url);
+            if (task.client.isMultipartDownload(task.object.size())) {
+                final HeadObjectResponse head = task.client.headObject(task.bucket.name(), task.object.key(), 1);
+                if (task.client.isMultipartDownload(MultipartDownloader.getObjectSize(head))) {
+                    if (!isSupportedContentType(task, head.contentType())) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("{} is not an indexing target.", head.contentType());
+                        }
+                        crawlerStatsHelper.discard(task.statsKey);
+                        return false;
+                    }
+
+                    logger.info("Crawling URL: {}", task.url);
+
+                    final long start = System.nanoTime();
+                    try {
+                        task.content = downloadObjectInParts(task, head);
+                    } catch (final IOException | RuntimeException e) {
+                        task.config.metrics.recordError(CrawlMetrics.Stage.TRANSFER, start, e);
+                        throw e;
+                    }
+                    task.config.metrics.record(CrawlMetrics.Stage.TRANSFER, start);
+                    task.config.metrics.addDownloadedBytes(MultipartDownloader.getObjectSize(head));
+                    next = isSupportedContent(task);
+                    return next;
                 }
-                crawlerStatsHelper.discard(statsKey);
-                return;
             }
 
-            final ResponseInputStream<GetObjectResponse> stream = client.getObject(bucket.name(), object.key());
-            final GetObjectResponse response = stream.response();
+            next = downloadContent(task);
+        } catch (final Throwable t) {
+            handleException(task, t);
+        } finally {
+            if (!next) {
+                finishObject(task);
+            }
+        }
+        return next;
+    }
 
-            if (Stream.of(config.supportedMimeTypes).noneMatch(response.contentType()::matches)) {
+    /**
+     * Downloads the object content with a GET request.
+     *
+     * @return true if the task continues to the extract stage
+     */
+    protected boolean downloadContent(final ObjectTask task) throws IOException {
+        try (final ResponseInputStream<GetObjectResponse> stream = task.client.getObject(task.bucket.name(), task.object.key())) {
+            final GetObjectResponse response = stream.response();
+            if (!isSupportedContentType(task, response.contentType())) {
                 if (logger.isDebugEnabled()) {
                     logger.debug("{} is not an indexing target.", response.contentType());
                 }
-                crawlerStatsHelper.discard(statsKey);
-                return;
+                stream.abort();
+                ComponentUtil.getCrawlerStatsHelper().discard(task.statsKey);
+                return false;
             }
 
-            if (config.maxSize < object.size()) {
-                throw new MaxLengthExceededException(
-                        "The content length (" + object.size() + " byte) is over " + config.maxSize + " byte. The url is " + url);
+            logger.info("Crawling URL: {}", task.url);
+
+            task.response = response;
+            final long start = System.nanoTime();
+            task.content = downloadObject(stream, task.url, task.client.getMaxCachedContentSize());
+            if (task.content != null) {
+                task.config.metrics.record(CrawlMetrics.Stage.TRANSFER, start);
+                task.config.metrics.addDownloadedBytes(task.content.getByteCount());
+            } else {
+                task.config.metrics.recordError(CrawlMetrics.Stage.TRANSFER, start, null);
             }
+        }
+        return isSupportedContent(task);
+    }
 
-            logger.info("Crawling URL: {}", url);
+    /**
+     * Starts a non-blocking download. The task continues to the extract stage when the download completes.
+     */
+    protected void fetchObjectAsync(final CrawlPipeline pipeline, final ObjectTask task) {
+        boolean started = false;
+        try {
+            if (prepareObject(task)) {
+                reserveContent(task, task.object.size());
+                // the prefix is fetched by the calling thread
+                if (!sniffObject(task)) {
+                    return;
+                }
+                pipeline.fetchAsync(() -> task.client.getObjectAsync(task.bucket.name(), task.object.key(), response -> {
+                    releaseContent(task);
+                    if (!isSupportedContentType(task, response.contentType())) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("{} is not an indexing target.", response.contentType());
+                        }
+                        return null;
+                    }
+                    final Long length = response.contentLength();
+                    if (length == null || length > task.client.getMaxCachedContentSize()) {
+                        // the object changed since it was listed, and is not written to a file by an HTTP client thread
+                        task.redownload = true;
+                        return null;
+                    }
+                    task.response = response;
+                    task.content = newContentOutputStream(task.client.getMaxCachedContentSize());
+                    task.transferStart = System.nanoTime();
+                    return task.content;
+                }), (content, t) -> {
+                    if (task.transferStart != 0) {
+                        if (t != null) {
+                            task.config.metrics.recordError(CrawlMetrics.Stage.TRANSFER, task.transferStart, t);
+                        } else {
+                            task.config.metrics.record(CrawlMetrics.Stage.TRANSFER, task.transferStart);
+                            task.config.metrics.addDownloadedBytes(task.content.getByteCount());
+                        }
+                    }
+                    if (t != null) {
+                        handleException(task, t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                        finishObject(task);
+                    } else if (content == null && task.redownload) {
+                        redownloadObject(pipeline, task);
+                    } else if (content == null || !isSupportedContent(task)) {
+                        ComponentUtil.getCrawlerStatsHelper().discard(task.statsKey);
+                        finishObject(task);
+                    } else {
+                        logger.info("Crawling URL: {}", task.url);
+                        extractAndStoreObject(pipeline, task);
+                    }
+                });
+                started = true;
+            }
+        } catch (final Throwable t) {
+            handleException(task, t);
+        } finally {
+            if (!started) {
+                finishObject(task);
+            }
+        }
+    }
 
-            final Map<String, Object> resultMap = new LinkedHashMap<>(paramMap.asMap());
-            final Map<String, Object> objectMap = getObjectMap(client.getRegion().id(), bucket, object, url, stream, config.ignoreError);
-            resultMap.put(OBJECT, objectMap);
+    /**
+     * Downloads the object that was too large for a non-blocking download on the completion thread.
+     */
+    protected void redownloadObject(final CrawlPipeline pipeline, final ObjectTask task) {
+        boolean next = false;
+        try {
+            next = downloadContent(task);
+        } catch (final Throwable t) {
+            handleException(task, t);
+        } finally {
+            if (!next) {
+                finishObject(task);
+            }
+        }
+        if (next) {
+            extractAndStoreObject(pipeline, task);
+        }
+    }
 
-            crawlerStatsHelper.record(statsKey, StatsAction.PREPARED);
+    /**
+     * Gets the response headers of an object whose content is not used, with a HEAD request only if they are needed.
+     *
+     * @return true if the task continues to the extract stage
+     */
+    protected boolean fetchMetadata(final ObjectTask task) {
+        if (isResponseUsed(task)) {
+            final HeadObjectResponse head = task.client.headObject(task.bucket.name(), task.object.key(), null);
+            if (!isSupportedContentType(task, head.contentType())) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("{} is not an indexing target.", head.contentType());
+                }
+                ComponentUtil.getCrawlerStatsHelper().discard(task.statsKey);
+                return false;
+            }
+            task.response = toGetObjectResponse(head);
+        }
+        logger.info("Crawling URL: {}", task.url);
+        return true;
+    }
+
+    /**
+     * @return true if the content is downloaded because the scripts or the mimetype check use it
+     */
+    protected boolean isContentUsed(final ObjectTask task) {
+        final Set<String> fields = task.scriptMapping.getReferencedProperties(OBJECT);
+        return fields == null || !Collections.disjoint(fields, CONTENT_FIELDS)
+                || task.config.sniffMimeType && !task.config.acceptsAllMimeTypes();
+    }
+
+    /**
+     * @return true if the response headers are fetched because the scripts or the mimetype check use them
+     */
+    protected boolean isResponseUsed(final ObjectTask task) {
+        final Set<String> fields = task.scriptMapping.getReferencedProperties(OBJECT);
+        return fields == null || !Collections.disjoint(fields, RESPONSE_FIELDS) || !task.config.acceptsAllMimeTypes();
+    }
 
+    protected GetObjectResponse toGetObjectResponse(final HeadObjectResponse head) {
+        return GetObjectResponse.builder()
+                .acceptRanges(head.acceptRanges())
+                .cacheControl(head.cacheControl())
+                .contentDisposition(head.contentDisposition())
+                .contentEncoding(head.contentEncoding())
+                .contentLanguage(head.contentLanguage())
+                .contentLength(head.contentLength())
+                .contentType(head.contentType())
+                .deleteMarker(head.deleteMarker())
+                .eTag(head.eTag())
+                .expiration(head.expiration())
+                .expires(head.expires())
+                .lastModified(head.lastModified())
+                .metadata(head.metadata())
+                .missingMeta(head.missingMeta())
+                .objectLockLegalHoldStatus(head.objectLockLegalHoldStatusAsString())
+                .objectLockMode(head.objectLockModeAsString())
+                .objectLockRetainUntilDate(head.objectLockRetainUntilDate())
+                .partsCount(head.partsCount())
+                .replicationStatus(head.replicationStatusAsString())
+                .requestCharged(head.requestChargedAsString())
+                .restore(head.restore())
+                .serverSideEncryption(head.serverSideEncryptionAsString())
+                .sseCustomerAlgorithm(head.sseCustomerAlgorithm())
+                .sseCustomerKeyMD5(head.sseCustomerKeyMD5())
+                .ssekmsKeyId(head.ssekmsKeyId())
+                .versionId(head.versionId())
+                .websiteRedirectLocation(head.websiteRedirectLocation())
+                .build();
+    }
+
+    /**
+     * Checks the object against the filters before any request for its content is made.
+     *
+     * @return true if the object is an indexing target
+     */
+    protected boolean prepareObject(final ObjectTask task) throws URISyntaxException {
+        final CrawlerStatsHelper crawlerStatsHelper = ComponentUtil.getCrawlerStatsHelper();
+        final Config config = task.config;
+        final S3Object object = task.object;
+        crawlerStatsHelper.begin(task.statsKey);
+        task.url = getUrl(task.client.getEndpoint(), task.client.getRegion().id(), task.bucket.name(), object.key());
+
+        final UrlFilter urlFilter = config.urlFilter;
+        if (urlFilter != null && !urlFilter.match(task.url)) {
             if (logger.isDebugEnabled()) {
-                logger.debug("objectMap: {}", objectMap);
+                logger.debug("Not matched: {}", task.url);
             }
+            crawlerStatsHelper.discard(task.statsKey);
+            return false;
+        }
 
-            final String scriptType = getScriptType(paramMap);
-            for (final Map.Entry<String, String> entry : scriptMap.entrySet()) {
-                final Object convertValue = convertValue(scriptType, entry.getValue(), resultMap);
-                if (convertValue != null) {
-                    dataMap.put(entry.getKey(), convertValue);
-                }
+        if (!isTargetObject(config, object)) {
+            crawlerStatsHelper.discard(task.statsKey);
+            return false;
+        }
+
+        if (config.incremental && task.manifest != null && task.manifest.isUnchanged(task.bucket.name(), object)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Not modified: {}", task.url);
             }
+            task.unchanged = true;
+            crawlerStatsHelper.discard(task.statsKey);
+            return false;
+        }
 
-            crawlerStatsHelper.record(statsKey, StatsAction.EVALUATED);
+        if (object.size() != null && config.maxSize < object.size()) {
+            throw new MaxLengthExceededException(
+                    "The content length (" + object.size() + " byte) is over " + config.maxSize + " byte. The url is " + task.url);
+        }
+        return true;
+    }
+
+    /**
+     * Detects the mimetype of a large object from the first bytes of its content when {@code sniff_mimetype} is enabled,
+     * so that an unsupported object costs one small request instead of a full download.
+     * Smaller objects are checked after their content is downloaded by {@link #isSupportedContent(ObjectTask)}.
+     *
+     * @return true if the object is downloaded
+     */
+    protected boolean sniffObject(final ObjectTask task) throws IOException {
+        final Config config = task.config;
+        final Long size = task.object.size();
+        if (!config.sniffMimeType || config.acceptsAllMimeTypes() || size != null && size <= config.sniffSize) {
+            return true;
+        }
+        final long start = System.nanoTime();
+        final byte[] prefix;
+        try (ResponseInputStream<GetObjectResponse> stream =
+                task.client.getObject(task.bucket.name(), task.object.key(), null, null, "bytes=0-" + (config.sniffSize - 1))) {
+            prefix = stream.readNBytes(config.sniffSize);
+        } catch (final IOException | RuntimeException e) {
+            config.metrics.recordError(CrawlMetrics.Stage.SNIFF, start, e);
+            throw e;
+        }
+        config.metrics.addDownloadedBytes(prefix.length);
+        final MimeTypeHelper mimeTypeHelper = ComponentUtil.getComponent(MimeTypeHelper.class);
+        final String mimeType = mimeTypeHelper.getContentType(new ByteArrayInputStream(prefix), FilenameUtils.getName(task.object.key()));
+        config.metrics.record(CrawlMetrics.Stage.SNIFF, start);
+        task.mimeTypeChecked = true;
+        if (!isSupportedMimeType(config, mimeType)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("{}({}) is not an indexing target.", task.url, mimeType);
+            }
+            ComponentUtil.getCrawlerStatsHelper().discard(task.statsKey);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks the Content-Type of the response. It is not checked when {@code sniff_mimetype} is enabled
+     * because the detected mimetype is checked instead.
+     */
+    protected boolean isSupportedContentType(final ObjectTask task, final String contentType) {
+        return task.config.sniffMimeType || isSupportedMimeType(task.config, contentType);
+    }
+
+    /**
+     * Checks the mimetype detected from the downloaded content when {@code sniff_mimetype} is enabled
+     * and the object was not sniffed before the download. The task is discarded if it is not supported.
+     *
+     * @return true if the task continues to the extract stage
+     */
+    protected boolean isSupportedContent(final ObjectTask task) {
+        final Config config = task.config;
+        if (!config.sniffMimeType || task.mimeTypeChecked || task.content == null || config.acceptsAllMimeTypes()) {
+            return true;
+        }
+        task.mimeTypeChecked = true;
+        final String mimeType;
+        try {
+            mimeType = getMimeType(FilenameUtils.getName(task.object.key()), task.content);
+        } catch (final IOException e) {
+            logger.warn("Failed to detect a mimetype of {}", task.url, e);
+            return true;
+        }
+        if (!isSupportedMimeType(config, mimeType)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("{}({}) is not an indexing target.", task.url, mimeType);
+            }
+            ComponentUtil.getCrawlerStatsHelper().discard(task.statsKey);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Extracts the text content and evaluates the scripts.
+     *
+     * @return true if the task continues to the store stage
+     */
+    protected boolean extractObject(final ObjectTask task) {
+        final CrawlerStatsHelper crawlerStatsHelper = ComponentUtil.getCrawlerStatsHelper();
+        boolean next = false;
+        try {
+            final Map<String, Object> resultMap = new LinkedHashMap<>(task.paramMap.asMap());
+            final Map<String, Object> objectMap = getObjectMap(task.client.getRegion().id(), task.bucket, task.object, task.url,
+                    task.response, task.content, task.config.ignoreError, task.scriptMapping.getReferencedProperties(OBJECT),
+                    task.config.metrics, task.config.extractor);
+            resultMap.put(OBJECT, objectMap);
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("objectMap: {}", objectMap);
+            }
+
+            crawlerStatsHelper.record(task.statsKey, StatsAction.PREPARED);
+
+            final Map<String, Object> dataMap = task.dataMap;
+            final long start = System.nanoTime();
+            task.scriptMapping.evaluate(resultMap, dataMap);
+            task.config.metrics.record(CrawlMetrics.Stage.SCRIPT, start);
+
+            crawlerStatsHelper.record(task.statsKey, StatsAction.EVALUATED);
 
             if (logger.isDebugEnabled()) {
                 logger.debug("dataMap: {}", dataMap);
             }
 
             if (dataMap.get("url") instanceof final String statsUrl) {
-                statsKey.setUrl(statsUrl);
+                task.statsKey.setUrl(statsUrl);
+            }
+            next = true;
+        } catch (final Throwable t) {
+            handleException(task, t);
+        } finally {
+            releaseContent(task);
+            releaseBudget(task);
+            if (!next) {
+                finishObject(task);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Sends the document to the index.
+     */
+    protected void indexObject(final ObjectTask task) {
+        final long start = System.nanoTime();
+        try {
+            task.callback.store(task.paramMap, task.dataMap);
+            task.config.metrics.record(CrawlMetrics.Stage.STORE, start);
+            task.indexed = true;
+            ComponentUtil.getCrawlerStatsHelper().record(task.statsKey, StatsAction.FINISHED);
+        } catch (final Throwable t) {
+            task.config.metrics.recordError(CrawlMetrics.Stage.STORE, start, t);
+            handleException(task, t);
+        } finally {
+            finishObject(task);
+        }
+    }
+
+    protected void finishObject(final ObjectTask task) {
+        releaseContent(task);
+        releaseBudget(task);
+        if (task.indexed) {
+            task.config.metrics.objectIndexed();
+        } else if (task.failed) {
+            task.config.metrics.objectFailed();
+        } else {
+            task.config.metrics.objectDiscarded();
+        }
+        if (task.stopped) {
+            // left pending in the checkpoint and out of the manifest, so that the next crawl processes the object
+            task.config.stoppedObjects.increment();
+        } else {
+            if (task.manifest != null) {
+                task.manifest.record(task.bucket.name(), task.object, task.indexed || task.unchanged);
             }
+            if (task.checkpoint != null) {
+                // after the manifest, so that the partial manifest has all objects before the checkpoint
+                task.checkpoint.done(task.bucket.name(), task.object.key());
+            }
+        }
+        ComponentUtil.getCrawlerStatsHelper().done(task.statsKey);
+    }
+
+    protected void releaseContent(final ObjectTask task) {
+        final DeferredFileOutputStream content = task.content;
+        task.content = null;
+        deleteContent(content);
+    }
+
+    /**
+     * Waits until the content of the object fits in the budget of the crawl. The content up to the cached content size
+     * is counted as memory and larger content as disk, and content of unknown size is counted as the cached content size.
+     */
+    protected void reserveContent(final ObjectTask task, final Long size) {
+        final int threshold = task.client.getMaxCachedContentSize();
+        final long memory;
+        final long disk;
+        if (size == null || size < 0) {
+            memory = threshold;
+            disk = 0;
+        } else if (size <= threshold) {
+            memory = size;
+            disk = 0;
+        } else if (task.client.isMultipartDownload(size)) {
+            memory = 0;
+            disk = size;
+        } else {
+            // the first bytes are kept in memory until the content is moved to a file
+            memory = threshold;
+            disk = size;
+        }
+        task.reservation = task.config.contentBudget.reserve(memory, disk);
+    }
 
-            callback.store(paramMap, dataMap);
-            crawlerStatsHelper.record(statsKey, StatsAction.FINISHED);
-        } catch (final CrawlingAccessException e) {
-            logger.warn("Crawling Access Exception at : {}", dataMap, e);
+    protected void releaseBudget(final ObjectTask task) {
+        final ContentBudget.Reservation reservation = task.reservation;
+        task.reservation = null;
+        task.config.contentBudget.release(reservation);
+    }
+
+    protected void handleException(final ObjectTask task, final Throwable t) {
+        if (RequestBudget.isExhausted(t)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Skipped {} because the crawl used up its requests.", task.url);
+            }
+            task.stopped = true;
+            return;
+        }
+        final CrawlerStatsHelper crawlerStatsHelper = ComponentUtil.getCrawlerStatsHelper();
+        task.failed = true;
+        if (t instanceof final CrawlingAccessException e) {
+            logger.warn("Crawling Access Exception at : {}", task.dataMap, e);
 
             Throwable target = e;
             if (target instanceof final MultipleCrawlingAccessException ex) {
@@ -276,17 +1081,85 @@ public class AmazonS3DataStore extends AbstractDataStore {
                 errorName = target.getClass().getCanonicalName();
             }
 
-            storeFailureUrl(dataConfig, errorName, url, target);
-            crawlerStatsHelper.record(statsKey, StatsAction.ACCESS_EXCEPTION);
-        } catch (final Throwable t) {
-            logger.warn("Crawling Access Exception at : {}", dataMap, t);
-            storeFailureUrl(dataConfig, t.getClass().getCanonicalName(), url, t);
-            crawlerStatsHelper.record(statsKey, StatsAction.EXCEPTION);
-        } finally {
-            crawlerStatsHelper.done(statsKey);
+            storeFailureUrl(task.dataConfig, errorName, task.url, target);
+            crawlerStatsHelper.record(task.statsKey, StatsAction.ACCESS_EXCEPTION);
+        } else {
+            logger.warn("Crawling Access Exception at : {}", task.dataMap, t);
+            storeFailureUrl(task.dataConfig, t.getClass().getCanonicalName(), task.url, t);
+            crawlerStatsHelper.record(task.statsKey, StatsAction.EXCEPTION);
+        }
+    }
+
+    /**
+     * Decides from the listing entry alone whether the object can be an indexing target,
+     * so that skipped objects never issue a GetObject request.
+     */
+    protected boolean isTargetObject(final Config config, final S3Object object) {
+        final String key = object.key();
+        if (key.endsWith("/")) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("{} is a folder marker.", key);
+            }
+            return false;
+        }
+
+        if (!config.prefixes.isEmpty() && config.prefixes.stream().noneMatch(key::startsWith)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("{} is not under {}.", key, config.prefixes);
+            }
+            return false;
+        }
+
+        final String storageClass = object.storageClassAsString();
+        if (storageClass != null && config.excludedStorageClasses.contains(storageClass)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("{} is stored in {}.", key, storageClass);
+            }
+            return false;
+        }
+
+        if (!config.acceptsAllMimeTypes()) {
+            final String mimeType = getMimeTypeFromKey(key);
+            if (mimeType != null && !isSupportedMimeType(config, mimeType)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("{}({}) is not an indexing target.", key, mimeType);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Guesses the mimetype from the file extension of the key.
+     *
+     * @return the mimetype, or null if it cannot be determined from the key
+     */
+    protected String getMimeTypeFromKey(final String key) {
+        final String filename = FilenameUtils.getName(key);
+        if (StringUtil.isBlank(filename)) {
+            return null;
+        }
+        try {
+            final MimeTypeHelper mimeTypeHelper = ComponentUtil.getComponent(MimeTypeHelper.class);
+            final String mimeType = mimeTypeHelper.getContentType(null, filename);
+            if (StringUtil.isBlank(mimeType) || DEFAULT_MIMETYPE.equals(mimeType)) {
+                return null;
+            }
+            return mimeType;
+        } catch (final Exception e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Failed to detect a mimetype from {}", key, e);
+            }
+            return null;
         }
     }
 
+    protected boolean isSupportedMimeType(final Config config, final String mimeType) {
+        final String value = mimeType != null ? mimeType : StringUtil.EMPTY;
+        return Stream.of(config.supportedMimeTypes).anyMatch(p -> p.matcher(value).matches());
+    }
+
     protected void storeFailureUrl(final DataConfig dataConfig, final String errorName, final String url, final Throwable target) {
         final FailureUrlService failureUrlService = ComponentUtil.getComponent(FailureUrlService.class);
         failureUrlService.store(dataConfig, errorName, url, target);
@@ -294,67 +1167,120 @@ public class AmazonS3DataStore extends AbstractDataStore {
 
     protected Map<String, Object> getObjectMap(final String region, final Bucket bucket, final S3Object object, final String url,
             final ResponseInputStream<GetObjectResponse> stream, final boolean ignoreError) throws URISyntaxException {
+        final DeferredFileOutputStream content = downloadObject(stream, url);
+        try {
+            return getObjectMap(region, bucket, object, url, stream.response(), content, ignoreError);
+        } finally {
+            deleteContent(content);
+        }
+    }
+
+    protected Map<String, Object> getObjectMap(final String region, final Bucket bucket, final S3Object object, final String url,
+            final GetObjectResponse response, final DeferredFileOutputStream content, final boolean ignoreError)
+            throws URISyntaxException {
+        return getObjectMap(region, bucket, object, url, response, content, ignoreError, null, null);
+    }
+
+    /**
+     * @param response the response headers, or null if no field uses them
+     * @param fields the fields to compute, or null for all fields
+     * @param metrics the metrics recording the mimetype detection and the extraction, or null
+     */
+    protected Map<String, Object> getObjectMap(final String region, final Bucket bucket, final S3Object object, final String url,
+            final GetObjectResponse response, final DeferredFileOutputStream content, final boolean ignoreError, final Set<String> fields,
+            final CrawlMetrics metrics) throws URISyntaxException {
+        return getObjectMap(region, bucket, object, url, response, content, ignoreError, fields, metrics, null);
+    }
+
+    /**
+     * @param extractor the extractor limiting the extraction by mimetype, or null to extract on the calling thread
+     */
+    protected Map<String, Object> getObjectMap(final String region, final Bucket bucket, final S3Object object, final String url,
+            final GetObjectResponse response, final DeferredFileOutputStream content, final boolean ignoreError, final Set<String> fields,
+            final CrawlMetrics metrics, final ContentExtractor extractor) throws URISyntaxException {
+        final Predicate<String> used = name -> fields == null || fields.contains(name);
         final Map<String, Object> map = new HashMap<>();
-        final GetObjectResponse response = stream.response();
         map.put(OBJECT_URL, url);
         final String filename = FilenameUtils.getName(object.key());
         map.put(OBJECT_FILENAME, filename);
-        map.put(OBJECT_MANAGEMENT_URL, getManagementUrl(region, bucket.name(), object.key()));
+        if (used.test(OBJECT_MANAGEMENT_URL)) {
+            map.put(OBJECT_MANAGEMENT_URL, getManagementUrl(region, bucket.name(), object.key()));
+        }
 
         map.put(OBJECT_BUCKET_NAME, bucket.name());
-        map.put(OBJECT_BUCKET_CREATION_DATE, toDate(bucket.creationDate()));
+        if (used.test(OBJECT_BUCKET_CREATION_DATE)) {
+            map.put(OBJECT_BUCKET_CREATION_DATE, toDate(bucket.creationDate()));
+        }
 
         map.put(OBJECT_KEY, object.key());
         map.put(OBJECT_E_TAG, object.eTag());
-        map.put(OBJECT_LAST_MODIFIED, toDate(object.lastModified()));
-        final Owner owner = object.owner();
-        map.put(OBJECT_OWNER_ID, Objects.nonNull(owner) ? owner.id() : null);
-        map.put(OBJECT_OWNER_DISPLAY_NAME, Objects.nonNull(owner) ? owner.displayName() : null);
+        if (used.test(OBJECT_LAST_MODIFIED)) {
+            map.put(OBJECT_LAST_MODIFIED, toDate(object.lastModified()));
+        }
+        if (used.test(OBJECT_OWNER_ID) || used.test(OBJECT_OWNER_DISPLAY_NAME)) {
+            final Owner owner = object.owner();
+            map.put(OBJECT_OWNER_ID, Objects.nonNull(owner) ? owner.id() : null);
+            map.put(OBJECT_OWNER_DISPLAY_NAME, Objects.nonNull(owner) ? owner.displayName() : null);
+        }
         map.put(OBJECT_SIZE, object.size());
         map.put(OBJECT_STORAGE_CLASS, object.storageClassAsString());
-        map.put(OBJECT_ACCEPT_RANGES, response.acceptRanges());
-        map.put(OBJECT_CACHE_CONTROL, response.cacheControl());
-        map.put(OBJECT_CONTENT_DISPOSITION, response.contentDisposition());
-        map.put(OBJECT_CONTENT_ENCODING, response.contentEncoding());
-        map.put(OBJECT_CONTENT_LANGUAGE, response.contentLanguage());
-        map.put(OBJECT_CONTENT_LENGTH, response.contentLength());
-        map.put(OBJECT_CONTENT_RANGE, response.contentRange());
-        map.put(OBJECT_DELETE_MARKER, response.deleteMarker());
-        map.put(OBJECT_EXPIRATION, response.expiration());
-        map.put(OBJECT_EXPIRES, toDate(response.expires()));
-        map.put(OBJECT_MISSING_META, response.missingMeta());
-        map.put(OBJECT_OBJECT_LOCK_LEGAL_HOLD_STATUS, response.objectLockLegalHoldStatusAsString());
-        map.put(OBJECT_OBJECT_LOCK_MODE, response.objectLockModeAsString());
-        map.put(OBJECT_OBJECT_LOCK_RETAIN_UNTIL_DATE, toDate(response.objectLockRetainUntilDate()));
-        map.put(OBJECT_PARTS_COUNT, response.partsCount());
-        map.put(OBJECT_REPLICATION_STATUS, response.replicationStatusAsString());
-        map.put(OBJECT_REQUEST_CHARGED, response.requestChargedAsString());
-        map.put(OBJECT_RESTORE, response.restore());
-        map.put(OBJECT_SERVER_SIDE_ENCRYPTION, response.serverSideEncryptionAsString());
-        map.put(OBJECT_SSE_CUSTOMER_ALGORITHM, response.sseCustomerAlgorithm());
-        map.put(OBJECT_SSE_CUSTOMER_KEY_MD5, response.sseCustomerKeyMD5());
-        map.put(OBJECT_SSEKMS_KEY_ID, response.ssekmsKeyId());
-        map.put(OBJECT_TAG_COUNT, response.tagCount());
-        map.put(OBJECT_VERSION_ID, response.versionId());
-        map.put(OBJECT_WEBSITE_REDIRECT_LOCATION, response.websiteRedirectLocation());
-        String contentType = response.contentType();
-        DeferredFileOutputStream dfos = null;
-        try (DeferredFileOutputStream out = new DeferredFileOutputStream(1000000, "fess-ds-s3-", ".out", null)) {
-            dfos = out;
-            CopyUtil.copy(stream, out);
-            out.flush();
-            contentType = getMimeType(filename, out);
-            try (InputStream is = getContentInputStream(out)) {
-                map.put(OBJECT_CONTENTS, getObjectContents(is, contentType, object.key(), url, ignoreError));
-            }
-        } catch (final IOException e) {
-            logger.warn("Failed to process {}", url, e);
-        } finally {
-            if (dfos != null && !dfos.isInMemory()) {
-                final File file = dfos.getFile();
-                if (!file.delete()) {
-                    logger.warn("Failed to delete {}.", file.getAbsolutePath());
+        if (response != null && (fields == null || !Collections.disjoint(fields, RESPONSE_FIELDS))) {
+            map.put(OBJECT_ACCEPT_RANGES, response.acceptRanges());
+            map.put(OBJECT_CACHE_CONTROL, response.cacheControl());
+            map.put(OBJECT_CONTENT_DISPOSITION, response.contentDisposition());
+            map.put(OBJECT_CONTENT_ENCODING, response.contentEncoding());
+            map.put(OBJECT_CONTENT_LANGUAGE, response.contentLanguage());
+            map.put(OBJECT_CONTENT_LENGTH, response.contentLength());
+            map.put(OBJECT_CONTENT_RANGE, response.contentRange());
+            map.put(OBJECT_DELETE_MARKER, response.deleteMarker());
+            map.put(OBJECT_EXPIRATION, response.expiration());
+            map.put(OBJECT_EXPIRES, toDate(response.expires()));
+            map.put(OBJECT_MISSING_META, response.missingMeta());
+            map.put(OBJECT_OBJECT_LOCK_LEGAL_HOLD_STATUS, response.objectLockLegalHoldStatusAsString());
+            map.put(OBJECT_OBJECT_LOCK_MODE, response.objectLockModeAsString());
+            map.put(OBJECT_OBJECT_LOCK_RETAIN_UNTIL_DATE, toDate(response.objectLockRetainUntilDate()));
+            map.put(OBJECT_PARTS_COUNT, response.partsCount());
+            map.put(OBJECT_REPLICATION_STATUS, response.replicationStatusAsString());
+            map.put(OBJECT_REQUEST_CHARGED, response.requestChargedAsString());
+            map.put(OBJECT_RESTORE, response.restore());
+            map.put(OBJECT_SERVER_SIDE_ENCRYPTION, response.serverSideEncryptionAsString());
+            map.put(OBJECT_SSE_CUSTOMER_ALGORITHM, response.sseCustomerAlgorithm());
+            map.put(OBJECT_SSE_CUSTOMER_KEY_MD5, response.sseCustomerKeyMD5());
+            map.put(OBJECT_SSEKMS_KEY_ID, response.ssekmsKeyId());
+            map.put(OBJECT_TAG_COUNT, response.tagCount());
+            map.put(OBJECT_VERSION_ID, response.versionId());
+            map.put(OBJECT_WEBSITE_REDIRECT_LOCATION, response.websiteRedirectLocation());
+        }
+        if (fields != null && Collections.disjoint(fields, CONTENT_FIELDS)) {
+            return map;
+        }
+        String contentType = response != null ? response.contentType() : null;
+        if (content != null) {
+            try {
+                long start = System.nanoTime();
+                contentType = getMimeType(filename, content);
+                if (metrics != null) {
+                    metrics.record(CrawlMetrics.Stage.MIMETYPE, start);
+                }
+                if (used.test(OBJECT_CONTENTS)) {
+                    start = System.nanoTime();
+                    try (InputStream is = getContentInputStream(content)) {
+                        map.put(OBJECT_CONTENTS,
+                                extractContents(extractor, is, content.getByteCount(), contentType, object.key(), url, ignoreError));
+                    } catch (final IOException | RuntimeException e) {
+                        if (metrics != null) {
+                            metrics.recordError(CrawlMetrics.Stage.EXTRACT, start, e);
+                            metrics.recordExtraction(contentType, start, e);
+                        }
+                        throw e;
+                    }
+                    if (metrics != null) {
+                        metrics.record(CrawlMetrics.Stage.EXTRACT, start);
+                        metrics.recordExtraction(contentType, start, null);
+                    }
                 }
+            } catch (final IOException e) {
+                logger.warn("Failed to process {}", url, e);
             }
         }
         map.put(OBJECT_FILETYPE, ComponentUtil.getFileTypeHelper().get(contentType));
@@ -363,6 +1289,64 @@ public class AmazonS3DataStore extends AbstractDataStore {
         return map;
     }
 
+    /**
+     * Copies the object content into memory, or into a temporary file if it is large.
+     *
+     * @return the content, or null if it could not be read
+     */
+    protected DeferredFileOutputStream downloadObject(final InputStream in, final String url) {
+        return downloadObject(in, url, AmazonS3Client.DEFAULT_MAX_CACHED_CONTENT_SIZE);
+    }
+
+    /**
+     * Copies the object content into memory, or into a temporary file if it is larger than the threshold.
+     *
+     * @return the content, or null if it could not be read
+     */
+    protected DeferredFileOutputStream downloadObject(final InputStream in, final String url, final int threshold) {
+        final DeferredFileOutputStream out = newContentOutputStream(threshold);
+        try (out) {
+            CopyUtil.copy(in, out);
+            out.flush();
+        } catch (final IOException e) {
+            logger.warn("Failed to process {}", url, e);
+            deleteContent(out);
+            return null;
+        }
+        return out;
+    }
+
+    /**
+     * Downloads a large object in parts into a temporary file and sets the response of the task.
+     * A part that still fails after its retries fails the object.
+     */
+    protected DeferredFileOutputStream downloadObjectInParts(final ObjectTask task, final HeadObjectResponse head) throws IOException {
+        final Path file = Files.createTempFile("fess-ds-s3-", ".out");
+        boolean downloaded = false;
+        try {
+            task.response = task.client.downloadObject(task.bucket.name(), task.object.key(), head, file);
+            downloaded = true;
+            return new FileContentOutputStream(file.toFile());
+        } finally {
+            if (!downloaded) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    protected DeferredFileOutputStream newContentOutputStream(final int threshold) {
+        return new DeferredFileOutputStream(threshold, "fess-ds-s3-", ".out", null);
+    }
+
+    protected void deleteContent(final DeferredFileOutputStream content) {
+        if (content != null && !content.isInMemory()) {
+            final File file = content.getFile();
+            if (file.exists() && !file.delete()) {
+                logger.warn("Failed to delete {}.", file.getAbsolutePath());
+            }
+        }
+    }
+
     protected String getMimeType(final String filename, final DeferredFileOutputStream out) throws IOException {
         final MimeTypeHelper mimeTypeHelper = ComponentUtil.getComponent(MimeTypeHelper.class);
         try (InputStream is = getContentInputStream(out)) {
@@ -377,6 +1361,21 @@ public class AmazonS3DataStore extends AbstractDataStore {
         return new FileInputStream(out.getFile());
     }
 
+    /**
+     * Extracts the text content within the limits of its mimetype. Unlike other extraction errors, content over the size
+     * limit and an extraction that runs out of time fail the object even if errors are ignored, as {@code max_size} does.
+     *
+     * @param extractor the extractor, or null to extract on the calling thread without limits
+     * @param size the size of the content in bytes
+     */
+    protected String extractContents(final ContentExtractor extractor, final InputStream in, final long size, final String contentType,
+            final String key, final String url, final boolean ignoreError) {
+        if (extractor == null) {
+            return getObjectContents(in, contentType, key, url, ignoreError);
+        }
+        return extractor.extract(contentType, size, in, is -> getObjectContents(is, contentType, key, url, ignoreError));
+    }
+
     protected String getObjectContents(final InputStream in, final String contentType, final String key, final String url,
             final boolean ignoreError) {
         try {
@@ -418,31 +1417,387 @@ public class AmazonS3DataStore extends AbstractDataStore {
         return Objects.nonNull(instant) ? Date.from(instant) : null;
     }
 
-    protected ExecutorService newFixedThreadPool(final int nThreads) {
+    protected CrawlPipeline createPipeline(final Config config) {
+        return new CrawlPipeline(config.virtualThreads, config.fetchThreads, config.fetchQueueSize, config.extractThreads,
+                config.extractQueueSize, config.storeThreads, config.storeQueueSize, config.maxInFlight);
+    }
+
+    /**
+     * Deletes the documents of objects that were removed from the bucket since the previous crawl.
+     */
+    protected void deleteObjects(final DataConfig dataConfig, final AmazonS3Client client, final String bucket, final List<String> keys) {
+        final List<String> urls = new ArrayList<>(keys.size());
+        for (final String key : keys) {
+            try {
+                urls.add(getUrl(client.getEndpoint(), client.getRegion().id(), bucket, key));
+            } catch (final URISyntaxException e) {
+                logger.warn("Failed to create the url of {} in {}.", key, bucket, e);
+            }
+        }
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final QueryBuilder queryBuilder = QueryBuilders.boolQuery()
+                .filter(QueryBuilders.termQuery(fessConfig.getIndexFieldConfigId(), dataConfig.getConfigId()))
+                .filter(QueryBuilders.termsQuery(fessConfig.getIndexFieldUrl(), urls));
+        final long count = ComponentUtil.getIndexingHelper().deleteDocumentByQuery(ComponentUtil.getSearchEngineClient(), queryBuilder);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Deleted {} documents of {} removed objects in {}.", count, keys.size(), bucket);
+        }
+    }
+
+    /**
+     * @return the manifests of the previous crawl, or null if neither the incremental crawl nor the deletion is enabled
+     */
+    protected ManifestStore createManifestStore(final DataConfig dataConfig, final Config config) {
+        return createManifestStore(dataConfig, config, null);
+    }
+
+    /**
+     * @param checkpoint the checkpoint of the crawl, whose resumed buckets keep the objects of the suspended crawl, or null
+     */
+    protected ManifestStore createManifestStore(final DataConfig dataConfig, final Config config, final CrawlCheckpoint checkpoint) {
+        if (!config.incremental && !config.deleteRemovedObjects) {
+            return null;
+        }
+        return new ManifestStore(getStateDirectory(dataConfig, config), config.manifestRunSize,
+                checkpoint != null ? checkpoint::isResumed : bucket -> false);
+    }
+
+    /**
+     * @return the checkpoint of the listings, or null unless {@code checkpoint} is true
+     */
+    protected CrawlCheckpoint createCheckpoint(final DataConfig dataConfig, final Config config) {
+        if (!config.checkpoint) {
+            return null;
+        }
+        final CrawlCheckpoint checkpoint = new CrawlCheckpoint(getStateDirectory(dataConfig, config));
+        if (!config.incremental && !config.deleteRemovedObjects) {
+            // with a manifest, the checkpoint is saved with the partial manifest when the crawl stops
+            checkpoint.start(config.checkpointInterval);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @return the directory of the manifests and the checkpoints of the data config, with a subdirectory for each shard
+     */
+    protected Path getStateDirectory(final DataConfig dataConfig, final Config config) {
+        final Path directory;
+        if (StringUtil.isNotBlank(config.manifestDir)) {
+            directory = Paths.get(config.manifestDir);
+        } else {
+            final String id = StringUtil.isNotBlank(dataConfig.getId()) ? dataConfig.getId() : "default";
+            directory = Paths.get(System.getProperty(Constants.FESS_VAR_PATH, System.getProperty("java.io.tmpdir")), "fess-ds-s3", id);
+        }
+        if (config.shard != null) {
+            // the shards own other objects when their number or depth changes
+            return directory.resolve("shard-" + config.shard.getIndex() + "-of-" + config.shard.getCount() + "-"
+                    + config.shard.getPrefixDepth());
+        }
+        return directory;
+    }
+
+    /**
+     * @return the field mappings parsed once for all objects of the crawl
+     */
+    protected ScriptMapping createScriptMapping(final DataStoreParams paramMap, final Map<String, String> scriptMap) {
+        final ScriptMapping scriptMapping = new ScriptMapping(scriptMap, getScriptType(paramMap));
         if (logger.isDebugEnabled()) {
-            logger.debug("Executor Thread Pool: {}", nThreads);
+            logger.debug("scriptMapping: {}", scriptMapping);
         }
-        return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(nThreads),
-                new ThreadPoolExecutor.CallerRunsPolicy());
+        return scriptMapping;
+    }
+
+    /**
+     * Registers the metrics of the crawl and starts the periodic summary.
+     */
+    protected CrawlMetrics startMetrics(final DataConfig dataConfig, final Config config, final AmazonS3Client client,
+            final CrawlPipeline pipeline) {
+        final CrawlMetrics metrics = config.metrics;
+        metrics.setPipeline(pipeline);
+        metrics.setRequestBudget(client.getRequestBudget());
+        metrics.setContentExtractor(config.extractor);
+        client.setMetrics(metrics);
+        final String name = StringUtil.isNotBlank(dataConfig.getId()) ? dataConfig.getId() : getName();
+        metrics.register(name);
+        metrics.startReporter(config.metricsLogInterval);
+        return metrics;
+    }
+
+    protected InventoryReader createInventoryReader(final AmazonS3Client client) {
+        return new InventoryReader(client);
     }
 
     protected AmazonS3Client createClient(final DataStoreParams paramMap) {
         return new AmazonS3Client(paramMap);
     }
 
+    /**
+     * The state of one object while it passes through the pipeline stages.
+     */
+    protected static class ObjectTask {
+        final DataConfig dataConfig;
+        final IndexUpdateCallback callback;
+        final DataStoreParams paramMap;
+        final ScriptMapping scriptMapping;
+        final Config config;
+        final AmazonS3Client client;
+        // null unless the buckets are listed for an incremental crawl or the deletion of removed objects
+        final ManifestStore manifest;
+        // null unless the objects are listed with a checkpoint
+        final CrawlCheckpoint checkpoint;
+        final Bucket bucket;
+        final S3Object object;
+        final StatsKeyObject statsKey;
+        final Map<String, Object> dataMap;
+        String url = StringUtil.EMPTY;
+        GetObjectResponse response;
+        DeferredFileOutputStream content;
+        ContentBudget.Reservation reservation;
+        // true if the detected mimetype has been checked
+        boolean mimeTypeChecked;
+        // true if the content is larger than its listed size and is downloaded again
+        boolean redownload;
+        boolean unchanged;
+        boolean indexed;
+        boolean failed;
+        // true if the object was not processed because the crawl stopped, so that the next crawl processes it
+        boolean stopped;
+        // System.nanoTime() when the body of a non-blocking download started
+        long transferStart;
+
+        ObjectTask(final DataConfig dataConfig, final IndexUpdateCallback callback, final DataStoreParams paramMap,
+                final ScriptMapping scriptMapping, final Map<String, Object> defaultDataMap, final Config config,
+                final AmazonS3Client client, final Bucket bucket, final S3Object object) {
+            this(dataConfig, callback, paramMap, scriptMapping, defaultDataMap, config, client, null, null, bucket, object);
+        }
+
+        ObjectTask(final DataConfig dataConfig, final IndexUpdateCallback callback, final DataStoreParams paramMap,
+                final ScriptMapping scriptMapping, final Map<String, Object> defaultDataMap, final Config config,
+                final AmazonS3Client client, final ManifestStore manifest, final CrawlCheckpoint checkpoint, final Bucket bucket,
+                final S3Object object) {
+            this.dataConfig = dataConfig;
+            this.callback = callback;
+            this.scriptMapping = scriptMapping;
+            this.config = config;
+            this.client = client;
+            this.manifest = manifest;
+            this.checkpoint = checkpoint;
+            this.bucket = bucket;
+            this.object = object;
+            statsKey = new StatsKeyObject(bucket.name() + "@" + object.key());
+            // each task has its own params because the stats key differs per object
+            this.paramMap = paramMap.newInstance();
+            this.paramMap.put(Constants.CRAWLER_STATS_KEY, statsKey);
+            dataMap = new HashMap<>(defaultDataMap);
+        }
+    }
+
+    /**
+     * Thrown when the crawl reached its maximum duration, so that no more objects are listed.
+     */
+    protected static class CrawlStoppedException extends DataStoreException {
+
+        private static final long serialVersionUID = 1L;
+
+        CrawlStoppedException(final String message) {
+            super(message);
+        }
+
+        /**
+         * @return true if the exception or one of its causes is thrown because the crawl reached its maximum duration
+         */
+        static boolean isStopped(final Throwable t) {
+            for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+                if (cause instanceof CrawlStoppedException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The content of an object that was written to a file without passing through the stream.
+     */
+    protected static class FileContentOutputStream extends DeferredFileOutputStream {
+        private final File file;
+
+        // the builder cannot create a subclass, and the stream is never written, so the file is not opened
+        @SuppressWarnings("deprecation")
+        FileContentOutputStream(final File file) {
+            super(0, file);
+            this.file = file;
+        }
+
+        @Override
+        public boolean isInMemory() {
+            return false;
+        }
+
+        @Override
+        public File getFile() {
+            return file;
+        }
+
+        @Override
+        public Path getPath() {
+            return file.toPath();
+        }
+
+        @Override
+        public byte[] getData() {
+            return null;
+        }
+    }
+
     protected static class Config {
         final int maxKeys;
+        final int listingParallelism;
+        final int listingPrefixDepth;
+        final boolean virtualThreads;
+        final int fetchThreads;
+        final int fetchQueueSize;
+        final int extractThreads;
+        final int extractQueueSize;
+        final int storeThreads;
+        final int storeQueueSize;
+        final long metricsLogInterval;
+        final CrawlMetrics metrics = new CrawlMetrics();
+        // the objects left for the next crawl
+        final LongAdder stoppedObjects = new LongAdder();
+        final int maxInFlight;
         final long maxSize;
         final boolean ignoreError;
-        final String[] supportedMimeTypes;
+        final Pattern[] supportedMimeTypes;
+        final Set<String> excludedStorageClasses;
         final UrlFilter urlFilter;
+        final String includePattern;
+        final String excludePattern;
+        final List<String> prefixes;
+        final boolean incremental;
+        final String manifestDir;
+        final int manifestRunSize;
+        final boolean deleteRemovedObjects;
+        final int deleteBatchSize;
+        final int multipartThreads;
+        final ContentBudget contentBudget;
+        // runs the extractions with the limits by mimetype
+        final ContentExtractor extractor;
+        final boolean sniffMimeType;
+        final int sniffSize;
+        final boolean checkpoint;
+        final long checkpointInterval;
+        final long maxCrawlDuration;
+        final long shutdownTimeout;
+        // System.currentTimeMillis() after which no object is passed to the pipeline
+        final long deadline;
+        // null unless the key space is split into shards
+        final KeyShard shard;
 
         Config(final DataStoreParams paramMap) {
             maxKeys = getMaxKeys(paramMap);
+            listingParallelism = getIntValue(paramMap, LISTING_PARALLELISM, DEFAULT_LISTING_PARALLELISM);
+            listingPrefixDepth = getIntValue(paramMap, LISTING_PREFIX_DEPTH, DEFAULT_LISTING_PREFIX_DEPTH);
+            virtualThreads = EXECUTOR_TYPE_VIRTUAL.equalsIgnoreCase(paramMap.getAsString(EXECUTOR_TYPE, EXECUTOR_TYPE_PLATFORM));
+            final int numberOfThreads = getIntValue(paramMap, NUMBER_OF_THREADS, 1);
+            fetchThreads = getIntValue(paramMap, FETCH_THREADS, numberOfThreads);
+            fetchQueueSize = getIntValue(paramMap, FETCH_QUEUE_SIZE, fetchThreads);
+            extractThreads = getIntValue(paramMap, EXTRACT_THREADS, Math.min(numberOfThreads, Runtime.getRuntime().availableProcessors()));
+            extractQueueSize = getIntValue(paramMap, EXTRACT_QUEUE_SIZE, extractThreads);
+            storeThreads = getIntValue(paramMap, STORE_THREADS, 1);
+            storeQueueSize = getIntValue(paramMap, STORE_QUEUE_SIZE, extractThreads);
+            metricsLogInterval = getLongValue(paramMap, METRICS_LOG_INTERVAL, DEFAULT_METRICS_LOG_INTERVAL);
+            maxInFlight = getIntValue(paramMap, AmazonS3Client.MAX_IN_FLIGHT, AmazonS3Client.DEFAULT_MAX_IN_FLIGHT);
             maxSize = getMaxSize(paramMap);
             ignoreError = isIgnoreError(paramMap);
             supportedMimeTypes = getSupportedMimeTypes(paramMap);
+            excludedStorageClasses = getExcludedStorageClasses(paramMap);
             urlFilter = getUrlFilter(paramMap);
+            includePattern = paramMap.getAsString(INCLUDE_PATTERN);
+            excludePattern = paramMap.getAsString(EXCLUDE_PATTERN);
+            prefixes = ListingPrefixes.normalize(StreamUtil.split(paramMap.getAsString(PREFIXES, StringUtil.EMPTY), ",")
+                    .get(stream -> stream.map(String::trim).filter(StringUtil::isNotEmpty).collect(Collectors.toList())));
+            // an event crawl has no manifest, which would treat all objects without events as removed
+            final boolean events = StringUtil.isNotBlank(paramMap.getAsString(EVENT_SOURCE));
+            incremental = !events && Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(INCREMENTAL, Constants.FALSE));
+            manifestDir = paramMap.getAsString(MANIFEST_DIR);
+            manifestRunSize = getIntValue(paramMap, MANIFEST_RUN_SIZE, DEFAULT_MANIFEST_RUN_SIZE);
+            deleteRemovedObjects = !events && Constants.TRUE
+                    .equalsIgnoreCase(paramMap.getAsString(DELETE_REMOVED_OBJECTS, incremental ? Constants.TRUE : Constants.FALSE));
+            deleteBatchSize = getIntValue(paramMap, DELETE_BATCH_SIZE, DEFAULT_DELETE_BATCH_SIZE);
+            multipartThreads = getIntValue(paramMap, AmazonS3Client.MULTIPART_THREADS, AmazonS3Client.DEFAULT_MULTIPART_THREADS);
+            contentBudget = new ContentBudget(getLongValue(paramMap, CONTENT_MEMORY_BUDGET, Runtime.getRuntime().maxMemory() / 4),
+                    getLongValue(paramMap, CONTENT_DISK_BUDGET, DEFAULT_CONTENT_DISK_BUDGET));
+            sniffMimeType = Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(SNIFF_MIMETYPE, Constants.FALSE));
+            sniffSize = Math.max(getIntValue(paramMap, SNIFF_SIZE, DEFAULT_SNIFF_SIZE), 1);
+            checkpoint = Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(CHECKPOINT, Constants.FALSE));
+            checkpointInterval = getLongValue(paramMap, CHECKPOINT_INTERVAL, DEFAULT_CHECKPOINT_INTERVAL);
+            maxCrawlDuration = getLongValue(paramMap, MAX_CRAWL_DURATION, 0L);
+            shutdownTimeout = getLongValue(paramMap, SHUTDOWN_TIMEOUT, DEFAULT_SHUTDOWN_TIMEOUT);
+            deadline = maxCrawlDuration > 0 ? System.currentTimeMillis() + maxCrawlDuration : Long.MAX_VALUE;
+            final int shardCount = getIntValue(paramMap, SHARD_COUNT, 1);
+            shard = shardCount > 1
+                    ? new KeyShard(getIntValue(paramMap, SHARD_INDEX, 0), shardCount, getIntValue(paramMap, SHARD_PREFIX_DEPTH, 0))
+                    : null;
+            if (shard != null && events) {
+                // every node would read and commit the same events
+                throw new DataStoreException("Parameter '" + SHARD_COUNT + "' cannot be more than 1 with " + EVENT_SOURCE + ".");
+            }
+            checkDeleteOldDocs(paramMap);
+            // the last, so that no thread pool is left behind by an invalid parameter
+            extractor = new ContentExtractor(getIntValue(paramMap, EXTRACT_CONCURRENCY, Runtime.getRuntime().availableProcessors()),
+                    getLongValue(paramMap, EXTRACT_TIMEOUT, DEFAULT_EXTRACT_TIMEOUT),
+                    ContentExtractor.parseLimits(paramMap.getAsString(EXTRACT_TIMEOUTS)), getLongValue(paramMap, EXTRACT_MAX_SIZE, 0L),
+                    ContentExtractor.parseLimits(paramMap.getAsString(EXTRACT_MAX_SIZES)));
+        }
+
+        /**
+         * Fess deletes the documents of the data config that a crawl did not store, unless {@code delete_old_docs} is
+         * {@code false}. It reads the parameter from the data config itself, so it has to be set there for the crawls
+         * that do not store all objects.
+         */
+        private void checkDeleteOldDocs(final DataStoreParams paramMap) {
+            // compared as Fess does
+            if (Constants.FALSE.equals(paramMap.getAsString(DELETE_OLD_DOCS))) {
+                return;
+            }
+            final List<String> names = new ArrayList<>();
+            if (StringUtil.isNotBlank(paramMap.getAsString(EVENT_SOURCE))) {
+                // only the objects in the events are stored
+                names.add(EVENT_SOURCE);
+            }
+            if (incremental) {
+                // unchanged objects are not stored again
+                names.add(INCREMENTAL);
+            }
+            if (checkpoint) {
+                // the objects stored by the previous run are not stored again
+                names.add(CHECKPOINT);
+            }
+            if (maxCrawlDuration > 0) {
+                // the objects not reached in time are left for the next run
+                names.add(MAX_CRAWL_DURATION);
+            }
+            if (shard != null) {
+                // the objects of the other shards are stored by the other nodes
+                names.add(SHARD_COUNT);
+            }
+            if (!names.isEmpty()) {
+                throw new DataStoreException(
+                        "Parameter '" + DELETE_OLD_DOCS + "' has to be false with " + String.join(", ", names) + ", or the documents "
+                                + "not stored by a crawl are deleted from the index.");
+            }
+        }
+
+        /**
+         * @return true if the crawl reached its maximum duration
+         */
+        boolean isExpired() {
+            return System.currentTimeMillis() >= deadline;
+        }
+
+        boolean acceptsAllMimeTypes() {
+            return Stream.of(supportedMimeTypes).anyMatch(p -> ".*".equals(p.pattern()));
         }
 
         private int getMaxKeys(final DataStoreParams paramMap) {
@@ -454,6 +1809,24 @@ public class AmazonS3DataStore extends AbstractDataStore {
             }
         }
 
+        private int getIntValue(final DataStoreParams paramMap, final String key, final int defaultValue) {
+            final String value = paramMap.getAsString(key);
+            try {
+                return StringUtil.isNotBlank(value) ? Integer.parseInt(value.trim()) : defaultValue;
+            } catch (final NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
+        private long getLongValue(final DataStoreParams paramMap, final String key, final long defaultValue) {
+            final String value = paramMap.getAsString(key);
+            try {
+                return StringUtil.isNotBlank(value) ? Long.parseLong(value.trim()) : defaultValue;
+            } catch (final NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
         private long getMaxSize(final DataStoreParams paramMap) {
             final String value = paramMap.getAsString(MAX_SIZE);
             try {
@@ -467,9 +1840,14 @@ public class AmazonS3DataStore extends AbstractDataStore {
             return Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(IGNORE_ERROR, Constants.TRUE));
         }
 
-        private String[] getSupportedMimeTypes(final DataStoreParams paramMap) {
+        private Pattern[] getSupportedMimeTypes(final DataStoreParams paramMap) {
             return StreamUtil.split(paramMap.getAsString(SUPPORTED_MIMETYPES, ".*"), ",")
-                    .get(stream -> stream.map(String::trim).toArray(String[]::new));
+                    .get(stream -> stream.map(String::trim).filter(StringUtil::isNotBlank).map(Pattern::compile).toArray(Pattern[]::new));
+        }
+
+        private Set<String> getExcludedStorageClasses(final DataStoreParams paramMap) {
+            return StreamUtil.split(paramMap.getAsString(EXCLUDED_STORAGE_CLASSES, DEFAULT_EXCLUDED_STORAGE_CLASSES), ",")
+                    .get(stream -> stream.map(String::trim).filter(StringUtil::isNotBlank).collect(Collectors.toSet()));
         }
 
         private UrlFilter getUrlFilter(final DataStoreParams paramMap) {
@@ -496,8 +1874,18 @@ public class AmazonS3DataStore extends AbstractDataStore {
 
         @Override
         public String toString() {
-            return "{maxSize=" + maxSize + ",ignoreError=" + ignoreError + ",supportedMimeTypes=" + Arrays.toString(supportedMimeTypes)
-                    + ",urlFilter=" + urlFilter + "}";
+            return "{maxKeys=" + maxKeys + ",listingParallelism=" + listingParallelism + ",listingPrefixDepth=" + listingPrefixDepth
+                    + ",virtualThreads=" + virtualThreads + ",fetchThreads=" + fetchThreads + ",fetchQueueSize=" + fetchQueueSize
+                    + ",extractThreads=" + extractThreads + ",extractQueueSize=" + extractQueueSize + ",storeThreads=" + storeThreads
+                    + ",storeQueueSize=" + storeQueueSize + ",metricsLogInterval=" + metricsLogInterval + ",maxInFlight=" + maxInFlight
+                    + ",maxSize=" + maxSize + ",ignoreError=" + ignoreError + ",supportedMimeTypes=" + Arrays.toString(supportedMimeTypes)
+                    + ",excludedStorageClasses=" + excludedStorageClasses + ",urlFilter=" + urlFilter + ",includePattern=" + includePattern
+                    + ",excludePattern=" + excludePattern + ",prefixes=" + prefixes + ",incremental=" + incremental + ",manifestDir="
+                    + manifestDir + ",manifestRunSize=" + manifestRunSize + ",deleteRemovedObjects=" + deleteRemovedObjects
+                    + ",deleteBatchSize=" + deleteBatchSize + ",multipartThreads=" + multipartThreads + ",contentBudget=" + contentBudget
+                    + ",extractor=" + extractor + ",sniffMimeType=" + sniffMimeType + ",sniffSize=" + sniffSize + ",checkpoint="
+                    + checkpoint + ",checkpointInterval=" + checkpointInterval + ",maxCrawlDuration=" + maxCrawlDuration
+                    + ",shutdownTimeout=" + shutdownTimeout + ",shard=" + shard + "}";
         }
     }
 
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+
+/**
+ * Limits the requests running at once for each partition of the key space, and adapts the limits to the responses.
+ * <p>
+ * A partition is a kind of request to the first level of keys of a bucket, because S3 scales its request rates by prefix.
+ * A limit grows by one for each window of requests answered in about the lowest latency seen, and shrinks by a tenth
+ * when the latency rises as requests queue up. A throttling response halves the limit, once per latency, so that
+ * the retries of the same burst do not cut it again.
+ */
+public class ConcurrencyLimiter {
+
+    private static final Logger logger = LogManager.getLogger(ConcurrencyLimiter.class);
+
+    // the ratio of the smoothed latency to the lowest latency above which requests are assumed to queue up
+    protected static final double LATENCY_TOLERANCE = 2.0;
+    protected static final double LATENCY_BACKOFF = 0.9;
+    protected static final double THROTTLE_BACKOFF = 0.5;
+    protected static final double SMOOTHING = 0.1;
+    // the lowest latency rises by this ratio of the difference on each sample, so that it follows a slower network
+    protected static final double BASELINE_DRIFT = 0.001;
+
+    protected final int minLimit;
+    protected final int initialLimit;
+    protected final int maxLimit;
+    protected final Map<String, Limit> limits = new ConcurrentHashMap<>();
+
+    public ConcurrencyLimiter(final int minLimit, final int initialLimit, final int maxLimit) {
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.initialLimit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+    }
+
+    /**
+     * @param key the key or the prefix of the request, or null for the whole bucket
+     * @return the partition of the request
+     */
+    public static String getPartition(final String type, final String bucket, final String key) {
+        if (key == null) {
+            return type + " " + bucket + "/";
+        }
+        final int pos = key.indexOf('/');
+        return type + " " + bucket + "/" + (pos < 0 ? "" : key.substring(0, pos + 1));
+    }
+
+    /**
+     * Waits until a request of the partition fits in its limit.
+     *
+     * @return the permit to release when the request completes
+     */
+    public Permit acquire(final String partition) {
+        final Limit limit = limits.computeIfAbsent(partition, Limit::new);
+        limit.acquire();
+        return new Permit(limit);
+    }
+
+    /**
+     * Shrinks the limit of the partition after a throttling response.
+     */
+    public void throttled(final String partition) {
+        limits.computeIfAbsent(partition, Limit::new).throttled();
+    }
+
+    /**
+     * @return the current limit of the partition
+     */
+    public int getLimit(final String partition) {
+        final Limit limit = limits.get(partition);
+        return limit != null ? limit.getLimit() : initialLimit;
+    }
+
+    @Override
+    public String toString() {
+        final Map<String, Integer> values = new TreeMap<>();
+        limits.forEach((partition, limit) -> values.put(partition, limit.getLimit()));
+        return "ConcurrencyLimiter " + values;
+    }
+
+    /**
+     * A slot of a request. The latency is recorded when the response arrives, and the slot is released when its body is read.
+     * While the SDK waits to retry a throttled attempt, the slot is suspended so that the wait does not hold it.
+     */
+    public static class Permit {
+        protected final Limit limit;
+        protected boolean held = true;
+        protected boolean released;
+
+        Permit(final Limit limit) {
+            this.limit = limit;
+        }
+
+        public void succeeded(final long latencyNanos) {
+            limit.succeeded(latencyNanos);
+        }
+
+        /**
+         * Gives the slot back until {@link #resume()}.
+         */
+        public synchronized void suspend() {
+            if (held) {
+                held = false;
+                limit.release();
+            }
+        }
+
+        /**
+         * Waits for a slot again after {@link #suspend()}.
+         */
+        public void resume() {
+            synchronized (this) {
+                if (held || released) {
+                    return;
+                }
+            }
+            limit.acquire();
+            synchronized (this) {
+                if (released) {
+                    limit.release();
+                } else {
+                    held = true;
+                }
+            }
+        }
+
+        public synchronized void release() {
+            released = true;
+            if (held) {
+                held = false;
+                limit.release();
+            }
+        }
+    }
+
+    protected class Limit {
+        protected final String partition;
+        protected final ReentrantLock lock = new ReentrantLock();
+        protected final Condition released = lock.newCondition();
+        protected double limit = initialLimit;
+        protected int inFlight;
+        protected long baselineNanos;
+        protected double smoothedNanos;
+        protected long lastDecrease;
+
+        Limit(final String partition) {
+            this.partition = partition;
+        }
+
+        void acquire() {
+            lock.lock();
+            try {
+                while (inFlight >= (int) limit) {
+                    released.await();
+                }
+                inFlight++;
+            } catch (final InterruptedException e) {
+                throw new InterruptedRuntimeException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inFlight--;
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void succeeded(final long latencyNanos) {
+            lock.lock();
+            try {
+                if (baselineNanos == 0 || latencyNanos < baselineNanos) {
+                    baselineNanos = Math.max(latencyNanos, 1);
+                } else {
+                    baselineNanos += (long) ((latencyNanos - baselineNanos) * BASELINE_DRIFT);
+                }
+                smoothedNanos = smoothedNanos == 0 ? latencyNanos : smoothedNanos + (latencyNanos - smoothedNanos) * SMOOTHING;
+                if (smoothedNanos > baselineNanos * LATENCY_TOLERANCE) {
+                    decrease(LATENCY_BACKOFF, "latency " + (long) smoothedNanos / 1000 + "us > " + baselineNanos / 1000 + "us");
+                } else if (inFlight >= (int) limit && limit < maxLimit) {
+                    // the limit is used up and the latency is flat
+                    final int previous = (int) limit;
+                    limit = Math.min(limit + 1 / limit, maxLimit);
+                    if (logger.isDebugEnabled() && (int) limit > previous) {
+                        logger.debug("Increased the concurrency of {} to {}.", partition, (int) limit);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void throttled() {
+            lock.lock();
+            try {
+                decrease(THROTTLE_BACKOFF, "throttled");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        protected void decrease(final double backoff, final String reason) {
+            final long now = System.nanoTime();
+            if (lastDecrease != 0 && now - lastDecrease < smoothedNanos) {
+                return;
+            }
+            lastDecrease = now;
+            final int previous = (int) limit;
+            limit = Math.max(limit * backoff, minLimit);
+            if (logger.isDebugEnabled() && (int) limit < previous) {
+                logger.debug("Decreased the concurrency of {} to {}: {}", partition, (int) limit, reason);
+            }
+        }
+
+        int getLimit() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
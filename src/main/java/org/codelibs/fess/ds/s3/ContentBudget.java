@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+
+/**
+ * Limits the bytes of downloaded content held in memory and in temporary files by all objects of a crawl.
+ * <p>
+ * A download reserves the size of its content before it starts and waits while the reservation does not fit.
+ * A reservation larger than a whole budget is admitted when nothing else is reserved, so that it does not wait forever.
+ * A limit of zero or less means no limit.
+ */
+public class ContentBudget {
+
+    private static final Logger logger = LogManager.getLogger(ContentBudget.class);
+
+    protected final long memoryLimit;
+    protected final long diskLimit;
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition released = lock.newCondition();
+    protected long memoryUsed;
+    protected long diskUsed;
+
+    public ContentBudget(final long memoryLimit, final long diskLimit) {
+        this.memoryLimit = memoryLimit;
+        this.diskLimit = diskLimit;
+    }
+
+    /**
+     * Waits until the bytes fit in the budgets and reserves them.
+     *
+     * @return the reservation to release when the content is deleted
+     */
+    public Reservation reserve(final long memory, final long disk) {
+        lock.lock();
+        try {
+            boolean waited = false;
+            while (!fits(memoryUsed, memory, memoryLimit) || !fits(diskUsed, disk, diskLimit)) {
+                if (!waited && logger.isDebugEnabled()) {
+                    logger.debug("Waiting for {} bytes of memory and {} bytes of disk: {}", memory, disk, this);
+                }
+                waited = true;
+                released.await();
+            }
+            memoryUsed += memory;
+            diskUsed += disk;
+            return new Reservation(memory, disk);
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(final Reservation reservation) {
+        if (reservation == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            memoryUsed -= reservation.memory;
+            diskUsed -= reservation.disk;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected boolean fits(final long used, final long size, final long limit) {
+        return limit <= 0 || size == 0 || used == 0 || used + size <= limit;
+    }
+
+    public long getMemoryUsed() {
+        lock.lock();
+        try {
+            return memoryUsed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDiskUsed() {
+        lock.lock();
+        try {
+            return diskUsed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ContentBudget [memory=" + getMemoryUsed() + "/" + memoryLimit + ", disk=" + getDiskUsed() + "/" + diskLimit + "]";
+    }
+
+    /**
+     * The bytes reserved for the content of one object.
+     */
+    public static class Reservation {
+        final long memory;
+        final long disk;
+
+        Reservation(final long memory, final long disk) {
+            this.memory = memory;
+            this.disk = disk;
+        }
+
+        @Override
+        public String toString() {
+            return "Reservation [memory=" + memory + ", disk=" + disk + "]";
+        }
+    }
+}
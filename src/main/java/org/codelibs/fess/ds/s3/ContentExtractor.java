@@ -0,0 +1,284 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.crawler.exception.ExecutionTimeoutException;
+import org.codelibs.fess.crawler.exception.MaxLengthExceededException;
+import org.codelibs.fess.exception.DataStoreException;
+
+/**
+ * Runs the text extraction of object contents on its own threads, with a time limit and a size limit by mimetype.
+ * <p>
+ * As many extractions run at once as there are permits, which is the number of CPUs by default. The calling thread
+ * waits for its extraction up to the time limit of the mimetype. An extraction that runs longer is cancelled: its
+ * thread is interrupted and its input is closed, so that a parser reading the input fails. A parser that ignores both
+ * keeps its thread until it returns, but its permit is given back so that the other extractions go on.
+ * <p>
+ * A limit is looked up by the mimetype, then by its type with {@code /*}, and then the default applies.
+ * A limit of zero or less means no limit.
+ */
+public class ContentExtractor implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(ContentExtractor.class);
+
+    protected final int concurrency;
+    protected final Semaphore permits;
+    protected final ExecutorService executor;
+    protected final long defaultTimeout;
+    protected final Map<String, Long> timeouts;
+    protected final long defaultMaxSize;
+    protected final Map<String, Long> maxSizes;
+    // the cancelled extractions whose threads have not returned
+    protected final AtomicInteger runaways = new AtomicInteger();
+
+    /**
+     * @param concurrency the number of extractions running at once
+     * @param defaultTimeout the time limit in milliseconds
+     * @param timeouts the time limits by mimetype
+     * @param defaultMaxSize the size limit in bytes of the content
+     * @param maxSizes the size limits by mimetype
+     */
+    public ContentExtractor(final int concurrency, final long defaultTimeout, final Map<String, Long> timeouts, final long defaultMaxSize,
+            final Map<String, Long> maxSizes) {
+        this.concurrency = Math.max(concurrency, 1);
+        this.defaultTimeout = defaultTimeout;
+        this.timeouts = timeouts;
+        this.defaultMaxSize = defaultMaxSize;
+        this.maxSizes = maxSizes;
+        permits = new Semaphore(this.concurrency);
+        // threads are started on demand, and a cancelled extraction keeps its thread until it returns
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "s3-extractor-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Parses limits by mimetype such as {@code application/pdf:60000,text/*:10000}.
+     *
+     * @return the limits by mimetype
+     */
+    public static Map<String, Long> parseLimits(final String value) {
+        if (StringUtil.isBlank(value)) {
+            return Collections.emptyMap();
+        }
+        final Map<String, Long> limits = new HashMap<>();
+        for (final String entry : value.split(",")) {
+            if (StringUtil.isBlank(entry)) {
+                continue;
+            }
+            final int pos = entry.lastIndexOf(':');
+            if (pos <= 0) {
+                throw new DataStoreException("Invalid limit by mimetype: " + entry.trim());
+            }
+            try {
+                limits.put(entry.substring(0, pos).trim().toLowerCase(), Long.parseLong(entry.substring(pos + 1).trim()));
+            } catch (final NumberFormatException e) {
+                throw new DataStoreException("Invalid limit by mimetype: " + entry.trim(), e);
+            }
+        }
+        return limits;
+    }
+
+    /**
+     * Extracts the text of the content on an extraction thread.
+     *
+     * @param mimeType the mimetype of the content, or null
+     * @param size the size of the content in bytes
+     * @param in the content, which is closed if the extraction is cancelled
+     * @param extraction the extraction reading the content
+     * @return the result of the extraction
+     * @throws MaxLengthExceededException if the content is larger than the size limit of the mimetype
+     * @throws ExecutionTimeoutException if the extraction did not finish within the time limit of the mimetype
+     */
+    public <T> T extract(final String mimeType, final long size, final InputStream in, final Function<InputStream, T> extraction) {
+        final long maxSize = getLimit(maxSizes, mimeType, defaultMaxSize);
+        if (maxSize > 0 && size > maxSize) {
+            throw new MaxLengthExceededException("The content of " + mimeType + " is larger than " + maxSize + " bytes: " + size);
+        }
+        final long timeout = getLimit(timeouts, mimeType, defaultTimeout);
+        try {
+            permits.acquire();
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        }
+        final Extraction<T> task = new Extraction<>(in, extraction);
+        final Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (final RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        try {
+            return timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+        } catch (final TimeoutException e) {
+            cancel(task);
+            throw new ExecutionTimeoutException("The extraction of " + mimeType + " did not finish in " + timeout + " ms.", e);
+        } catch (final InterruptedException e) {
+            cancel(task);
+            throw new InterruptedRuntimeException(e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof final RuntimeException re) {
+                throw re;
+            }
+            if (cause instanceof final Error error) {
+                throw error;
+            }
+            throw new DataStoreException("Failed to extract the content of " + mimeType, cause);
+        }
+    }
+
+    protected void cancel(final Extraction<?> task) {
+        if (!task.cancel()) {
+            // the extraction returned in the meantime
+            return;
+        }
+        try {
+            task.in.close();
+        } catch (final IOException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Failed to close the content of a cancelled extraction.", e);
+            }
+        }
+        logger.warn("Cancelled an extraction. {} cancelled extractions are still running.", runaways.get());
+    }
+
+    /**
+     * @return the limit of the mimetype, of its type, or the default
+     */
+    protected static long getLimit(final Map<String, Long> limits, final String mimeType, final long defaultValue) {
+        if (mimeType == null || limits.isEmpty()) {
+            return defaultValue;
+        }
+        final String type = mimeType.toLowerCase();
+        Long limit = limits.get(type);
+        if (limit == null) {
+            final int pos = type.indexOf('/');
+            limit = limits.get((pos < 0 ? type : type.substring(0, pos)) + "/*");
+        }
+        return limit != null ? limit : defaultValue;
+    }
+
+    public long getTimeout(final String mimeType) {
+        return getLimit(timeouts, mimeType, defaultTimeout);
+    }
+
+    public long getMaxSize(final String mimeType) {
+        return getLimit(maxSizes, mimeType, defaultMaxSize);
+    }
+
+    /**
+     * @return the number of cancelled extractions whose threads are still running
+     */
+    public int getRunaways() {
+        return runaways.get();
+    }
+
+    /**
+     * Interrupts the running extractions.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * An extraction that holds a permit until it returns or is cancelled.
+     */
+    protected class Extraction<T> implements Callable<T> {
+        final InputStream in;
+        final Function<InputStream, T> function;
+        // the thread running the extraction, or null
+        Thread thread;
+        boolean finished;
+        boolean cancelled;
+
+        Extraction(final InputStream in, final Function<InputStream, T> function) {
+            this.in = in;
+            this.function = function;
+        }
+
+        @Override
+        public T call() {
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+            try {
+                return function.apply(in);
+            } finally {
+                synchronized (this) {
+                    // the pool clears the interrupt before the thread runs another task
+                    thread = null;
+                    finished = true;
+                    if (cancelled) {
+                        runaways.decrementAndGet();
+                    } else {
+                        permits.release();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Gives back the permit and interrupts the thread.
+         *
+         * @return false if the extraction already returned
+         */
+        synchronized boolean cancel() {
+            if (finished) {
+                return false;
+            }
+            cancelled = true;
+            runaways.incrementAndGet();
+            permits.release();
+            if (thread != null) {
+                thread.interrupt();
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ContentExtractor [concurrency=" + concurrency + ", running=" + (concurrency - permits.availablePermits()) + ", runaways="
+                + runaways.get() + ", timeout=" + defaultTimeout + ", timeouts=" + timeouts + ", maxSize=" + defaultMaxSize
+                + ", maxSizes=" + maxSizes + "]";
+    }
+}
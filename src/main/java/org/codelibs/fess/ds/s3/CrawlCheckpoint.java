@@ -0,0 +1,307 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.exception.DataStoreException;
+
+/**
+ * Keeps the progress of the listings of each bucket in a directory, so that an interrupted crawl resumes where it stopped.
+ * <p>
+ * A listing is a paginated ListObjectsV2 call of a prefix, or a delimiter call of a prefix when the listing is parallel.
+ * Its keys arrive in key order, but their objects finish in any order. The checkpoint of a listing is the last key
+ * up to which all objects have finished, and a listing whose objects have all finished is complete. A crawl that
+ * resumes lists from the key after the checkpoint and skips complete listings.
+ */
+public class CrawlCheckpoint implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(CrawlCheckpoint.class);
+
+    protected static final String EXTENSION = ".checkpoint";
+    protected static final String AFTER = "after.";
+    protected static final String COMPLETED = "completed.";
+    protected static final String LIST = "list:";
+    protected static final String LEVEL = "level:";
+
+    protected final Path directory;
+    protected final Map<String, Map<String, Listing>> buckets = new ConcurrentHashMap<>();
+    // the listed objects that have not finished, by bucket and key
+    protected final Map<String, Item> pending = new ConcurrentHashMap<>();
+    protected ScheduledExecutorService timer;
+
+    public CrawlCheckpoint(final Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Saves the checkpoints at a fixed interval.
+     *
+     * @param interval the interval in milliseconds, or 0 or less to save only when the crawl stops
+     */
+    public synchronized void start(final long interval) {
+        if (interval <= 0 || timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "fess-ds-s3-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                save();
+            } catch (final RuntimeException e) {
+                // the timer stops if an exception is thrown
+                logger.warn("Failed to save the checkpoints in {}.", directory, e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if a previous crawl left a checkpoint of the bucket
+     */
+    public boolean isResumed(final String bucket) {
+        return !getBucket(bucket).isEmpty();
+    }
+
+    /**
+     * @param prefix the prefix of the listing, or null for the whole bucket
+     * @param delimited true for a delimiter call, whose objects are listed again when the crawl resumes
+     * @return the progress of the listing
+     */
+    public Listing open(final String bucket, final String prefix, final boolean delimited) {
+        final String id = (delimited ? LEVEL : LIST) + (prefix != null ? prefix : "");
+        return getBucket(bucket).computeIfAbsent(id, k -> new Listing(bucket, null, false));
+    }
+
+    /**
+     * Marks the object as finished, whether it was indexed, skipped or failed.
+     */
+    public void done(final String bucket, final String key) {
+        final Item item = pending.remove(bucket + "/" + key);
+        if (item != null) {
+            item.listing.done(item);
+        }
+    }
+
+    /**
+     * Writes the checkpoints of the buckets, each to a temporary file that replaces the previous one.
+     */
+    public synchronized void save() {
+        for (final Map.Entry<String, Map<String, Listing>> entry : buckets.entrySet()) {
+            final Properties properties = new Properties();
+            for (final Map.Entry<String, Listing> listing : entry.getValue().entrySet()) {
+                listing.getValue().store(listing.getKey(), properties);
+            }
+            final Path path = getPath(entry.getKey());
+            try {
+                Files.createDirectories(directory);
+                final Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+                try {
+                    try (OutputStream out = Files.newOutputStream(temp)) {
+                        properties.store(out, null);
+                    }
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (final IOException e) {
+                throw new DataStoreException("Failed to save the checkpoint of " + entry.getKey(), e);
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Saved {}", this);
+        }
+    }
+
+    /**
+     * Deletes the checkpoints of the buckets, so that the next crawl starts from the first key.
+     */
+    public synchronized void clear() {
+        close();
+        for (final String bucket : buckets.keySet()) {
+            try {
+                Files.deleteIfExists(getPath(bucket));
+            } catch (final IOException e) {
+                throw new DataStoreException("Failed to delete the checkpoint of " + bucket, e);
+            }
+        }
+    }
+
+    /**
+     * Stops the timer without saving the checkpoints.
+     */
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    public Path getPath(final String bucket) {
+        return directory.resolve(bucket + EXTENSION);
+    }
+
+    protected Map<String, Listing> getBucket(final String bucket) {
+        return buckets.computeIfAbsent(bucket, name -> {
+            final Map<String, Listing> listings = new ConcurrentHashMap<>();
+            final Path path = getPath(name);
+            if (!Files.exists(path)) {
+                return listings;
+            }
+            final Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            } catch (final IOException e) {
+                logger.warn("Failed to read {}. All objects in {} will be listed.", path, name, e);
+                return listings;
+            }
+            for (final String key : properties.stringPropertyNames()) {
+                if (key.startsWith(COMPLETED)) {
+                    listings.put(key.substring(COMPLETED.length()), new Listing(name, null, true));
+                } else if (key.startsWith(AFTER)) {
+                    listings.putIfAbsent(key.substring(AFTER.length()), new Listing(name, properties.getProperty(key), false));
+                }
+            }
+            logger.info("Resuming {} listings of {} from {}", listings.size(), name, path);
+            return listings;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "CrawlCheckpoint [directory=" + directory + ", buckets=" + buckets.keySet() + ", pending=" + pending.size() + "]";
+    }
+
+    /**
+     * The progress of one listing.
+     */
+    public class Listing {
+        protected final String bucket;
+        protected final Deque<Item> items = new ArrayDeque<>();
+        // the last key up to which all objects have finished
+        protected String lastKey;
+        protected boolean completed;
+        protected boolean finished;
+
+        Listing(final String bucket, final String lastKey, final boolean completed) {
+            this.bucket = bucket;
+            this.lastKey = lastKey;
+            this.completed = completed;
+        }
+
+        /**
+         * @return the key to list after, or null to list from the first key
+         */
+        public synchronized String getStartAfter() {
+            return lastKey;
+        }
+
+        /**
+         * @return true if all objects of the listing finished in a previous crawl
+         */
+        public synchronized boolean isCompleted() {
+            return completed;
+        }
+
+        /**
+         * Adds the object to the listing. The object has to be passed to {@link CrawlCheckpoint#done(String, String)}
+         * when it finishes.
+         *
+         * @return false if the object finished in a previous crawl
+         */
+        public synchronized boolean listed(final String key) {
+            if (completed || lastKey != null && compare(key, lastKey) <= 0) {
+                return false;
+            }
+            final Item item = new Item(this, key);
+            items.add(item);
+            pending.put(bucket + "/" + key, item);
+            return true;
+        }
+
+        /**
+         * Marks the end of the listing. It completes when all its objects have finished.
+         */
+        public synchronized void finish() {
+            finished = true;
+            advance();
+        }
+
+        synchronized void done(final Item item) {
+            item.done = true;
+            advance();
+        }
+
+        protected void advance() {
+            while (!items.isEmpty() && items.peek().done) {
+                lastKey = items.poll().key;
+            }
+            if (finished && items.isEmpty()) {
+                completed = true;
+            }
+        }
+
+        synchronized void store(final String id, final Properties properties) {
+            if (completed) {
+                properties.setProperty(COMPLETED + id, Boolean.TRUE.toString());
+            } else if (lastKey != null) {
+                properties.setProperty(AFTER + id, lastKey);
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Listing [lastKey=" + lastKey + ", completed=" + completed + ", pending=" + items.size() + "]";
+        }
+    }
+
+    /**
+     * Compares the keys in the order of ListObjectsV2, which is the order of their UTF-8 bytes.
+     */
+    protected static int compare(final String key1, final String key2) {
+        return ObjectManifest.KEY_COMPARATOR.compare(key1.getBytes(StandardCharsets.UTF_8), key2.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected static class Item {
+        final Listing listing;
+        final String key;
+        boolean done;
+
+        Item(final Listing listing, final String key) {
+            this.listing = listing;
+            this.key = key;
+        }
+    }
+}
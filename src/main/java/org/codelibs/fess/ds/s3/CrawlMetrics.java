@@ -0,0 +1,475 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.crawler.exception.ExecutionTimeoutException;
+
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+/**
+ * Counters and latency histograms of the stages of a crawl.
+ * <p>
+ * The stages record their latencies from any thread without locking. The metrics can be registered with
+ * the platform MBean server and summarized in the log at a fixed interval; the summary is logged once more
+ * when the crawl ends.
+ */
+public class CrawlMetrics implements CrawlMetricsMXBean, AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(CrawlMetrics.class);
+
+    protected static final String DOMAIN = "org.codelibs.fess.ds.s3";
+    protected static final String UNKNOWN_MIMETYPE = "unknown";
+    // the number of mimetypes in the summary
+    protected static final int SUMMARY_MIMETYPES = 5;
+
+    /**
+     * The stages of a crawl. GET and HEAD are the time to the response headers, and TRANSFER is the time to read the body.
+     */
+    public enum Stage {
+        LIST, HEAD, GET, TRANSFER, SNIFF, MIMETYPE, EXTRACT, SCRIPT, STORE
+    }
+
+    protected final Timer[] timers = new Timer[Stage.values().length];
+    // the extraction latencies by mimetype
+    protected final Map<String, Timer> extractTimers = new ConcurrentHashMap<>();
+    protected final LongAdder timedOutExtractions = new LongAdder();
+    protected final LongAdder indexedObjects = new LongAdder();
+    protected final LongAdder discardedObjects = new LongAdder();
+    protected final LongAdder failedObjects = new LongAdder();
+    protected final LongAdder throttledRequests = new LongAdder();
+    protected final LongAdder downloadedBytes = new LongAdder();
+    protected final long startTime = System.nanoTime();
+    protected volatile CrawlPipeline pipeline;
+    protected volatile RequestBudget requestBudget;
+    protected volatile ContentExtractor contentExtractor;
+    protected ObjectName objectName;
+    protected ScheduledExecutorService reporter;
+    // the values of the previous summary, for the rates in the interval
+    protected long lastReportTime = startTime;
+    protected long lastIndexedObjects;
+    protected long lastDownloadedBytes;
+
+    public CrawlMetrics() {
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new Timer();
+        }
+    }
+
+    /**
+     * Records the time since the start of a successful stage.
+     *
+     * @param startNanos the value of {@link System#nanoTime()} when the stage started
+     */
+    public void record(final Stage stage, final long startNanos) {
+        timers[stage.ordinal()].record(System.nanoTime() - startNanos, false);
+    }
+
+    /**
+     * Records the time since the start of a failed stage, and counts the error if it is a throttling error.
+     */
+    public void recordError(final Stage stage, final long startNanos, final Throwable t) {
+        timers[stage.ordinal()].record(System.nanoTime() - startNanos, true);
+        if (isThrottlingError(t)) {
+            throttledRequests.increment();
+        }
+    }
+
+    /**
+     * Records the time since the start of the extraction of a mimetype.
+     *
+     * @param mimeType the mimetype of the content, or null
+     * @param t the exception of a failed extraction, or null
+     */
+    public void recordExtraction(final String mimeType, final long startNanos, final Throwable t) {
+        extractTimers.computeIfAbsent(mimeType != null ? mimeType : UNKNOWN_MIMETYPE, k -> new Timer())
+                .record(System.nanoTime() - startNanos, t != null);
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ExecutionTimeoutException) {
+                timedOutExtractions.increment();
+                break;
+            }
+        }
+    }
+
+    public void addDownloadedBytes(final long bytes) {
+        if (bytes > 0) {
+            downloadedBytes.add(bytes);
+        }
+    }
+
+    public void objectIndexed() {
+        indexedObjects.increment();
+    }
+
+    public void objectDiscarded() {
+        discardedObjects.increment();
+    }
+
+    public void objectFailed() {
+        failedObjects.increment();
+    }
+
+    /**
+     * @param pipeline the pipeline whose queues are reported
+     */
+    public void setPipeline(final CrawlPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * @param requestBudget the budget whose requests are reported
+     */
+    public void setRequestBudget(final RequestBudget requestBudget) {
+        this.requestBudget = requestBudget;
+    }
+
+    /**
+     * @param contentExtractor the extractor whose cancelled extractions are reported
+     */
+    public void setContentExtractor(final ContentExtractor contentExtractor) {
+        this.contentExtractor = contentExtractor;
+    }
+
+    protected static boolean isThrottlingError(final Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof final SdkServiceException e) {
+                return e.isThrottlingException() || e.statusCode() == 503;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. A crawl with the same name that is still running keeps its registration.
+     */
+    public synchronized void register(final String name) {
+        try {
+            final ObjectName objectName = new ObjectName(DOMAIN + ":type=CrawlMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (final JMException | RuntimeException e) {
+            logger.warn("Failed to register the metrics of {}. {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Logs the summary at a fixed interval.
+     *
+     * @param interval the interval in milliseconds, or 0 or less to log only at the end
+     */
+    public synchronized void startReporter(final long interval) {
+        if (interval <= 0 || reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "fess-ds-s3-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> logger.info("S3 crawl metrics: {}", getSummary()), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the totals since the start, the rates in the interval since the previous summary, and the stages that ran
+     */
+    public synchronized String getSummary() {
+        final long now = System.nanoTime();
+        final long indexed = indexedObjects.sum();
+        final long bytes = downloadedBytes.sum();
+        final double seconds = Math.max(now - lastReportTime, 1L) / 1_000_000_000.0;
+        final StringBuilder buf = new StringBuilder();
+        buf.append("indexed=").append(indexed)
+                .append(String.format(" (%.1f/s)", (indexed - lastIndexedObjects) / seconds))
+                .append(", discarded=").append(discardedObjects.sum())
+                .append(", failed=").append(failedObjects.sum())
+                .append(", throttled=").append(throttledRequests.sum())
+                .append(", bytes=").append(bytes)
+                .append(String.format(" (%.1f KB/s)", (bytes - lastDownloadedBytes) / seconds / 1024))
+                .append(", queued=").append(getFetchQueueSize()).append('/').append(getExtractQueueSize()).append('/')
+                .append(getStoreQueueSize())
+                .append(", inFlight=").append(getInFlightRequests())
+                .append(", requests=").append(getRequests());
+        final long remaining = getRemainingRequests();
+        if (remaining >= 0) {
+            buf.append(" (").append(remaining).append(" left)");
+        }
+        getStages().forEach((name, stats) -> buf.append(", ").append(name).append('=').append(stats));
+        appendExtractions(buf);
+        lastReportTime = now;
+        lastIndexedObjects = indexed;
+        lastDownloadedBytes = bytes;
+        return buf.toString();
+    }
+
+    /**
+     * Appends the shares of the extraction time of the mimetypes that take the most of it, and the timeouts.
+     */
+    protected void appendExtractions(final StringBuilder buf) {
+        if (extractTimers.isEmpty()) {
+            return;
+        }
+        final long total = extractTimers.values().stream().mapToLong(timer -> timer.totalNanos.sum()).sum();
+        buf.append(", extractTime={");
+        int count = 0;
+        for (final Map.Entry<String, Timer> entry : getSortedExtractTimers().entrySet()) {
+            if (count == SUMMARY_MIMETYPES) {
+                buf.append(",...");
+                break;
+            }
+            if (count++ > 0) {
+                buf.append(',');
+            }
+            buf.append(entry.getKey()).append('=')
+                    .append(String.format("%.0f%%", total > 0 ? entry.getValue().totalNanos.sum() * 100.0 / total : 0.0));
+        }
+        buf.append('}');
+        final long timedOut = timedOutExtractions.sum();
+        if (timedOut > 0) {
+            buf.append(", extractTimeouts=").append(timedOut).append(" (").append(getRunawayExtractions()).append(" running)");
+        }
+    }
+
+    /**
+     * @return the extraction timers by mimetype, the one with the longest total time first
+     */
+    protected Map<String, Timer> getSortedExtractTimers() {
+        final Map<String, Timer> sorted = new LinkedHashMap<>();
+        extractTimers.entrySet()
+                .stream()
+                .sorted(Comparator.comparingLong((final Map.Entry<String, Timer> e) -> e.getValue().totalNanos.sum()).reversed())
+                .forEach(e -> sorted.put(e.getKey(), e.getValue()));
+        return sorted;
+    }
+
+    @Override
+    public long getIndexedObjects() {
+        return indexedObjects.sum();
+    }
+
+    @Override
+    public long getDiscardedObjects() {
+        return discardedObjects.sum();
+    }
+
+    @Override
+    public long getFailedObjects() {
+        return failedObjects.sum();
+    }
+
+    @Override
+    public long getThrottledRequests() {
+        return throttledRequests.sum();
+    }
+
+    @Override
+    public long getDownloadedBytes() {
+        return downloadedBytes.sum();
+    }
+
+    @Override
+    public double getObjectsPerSecond() {
+        return indexedObjects.sum() / getElapsedSeconds();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return downloadedBytes.sum() / getElapsedSeconds();
+    }
+
+    protected double getElapsedSeconds() {
+        return Math.max(System.nanoTime() - startTime, 1L) / 1_000_000_000.0;
+    }
+
+    @Override
+    public int getFetchQueueSize() {
+        final CrawlPipeline pipeline = this.pipeline;
+        return pipeline != null ? pipeline.getFetchQueueSize() : 0;
+    }
+
+    @Override
+    public int getExtractQueueSize() {
+        final CrawlPipeline pipeline = this.pipeline;
+        return pipeline != null ? pipeline.getExtractQueueSize() : 0;
+    }
+
+    @Override
+    public int getStoreQueueSize() {
+        final CrawlPipeline pipeline = this.pipeline;
+        return pipeline != null ? pipeline.getStoreQueueSize() : 0;
+    }
+
+    @Override
+    public int getInFlightRequests() {
+        final CrawlPipeline pipeline = this.pipeline;
+        return pipeline != null ? pipeline.getInFlightRequests() : 0;
+    }
+
+    @Override
+    public long getRequests() {
+        final RequestBudget requestBudget = this.requestBudget;
+        return requestBudget != null ? requestBudget.getRequests() : 0;
+    }
+
+    @Override
+    public long getRemainingRequests() {
+        final RequestBudget requestBudget = this.requestBudget;
+        return requestBudget != null ? requestBudget.getRemainingRequests() : -1;
+    }
+
+    @Override
+    public Map<String, StageStats> getStages() {
+        final Map<String, StageStats> stages = new LinkedHashMap<>();
+        for (final Stage stage : Stage.values()) {
+            final Timer timer = timers[stage.ordinal()];
+            if (timer.count.sum() > 0) {
+                stages.put(stage.name().toLowerCase(), timer.getStats());
+            }
+        }
+        return stages;
+    }
+
+    @Override
+    public Map<String, StageStats> getExtractions() {
+        final Map<String, StageStats> extractions = new LinkedHashMap<>();
+        getSortedExtractTimers().forEach((mimeType, timer) -> extractions.put(mimeType, timer.getStats()));
+        return extractions;
+    }
+
+    @Override
+    public long getTimedOutExtractions() {
+        return timedOutExtractions.sum();
+    }
+
+    @Override
+    public int getRunawayExtractions() {
+        final ContentExtractor contentExtractor = this.contentExtractor;
+        return contentExtractor != null ? contentExtractor.getRunaways() : 0;
+    }
+
+    public StageStats getStageStats(final Stage stage) {
+        return timers[stage.ordinal()].getStats();
+    }
+
+    /**
+     * Stops the reporter, logs the summary and unregisters the metrics.
+     */
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        logger.info("S3 crawl metrics: {}", getSummary());
+        if (objectName != null) {
+            try {
+                final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.unregisterMBean(objectName);
+            } catch (final JMException e) {
+                logger.warn("Failed to unregister {}. {}", objectName, e.getMessage());
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * A latency histogram with four buckets per power of two nanoseconds, so percentiles are accurate to 25%.
+     */
+    protected static class Timer {
+        static final int SUB_BUCKET_BITS = 2;
+        static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+
+        void record(final long nanos, final boolean error) {
+            final long value = Math.max(nanos, 0L);
+            count.increment();
+            if (error) {
+                errors.increment();
+            }
+            totalNanos.add(value);
+            maxNanos.accumulateAndGet(value, Math::max);
+            buckets.incrementAndGet(getIndex(value));
+        }
+
+        static int getIndex(final long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            final int log = 63 - Long.numberOfLeadingZeros(nanos);
+            final int sub = (int) (nanos >>> log - SUB_BUCKET_BITS) & SUB_BUCKETS - 1;
+            return (log - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * @return the largest value in the bucket
+         */
+        static long getUpperBound(final int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int log = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            final int sub = index % SUB_BUCKETS;
+            return (1L << log) + ((long) (sub + 1) << log - SUB_BUCKET_BITS) - 1;
+        }
+
+        long getPercentile(final double percentile) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long target = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return Math.min(getUpperBound(i), maxNanos.get());
+                }
+            }
+            return maxNanos.get();
+        }
+
+        StageStats getStats() {
+            final long n = count.sum();
+            return new StageStats(n, errors.sum(), n > 0 ? totalNanos.sum() / (double) n / 1_000_000 : 0,
+                    getPercentile(0.5) / 1_000_000.0, getPercentile(0.99) / 1_000_000.0, maxNanos.get() / 1_000_000.0);
+        }
+    }
+}
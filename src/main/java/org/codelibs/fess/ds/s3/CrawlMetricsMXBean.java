@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.util.Map;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * The metrics of a crawl, registered as {@code org.codelibs.fess.ds.s3:type=CrawlMetrics,name=<data config>}.
+ */
+public interface CrawlMetricsMXBean {
+
+    /**
+     * @return the number of objects passed to the index
+     */
+    long getIndexedObjects();
+
+    /**
+     * @return the number of objects skipped by the filters or mimetype checks
+     */
+    long getDiscardedObjects();
+
+    /**
+     * @return the number of objects that failed
+     */
+    long getFailedObjects();
+
+    /**
+     * @return the number of requests rejected with a throttling error
+     */
+    long getThrottledRequests();
+
+    long getDownloadedBytes();
+
+    double getObjectsPerSecond();
+
+    double getBytesPerSecond();
+
+    int getFetchQueueSize();
+
+    int getExtractQueueSize();
+
+    int getStoreQueueSize();
+
+    /**
+     * @return the number of non-blocking downloads in flight
+     */
+    int getInFlightRequests();
+
+    /**
+     * @return the number of requests sent to S3, without retries
+     */
+    long getRequests();
+
+    /**
+     * @return the number of requests left in the budget of the crawl, or -1 if the requests are not limited
+     */
+    long getRemainingRequests();
+
+    /**
+     * @return the latencies by stage
+     */
+    Map<String, StageStats> getStages();
+
+    /**
+     * @return the extraction latencies by mimetype, the mimetype with the longest total time first
+     */
+    Map<String, StageStats> getExtractions();
+
+    /**
+     * @return the number of extractions cancelled by their time limit
+     */
+    long getTimedOutExtractions();
+
+    /**
+     * @return the number of cancelled extractions whose threads are still running
+     */
+    int getRunawayExtractions();
+
+    /**
+     * The latencies of one stage since the crawl started.
+     */
+    class StageStats {
+        private final long count;
+        private final long errors;
+        private final double meanMillis;
+        private final double p50Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        @ConstructorParameters({ "count", "errors", "meanMillis", "p50Millis", "p99Millis", "maxMillis" })
+        public StageStats(final long count, final long errors, final double meanMillis, final double p50Millis, final double p99Millis,
+                final double maxMillis) {
+            this.count = count;
+            this.errors = errors;
+            this.meanMillis = meanMillis;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{count=%d,errors=%d,mean=%.1fms,p50=%.1fms,p99=%.1fms,max=%.1fms}", count, errors, meanMillis,
+                    p50Millis, p99Millis, maxMillis);
+        }
+    }
+}
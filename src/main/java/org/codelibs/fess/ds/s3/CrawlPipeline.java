@@ -0,0 +1,293 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+
+/**
+ * Runs the download, extraction and indexing of S3 objects as separate stages.
+ * Each stage has its own thread pool and bounded queue. When a queue is full, the submitting thread
+ * waits for free space instead of running the task itself, so a slow stage slows down the stages
+ * before it without blocking them on its own work.
+ */
+public class CrawlPipeline implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(CrawlPipeline.class);
+
+    protected final Stage fetchStage;
+    protected final Stage extractStage;
+    protected final Stage storeStage;
+    protected final int maxInFlight;
+    protected final Semaphore inFlight;
+    protected final ExecutorService completionExecutor;
+
+    public CrawlPipeline(final int fetchThreads, final int fetchQueueSize, final int extractThreads, final int extractQueueSize,
+            final int storeThreads, final int storeQueueSize) {
+        this(fetchThreads, fetchQueueSize, extractThreads, extractQueueSize, storeThreads, storeQueueSize, fetchThreads);
+    }
+
+    public CrawlPipeline(final int fetchThreads, final int fetchQueueSize, final int extractThreads, final int extractQueueSize,
+            final int storeThreads, final int storeQueueSize, final int maxInFlight) {
+        this(false, fetchThreads, fetchQueueSize, extractThreads, extractQueueSize, storeThreads, storeQueueSize, maxInFlight);
+    }
+
+    /**
+     * @param virtualThreads true to run each task on its own virtual thread. The thread counts then limit the number of
+     *            tasks running at once in each stage, and a submitter waits for a free slot instead of a queue.
+     */
+    public CrawlPipeline(final boolean virtualThreads, final int fetchThreads, final int fetchQueueSize, final int extractThreads,
+            final int extractQueueSize, final int storeThreads, final int storeQueueSize, final int maxInFlight) {
+        if (virtualThreads) {
+            fetchStage = new Stage("fetch", fetchThreads);
+            extractStage = new Stage("extract", extractThreads);
+            storeStage = new Stage("store", storeThreads);
+            completionExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("s3-complete-", 1).factory());
+        } else {
+            fetchStage = new Stage("fetch", fetchThreads, fetchQueueSize);
+            extractStage = new Stage("extract", extractThreads, extractQueueSize);
+            storeStage = new Stage("store", storeThreads, storeQueueSize);
+            // the number of pending completions is bounded by the in-flight permits
+            completionExecutor = Executors.newFixedThreadPool(fetchThreads, newThreadFactory("complete"));
+        }
+        this.maxInFlight = maxInFlight;
+        inFlight = new Semaphore(maxInFlight);
+    }
+
+    public void fetch(final Runnable task) {
+        fetchStage.execute(task);
+    }
+
+    /**
+     * Starts a non-blocking request once an in-flight permit is available, and runs the handler on a completion thread.
+     * The permit is released after the handler returns, so a handler waiting for a full extract queue also holds
+     * back new requests.
+     */
+    public <T> void fetchAsync(final Supplier<CompletableFuture<T>> request, final BiConsumer<T, Throwable> handler) {
+        try {
+            inFlight.acquire();
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        }
+        final CompletableFuture<T> future;
+        try {
+            future = request.get();
+        } catch (final RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        future.whenCompleteAsync((result, t) -> {
+            try {
+                handler.accept(result, t);
+            } finally {
+                inFlight.release();
+            }
+        }, completionExecutor);
+    }
+
+    public void extract(final Runnable task) {
+        extractStage.execute(task);
+    }
+
+    public void store(final Runnable task) {
+        storeStage.execute(task);
+    }
+
+    public int getFetchQueueSize() {
+        return fetchStage.getQueueSize();
+    }
+
+    public int getExtractQueueSize() {
+        return extractStage.getQueueSize();
+    }
+
+    public int getStoreQueueSize() {
+        return storeStage.getQueueSize();
+    }
+
+    /**
+     * @return the number of non-blocking requests in flight
+     */
+    public int getInFlightRequests() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Shuts down the stages in order, waiting for each stage to drain before the next one is shut down.
+     * The timeout covers all stages together.
+     *
+     * @return true if all stages terminated within the timeout
+     */
+    public boolean shutdown(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean terminated = fetchStage.shutdown(deadline);
+        if (inFlight.tryAcquire(maxInFlight, getRemainingNanos(deadline), TimeUnit.NANOSECONDS)) {
+            inFlight.release(maxInFlight);
+        } else {
+            logger.warn("{} requests are still in flight after {} {}.", maxInFlight - inFlight.availablePermits(), timeout, unit);
+            terminated = false;
+        }
+        completionExecutor.shutdown();
+        if (!completionExecutor.awaitTermination(getRemainingNanos(deadline), TimeUnit.NANOSECONDS)) {
+            terminated = false;
+        }
+        terminated &= extractStage.shutdown(deadline);
+        terminated &= storeStage.shutdown(deadline);
+        return terminated;
+    }
+
+    /**
+     * @param deadline the value of {@link System#nanoTime()} when the wait ends
+     * @return the nanoseconds until the deadline, or 0 if it has passed
+     */
+    protected static long getRemainingNanos(final long deadline) {
+        return Math.max(deadline - System.nanoTime(), 0L);
+    }
+
+    @Override
+    public void close() {
+        fetchStage.executor.shutdownNow();
+        completionExecutor.shutdownNow();
+        extractStage.executor.shutdownNow();
+        storeStage.executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "CrawlPipeline [" + fetchStage + ", inFlight=" + getInFlightRequests() + ", " + extractStage + ", "
+                + storeStage + "]";
+    }
+
+    protected static ThreadFactory newThreadFactory(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            final Thread thread = new Thread(r, "s3-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    protected static class Stage {
+        final String name;
+        final ExecutorService executor;
+        final int concurrency;
+        // limits running tasks on virtual threads, null for a platform thread pool
+        final Semaphore permits;
+
+        Stage(final String name, final int concurrency) {
+            this.name = name;
+            this.concurrency = concurrency;
+            executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("s3-" + name + "-", 1).factory());
+            permits = new Semaphore(concurrency);
+            if (logger.isDebugEnabled()) {
+                logger.debug("{} stage: virtual threads, concurrency={}", name, concurrency);
+            }
+        }
+
+        Stage(final String name, final int threads, final int queueSize) {
+            this.name = name;
+            concurrency = threads;
+            permits = null;
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                    newThreadFactory(name), (r, e) -> {
+                if (e.isShutdown()) {
+                    throw new RejectedExecutionException(name + " stage has been shut down.");
+                }
+                try {
+                    e.getQueue().put(r);
+                } catch (final InterruptedException ex) {
+                    throw new InterruptedRuntimeException(ex);
+                }
+                // the workers may have exited while the submitter waited, so the task is not left in the queue
+                if (e.isShutdown() && e.getQueue().remove(r)) {
+                    throw new RejectedExecutionException(name + " stage has been shut down.");
+                }
+            });
+            if (logger.isDebugEnabled()) {
+                logger.debug("{} stage: threads={}, queueSize={}", name, threads, queueSize);
+            }
+        }
+
+        void execute(final Runnable task) {
+            if (permits == null) {
+                executor.execute(task);
+                return;
+            }
+            try {
+                permits.acquire();
+            } catch (final InterruptedException e) {
+                throw new InterruptedRuntimeException(e);
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        /**
+         * @param deadline the value of {@link System#nanoTime()} until which the stage is waited for
+         */
+        boolean shutdown(final long deadline) throws InterruptedException {
+            executor.shutdown();
+            if (!executor.awaitTermination(getRemainingNanos(deadline), TimeUnit.NANOSECONDS)) {
+                logger.warn("{} stage did not terminate within the shutdown timeout.", name);
+                return false;
+            }
+            return true;
+        }
+
+        int getQueueSize() {
+            if (permits != null) {
+                return permits.getQueueLength();
+            }
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+
+        int getActiveCount() {
+            if (permits != null) {
+                return concurrency - permits.availablePermits();
+            }
+            return ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+
+        @Override
+        public String toString() {
+            return name + "{threads=" + concurrency + ",active=" + getActiveCount() + ",queued=" + getQueueSize() + "}";
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.exception.DataStoreException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads S3 event notifications from a local file, or from the files in a directory in name order.
+ * A file contains one or more JSON messages, such as S3 event notifications or SQS messages saved one per line.
+ * Committed files are renamed with the {@value #DONE_SUFFIX} suffix and are not read again.
+ */
+public class FileEventSource implements ObjectEventSource {
+
+    private static final Logger logger = LogManager.getLogger(FileEventSource.class);
+
+    protected static final String EVENT_PATH = "event_path";
+    protected static final String DONE_SUFFIX = ".done";
+
+    protected final Path path;
+    protected final ObjectMapper mapper = new ObjectMapper();
+    protected final List<Path> readFiles = new ArrayList<>();
+
+    public FileEventSource(final DataStoreParams paramMap) {
+        final String value = paramMap.getAsString(EVENT_PATH);
+        if (StringUtil.isBlank(value)) {
+            throw new DataStoreException("Parameter '" + EVENT_PATH + "' is required.");
+        }
+        path = Paths.get(value.trim());
+    }
+
+    @Override
+    public void read(final Consumer<ObjectEvent> consumer) {
+        for (final Path file : getFiles()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Reading events from {}", file);
+            }
+            try (InputStream in = Files.newInputStream(file);
+                    MappingIterator<JsonNode> iterator = mapper.readerFor(JsonNode.class).readValues(in)) {
+                while (iterator.hasNextValue()) {
+                    ObjectEvent.parse(mapper, iterator.nextValue(), consumer);
+                }
+            } catch (final IOException e) {
+                throw new DataStoreException("Failed to read events from " + file, e);
+            }
+            readFiles.add(file);
+        }
+    }
+
+    @Override
+    public void commit() {
+        for (final Path file : readFiles) {
+            try {
+                Files.move(file, file.resolveSibling(file.getFileName() + DONE_SUFFIX));
+            } catch (final IOException e) {
+                logger.warn("Failed to rename {}.", file, e);
+            }
+        }
+        readFiles.clear();
+    }
+
+    @Override
+    public void close() {
+        readFiles.clear();
+    }
+
+    protected List<Path> getFiles() {
+        if (!Files.isDirectory(path)) {
+            return Files.exists(path) ? List.of(path) : List.of();
+        }
+        try (Stream<Path> stream = Files.list(path)) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().endsWith(DONE_SUFFIX))
+                    .sorted()
+                    .toList();
+        } catch (final IOException e) {
+            throw new DataStoreException("Failed to list events in " + path, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileEventSource [path=" + path + "]";
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.exception.DataStoreException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Reads an S3 Inventory report as a list of objects, so that a bucket can be enumerated without ListObjectsV2 requests.
+ * <p>
+ * The location of the manifest.json is an {@code s3://bucket/key} URL or a local path. The data files of a local
+ * manifest are looked up under the directories containing the manifest, as if the destination bucket was copied
+ * to local disk. Only the CSV format is supported. The data files are decompressed and parsed while they are read,
+ * and only the latest versions that are not delete markers are passed to the consumer.
+ */
+public class InventoryReader {
+
+    private static final Logger logger = LogManager.getLogger(InventoryReader.class);
+
+    protected static final String S3_SCHEME = "s3://";
+    protected static final String FORMAT_CSV = "CSV";
+
+    protected final AmazonS3Client client;
+
+    /**
+     * @param client the client to read reports stored in S3, or null to read only local reports
+     */
+    public InventoryReader(final AmazonS3Client client) {
+        this.client = client;
+    }
+
+    public Manifest readManifest(final String location) {
+        try (InputStream in = open(location)) {
+            final JsonNode root = new ObjectMapper().readTree(in);
+            final Manifest manifest = new Manifest();
+            manifest.location = location;
+            manifest.sourceBucket = root.path("sourceBucket").asText();
+            final String destination = root.path("destinationBucket").asText();
+            manifest.destinationBucket = destination.substring(destination.lastIndexOf(':') + 1);
+            manifest.fileFormat = root.path("fileFormat").asText();
+            final String[] columns = root.path("fileSchema").asText().split(",");
+            for (int i = 0; i < columns.length; i++) {
+                manifest.columns.put(columns[i].trim(), i);
+            }
+            root.path("files").forEach(file -> manifest.files.add(file.path("key").asText()));
+
+            if (!FORMAT_CSV.equalsIgnoreCase(manifest.fileFormat)) {
+                throw new DataStoreException(manifest.fileFormat + " inventory is not supported: " + location);
+            }
+            if (StringUtil.isBlank(manifest.sourceBucket) || !manifest.columns.containsKey(Manifest.KEY)) {
+                throw new DataStoreException("Invalid inventory manifest: " + location);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Loaded {}", manifest);
+            }
+            return manifest;
+        } catch (final IOException e) {
+            throw new DataStoreException("Failed to read the inventory manifest: " + location, e);
+        }
+    }
+
+    /**
+     * Passes the objects in the inventory to the consumer, reading up to {@code parallelism} data files at once.
+     */
+    public void getObjects(final Manifest manifest, final int parallelism, final Consumer<S3Object> consumer) {
+        if (parallelism <= 1 || manifest.files.size() <= 1) {
+            manifest.files.forEach(file -> readFile(manifest, file, consumer));
+            return;
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(Math.min(parallelism, manifest.files.size()));
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (final String file : manifest.files) {
+                futures.add(executorService.submit(() -> readFile(manifest, file, consumer)));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof final DataStoreException cause) {
+                throw cause;
+            }
+            throw new DataStoreException("Failed to read the inventory of " + manifest.sourceBucket, e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    protected void readFile(final Manifest manifest, final String file, final Consumer<S3Object> consumer) {
+        final String location = getFileLocation(manifest, file);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Reading inventory file: {}", location);
+        }
+        long count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(decompress(open(location), file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final S3Object object = toObject(manifest, parseLine(line));
+                if (object != null) {
+                    consumer.accept(object);
+                    count++;
+                }
+            }
+        } catch (final IOException e) {
+            throw new DataStoreException("Failed to read the inventory file: " + location, e);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Read {} objects from {}", count, location);
+        }
+    }
+
+    /**
+     * @return the object, or null if the row is an old version or a delete marker
+     */
+    protected S3Object toObject(final Manifest manifest, final List<String> values) {
+        if ("false".equalsIgnoreCase(manifest.getValue(values, Manifest.IS_LATEST))
+                || "true".equalsIgnoreCase(manifest.getValue(values, Manifest.IS_DELETE_MARKER))) {
+            return null;
+        }
+        final String key = URLDecoder.decode(manifest.getValue(values, Manifest.KEY), StandardCharsets.UTF_8);
+        final S3Object.Builder builder = S3Object.builder().key(key);
+        final String size = manifest.getValue(values, Manifest.SIZE);
+        if (StringUtil.isNotBlank(size)) {
+            builder.size(Long.valueOf(size));
+        }
+        final String lastModified = manifest.getValue(values, Manifest.LAST_MODIFIED_DATE);
+        if (StringUtil.isNotBlank(lastModified)) {
+            builder.lastModified(Instant.parse(lastModified));
+        }
+        final String eTag = manifest.getValue(values, Manifest.E_TAG);
+        if (StringUtil.isNotBlank(eTag)) {
+            // ListObjectsV2 returns the ETag in quotes
+            builder.eTag(eTag.startsWith("\"") ? eTag : "\"" + eTag + "\"");
+        }
+        final String storageClass = manifest.getValue(values, Manifest.STORAGE_CLASS);
+        if (StringUtil.isNotBlank(storageClass)) {
+            builder.storageClass(storageClass);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Splits a CSV line. Fields may be enclosed in double quotes, and a double quote in a quoted field is escaped by another one.
+     */
+    protected List<String> parseLine(final String line) {
+        final List<String> values = new ArrayList<>();
+        final StringBuilder buf = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    buf.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    buf.append(c);
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(buf.toString());
+                buf.setLength(0);
+            } else {
+                buf.append(c);
+            }
+        }
+        values.add(buf.toString());
+        return values;
+    }
+
+    protected String getFileLocation(final Manifest manifest, final String file) {
+        if (manifest.location.startsWith(S3_SCHEME)) {
+            return S3_SCHEME + manifest.destinationBucket + "/" + file;
+        }
+        // the manifest is in <prefix>/<source bucket>/<config id>/<date>/ and the keys of the data files start with <prefix>
+        for (Path dir = toPath(manifest.location).toAbsolutePath().getParent(); dir != null; dir = dir.getParent()) {
+            final Path path = dir.resolve(file);
+            if (Files.exists(path)) {
+                return path.toString();
+            }
+        }
+        throw new DataStoreException(file + " is not found for " + manifest.location);
+    }
+
+    protected InputStream open(final String location) throws IOException {
+        if (location.startsWith(S3_SCHEME)) {
+            if (client == null) {
+                throw new DataStoreException("No client to read " + location);
+            }
+            final String path = location.substring(S3_SCHEME.length());
+            final int pos = path.indexOf('/');
+            if (pos <= 0) {
+                throw new DataStoreException("Invalid location: " + location);
+            }
+            return client.getObject(path.substring(0, pos), path.substring(pos + 1));
+        }
+        return Files.newInputStream(toPath(location));
+    }
+
+    protected InputStream decompress(final InputStream in, final String file) throws IOException {
+        if (file.endsWith(".gz")) {
+            return new GZIPInputStream(in, 65536);
+        }
+        return in;
+    }
+
+    protected Path toPath(final String location) {
+        if (location.startsWith("file:")) {
+            return Paths.get(URI.create(location));
+        }
+        return Paths.get(location);
+    }
+
+    /**
+     * The contents of manifest.json.
+     */
+    public static class Manifest {
+        protected static final String KEY = "Key";
+        protected static final String SIZE = "Size";
+        protected static final String LAST_MODIFIED_DATE = "LastModifiedDate";
+        protected static final String E_TAG = "ETag";
+        protected static final String STORAGE_CLASS = "StorageClass";
+        protected static final String IS_LATEST = "IsLatest";
+        protected static final String IS_DELETE_MARKER = "IsDeleteMarker";
+
+        String location;
+        String sourceBucket;
+        String destinationBucket;
+        String fileFormat;
+        final Map<String, Integer> columns = new HashMap<>();
+        final List<String> files = new ArrayList<>();
+
+        public String getSourceBucket() {
+            return sourceBucket;
+        }
+
+        public List<String> getFiles() {
+            return files;
+        }
+
+        String getValue(final List<String> values, final String column) {
+            final Integer index = columns.get(column);
+            return index != null && index < values.size() ? values.get(index) : null;
+        }
+
+        @Override
+        public String toString() {
+            return "Manifest [location=" + location + ", sourceBucket=" + sourceBucket + ", destinationBucket=" + destinationBucket
+                    + ", fileFormat=" + fileFormat + ", columns=" + columns + ", files=" + files.size() + "]";
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import org.codelibs.fess.exception.DataStoreException;
+
+/**
+ * One of several parts of the key space of the buckets, so that each crawler node of a data config crawls its own objects.
+ * <p>
+ * A key or a prefix belongs to the shard of its CRC-32 modulo the shard count, which is the same on every node.
+ * A shard by key owns the keys of its hash. A shard by prefix owns the prefixes at its depth below a listing prefix,
+ * with all keys under them, and the keys above that depth by their hash, so that it lists only its own subtrees.
+ */
+public class KeyShard {
+
+    protected final int index;
+    protected final int count;
+    protected final int prefixDepth;
+
+    /**
+     * @param index the index of the shard, from 0
+     * @param count the number of shards
+     * @param prefixDepth the depth of the prefixes assigned to the shards, or 0 to assign each key by its hash
+     */
+    public KeyShard(final int index, final int count, final int prefixDepth) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new DataStoreException("Invalid shard " + index + " of " + count + " shards.");
+        }
+        if (prefixDepth < 0) {
+            throw new DataStoreException("Invalid shard prefix depth: " + prefixDepth);
+        }
+        this.index = index;
+        this.count = count;
+        this.prefixDepth = prefixDepth;
+    }
+
+    /**
+     * @return true if the key or prefix belongs to this shard
+     */
+    public boolean owns(final String name) {
+        return getShard(name, count) == index;
+    }
+
+    /**
+     * @param prefix the listing prefix that the key is under, or an empty string
+     * @return true if the key belongs to this shard when the prefix is listed, by its prefix at the shard depth below
+     *         the listing prefix, or by the key itself if it is above that depth
+     */
+    public boolean ownsKey(final String key, final String prefix) {
+        if (prefixDepth == 0 || !key.startsWith(prefix)) {
+            return owns(key);
+        }
+        int pos = prefix.length();
+        for (int depth = 0; depth < prefixDepth; depth++) {
+            pos = key.indexOf('/', pos);
+            if (pos < 0) {
+                return owns(key);
+            }
+            pos++;
+        }
+        return owns(key.substring(0, pos));
+    }
+
+    /**
+     * @return the shard of the key or prefix
+     */
+    public static int getShard(final String name, final int count) {
+        final CRC32 crc = new CRC32();
+        crc.update(name.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % count);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getPrefixDepth() {
+        return prefixDepth;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyShard [index=" + index + ", count=" + count + ", prefixDepth=" + prefixDepth + "]";
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Derives key prefixes for ListObjectsV2 requests from the URL patterns of a crawl.
+ * <p>
+ * The patterns match whole URLs, so the literal text at the start of a pattern is a prefix of every URL it matches.
+ * The part after the URL of the bucket is a key prefix, cut at the first percent-encoded character because keys
+ * are not encoded. An unescaped dot that matches a character of the bucket URL is read as that character, so the dots
+ * in the host of a pattern do not need to be escaped.
+ */
+public final class ListingPrefixes {
+
+    private static final String METACHARACTERS = ".[]{}()*+?^$|\\";
+
+    private ListingPrefixes() {
+    }
+
+    /**
+     * @return the literal text that every match of the regular expression starts with, or an empty string
+     */
+    public static String getLiteralPrefix(final String regex) {
+        return getLiteralPrefix(regex, "");
+    }
+
+    /**
+     * @param bucketUrl the URL of the bucket, whose characters are matched by the unescaped dots at the same positions
+     * @return the literal text that every match of the regular expression in the bucket starts with, or an empty string
+     */
+    public static String getLiteralPrefix(final String regex, final String bucketUrl) {
+        return scan(regex, bucketUrl)[0];
+    }
+
+    /**
+     * @return the literal text if the regular expression matches exactly the text starting with it, or null
+     */
+    public static String getSubtreePrefix(final String regex) {
+        return getSubtreePrefix(regex, "");
+    }
+
+    /**
+     * @param bucketUrl the URL of the bucket, whose characters are matched by the unescaped dots at the same positions
+     * @return the literal text if the regular expression matches exactly the text of the bucket starting with it, or null
+     */
+    public static String getSubtreePrefix(final String regex, final String bucketUrl) {
+        final String[] result = scan(regex, bucketUrl);
+        if (result[0].isEmpty() || !".*".equals(result[1]) && !".*$".equals(result[1])) {
+            return null;
+        }
+        return result[0];
+    }
+
+    /**
+     * Turns the literal prefix of a URL pattern into a key prefix of the bucket.
+     *
+     * @param literal the literal prefix of the pattern
+     * @param bucketUrl the URL of the bucket ending with a slash
+     * @param exact true to require the whole literal to be used, for prefixes that exclude keys
+     * @return the key prefix, an empty string if all keys can match, or null if no key matches (or, if exact,
+     *         the prefix cannot be used)
+     */
+    public static String toKeyPrefix(final String literal, final String bucketUrl, final boolean exact) {
+        if (literal.startsWith(bucketUrl)) {
+            final String path = literal.substring(bucketUrl.length());
+            final int pos = path.indexOf('%');
+            if (pos < 0) {
+                return path;
+            }
+            return exact ? null : path.substring(0, pos);
+        }
+        if (!exact && bucketUrl.startsWith(literal)) {
+            return "";
+        }
+        return null;
+    }
+
+    /**
+     * @return the sorted prefixes without those under another prefix in the list
+     */
+    public static List<String> normalize(final Collection<String> prefixes) {
+        final List<String> result = new ArrayList<>();
+        for (final String prefix : new TreeSet<>(prefixes)) {
+            if (result.isEmpty() || !prefix.startsWith(result.get(result.size() - 1))) {
+                result.add(prefix);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the literal prefix and the rest of the regular expression
+     */
+    private static String[] scan(final String regex, final String bucketUrl) {
+        if (hasTopLevelAlternation(regex)) {
+            return new String[] { "", regex };
+        }
+        final StringBuilder buf = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            final int start = i;
+            char literal;
+            if (c == '\\') {
+                if (i + 1 >= regex.length()) {
+                    break;
+                }
+                final char next = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(next)) {
+                    // a character class such as \d, a back reference or a quote
+                    break;
+                }
+                literal = next;
+                i += 2;
+            } else if (c == '.' && buf.length() < bucketUrl.length() && bucketUrl.startsWith(buf.toString())) {
+                // any character matches the character of the bucket URL
+                literal = bucketUrl.charAt(buf.length());
+                i++;
+            } else if (METACHARACTERS.indexOf(c) >= 0) {
+                break;
+            } else {
+                literal = c;
+                i++;
+            }
+            if (i < regex.length() && "?*{".indexOf(regex.charAt(i)) >= 0) {
+                // the character is optional
+                i = start;
+                break;
+            }
+            buf.append(literal);
+        }
+        return new String[] { buf.toString(), regex.substring(i) };
+    }
+
+    private static boolean hasTopLevelAlternation(final String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
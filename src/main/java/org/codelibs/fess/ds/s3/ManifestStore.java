@@ -0,0 +1,259 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.exception.DataStoreException;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Keeps one {@link ObjectManifest} per bucket in a directory, and records the objects of the current crawl
+ * into new manifests that replace the previous ones on {@link #commit()}.
+ * <p>
+ * A crawl that stops before it lists all objects keeps its objects in a partial manifest on {@link #suspend()}.
+ * The crawl that resumes it from a {@link CrawlCheckpoint} records them again, so that the objects before the
+ * checkpoint are not treated as removed.
+ */
+public class ManifestStore implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(ManifestStore.class);
+
+    protected static final String EXTENSION = ".manifest";
+    protected static final String PARTIAL_EXTENSION = ".partial";
+
+    protected final Path directory;
+    protected final int runSize;
+    protected final Predicate<String> resumed;
+    protected final Map<String, BucketManifest> buckets = new ConcurrentHashMap<>();
+    // a manifest that misses a crawled object must not replace the previous one
+    protected volatile boolean failed;
+
+    /**
+     * @param runSize the number of entries sorted in memory before they are spilled to a run file
+     */
+    public ManifestStore(final Path directory, final int runSize) {
+        this(directory, runSize, bucket -> false);
+    }
+
+    /**
+     * @param runSize the number of entries sorted in memory before they are spilled to a run file
+     * @param resumed true for the buckets whose crawl resumes a suspended one
+     */
+    public ManifestStore(final Path directory, final int runSize, final Predicate<String> resumed) {
+        this.directory = directory;
+        this.runSize = runSize;
+        this.resumed = resumed;
+    }
+
+    /**
+     * Starts the manifest of a crawled bucket, so that its previous objects are treated as removed on {@link #commit()}
+     * even if no object of the bucket is recorded.
+     */
+    public void begin(final String bucket) {
+        getBucket(bucket);
+    }
+
+    /**
+     * @return true if the previous crawl indexed the object with the same ETag, last modified time and size
+     */
+    public boolean isUnchanged(final String bucket, final S3Object object) {
+        final ObjectManifest.Entry entry = getBucket(bucket).previous.get(object.key());
+        return entry != null && entry.matches(object);
+    }
+
+    /**
+     * @param indexed true if the object is in the index, false to crawl it again next time
+     */
+    public void record(final String bucket, final S3Object object, final boolean indexed) {
+        try {
+            getBucket(bucket).writer.add(ObjectManifest.Entry.of(object, indexed));
+        } catch (final IOException e) {
+            if (!failed) {
+                logger.warn("Failed to record {} in the manifest of {}.", object.key(), bucket, e);
+            }
+            failed = true;
+        }
+    }
+
+    /**
+     * Replaces the manifests of the crawled buckets with the objects recorded in this crawl.
+     */
+    public void commit() {
+        commit(0, null);
+    }
+
+    /**
+     * Replaces the manifests of the crawled buckets with the objects recorded in this crawl. Before a manifest is replaced,
+     * the keys that are in the previous manifest but were not listed by this crawl are passed to the handler in batches,
+     * so a failed handler leaves the previous manifest in place and the keys are found again by the next crawl.
+     *
+     * @param batchSize the maximum number of keys passed to the handler at once
+     * @param removedKeysHandler receives the bucket name and the removed keys, or null
+     */
+    public void commit(final int batchSize, final BiConsumer<String, List<String>> removedKeysHandler) {
+        if (failed) {
+            logger.warn("The manifests in {} are not updated because some objects could not be recorded.", directory);
+            return;
+        }
+        for (final Map.Entry<String, BucketManifest> entry : buckets.entrySet()) {
+            final String bucket = entry.getKey();
+            final BucketManifest manifest = entry.getValue();
+            try {
+                final Path temp = manifest.writer.finish();
+                try {
+                    if (removedKeysHandler != null) {
+                        final long removed = handleRemovedKeys(bucket, manifest.previous, temp, batchSize, removedKeysHandler);
+                        if (removed > 0) {
+                            logger.info("{} objects were removed from {}.", removed, bucket);
+                        }
+                    }
+                    manifest.previous.close();
+                    manifest.writer.replace(temp);
+                    Files.deleteIfExists(getPartialPath(bucket));
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+                logger.info("Updated the manifest of {}: {} objects", bucket, manifest.writer.getCount());
+            } catch (final IOException e) {
+                throw new DataStoreException("Failed to write the manifest of " + bucket, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the objects recorded in this crawl to the partial manifests, and leaves the previous manifests in place.
+     *
+     * @return false if some objects could not be recorded, in which case the partial manifests are not updated
+     */
+    public boolean suspend() {
+        if (failed) {
+            logger.warn("The partial manifests in {} are not updated because some objects could not be recorded.", directory);
+            return false;
+        }
+        for (final Map.Entry<String, BucketManifest> entry : buckets.entrySet()) {
+            final String bucket = entry.getKey();
+            final BucketManifest manifest = entry.getValue();
+            try {
+                final Path temp = manifest.writer.finish();
+                try {
+                    Files.move(temp, getPartialPath(bucket), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+                logger.info("Saved the partial manifest of {}: {} objects", bucket, manifest.writer.getCount());
+            } catch (final IOException e) {
+                throw new DataStoreException("Failed to write the partial manifest of " + bucket, e);
+            }
+        }
+        return true;
+    }
+
+    protected long handleRemovedKeys(final String bucket, final ObjectManifest previous, final Path path, final int batchSize,
+            final BiConsumer<String, List<String>> removedKeysHandler) throws IOException {
+        final List<String> keys = new ArrayList<>(batchSize);
+        final long[] count = { 0 };
+        try (ObjectManifest current = ObjectManifest.open(path)) {
+            previous.forEachMissing(current, entry -> {
+                keys.add(entry.getKey());
+                count[0]++;
+                if (keys.size() >= batchSize) {
+                    removedKeysHandler.accept(bucket, new ArrayList<>(keys));
+                    keys.clear();
+                }
+            });
+        }
+        if (!keys.isEmpty()) {
+            removedKeysHandler.accept(bucket, keys);
+        }
+        return count[0];
+    }
+
+    @Override
+    public void close() {
+        buckets.values().forEach(manifest -> {
+            manifest.previous.close();
+            manifest.writer.close();
+        });
+        buckets.clear();
+    }
+
+    public Path getPath(final String bucket) {
+        return directory.resolve(bucket + EXTENSION);
+    }
+
+    public Path getPartialPath(final String bucket) {
+        return directory.resolve(bucket + EXTENSION + PARTIAL_EXTENSION);
+    }
+
+    protected BucketManifest getBucket(final String bucket) {
+        return buckets.computeIfAbsent(bucket, name -> {
+            final Path path = getPath(name);
+            ObjectManifest previous;
+            try {
+                previous = ObjectManifest.open(path);
+            } catch (final IOException e) {
+                logger.warn("Failed to read {}. All objects in {} will be crawled.", path, name, e);
+                previous = ObjectManifest.empty(path);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Loaded {}", previous);
+            }
+            final ObjectManifest.Writer writer = new ObjectManifest.Writer(path, runSize);
+            final Path partialPath = getPartialPath(name);
+            try {
+                if (!resumed.test(name)) {
+                    Files.deleteIfExists(partialPath);
+                } else if (Files.exists(partialPath)) {
+                    writer.addRun(partialPath);
+                    logger.info("Resuming the manifest of {} with {} objects", name, writer.getCount());
+                }
+            } catch (final IOException e) {
+                // the objects before the checkpoint would be treated as removed
+                logger.warn("Failed to read {}. The manifest of {} will not be updated.", partialPath, name, e);
+                failed = true;
+            }
+            return new BucketManifest(previous, writer);
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "ManifestStore [directory=" + directory + ", buckets=" + buckets.keySet() + "]";
+    }
+
+    protected static class BucketManifest {
+        final ObjectManifest previous;
+        final ObjectManifest.Writer writer;
+
+        BucketManifest(final ObjectManifest previous, final ObjectManifest.Writer writer) {
+            this.previous = previous;
+            this.writer = writer;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Downloads a large object with several GET requests running at once.
+ * <p>
+ * An object uploaded in parts is fetched part by part with {@code partNumber}, and other objects are fetched in
+ * {@code Range} requests of the part size. Each part is written to its offset in a file preallocated to the object size.
+ * A part that fails is retried from the last byte written, so a dropped connection does not restart the whole object.
+ * All requests have {@code If-Match} with the ETag of the HEAD response, so a part of a newer version is never mixed in.
+ */
+public class MultipartDownloader implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(MultipartDownloader.class);
+
+    protected static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+    protected static final int BUFFER_SIZE = 65536;
+
+    protected final AmazonS3Client client;
+    protected final long partSize;
+    protected final int retries;
+    protected final ExecutorService executorService;
+
+    /**
+     * @param client the client to send the requests
+     * @param partSize the size of a range request
+     * @param threads the number of requests running at once, shared by all downloads
+     * @param retries the number of retries of a part
+     */
+    public MultipartDownloader(final AmazonS3Client client, final long partSize, final int threads, final int retries) {
+        this.client = client;
+        this.partSize = partSize;
+        this.retries = retries;
+        executorService = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "fess-ds-s3-part");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the size of the object in the HEAD response for the first part
+     */
+    public static long getObjectSize(final HeadObjectResponse head) {
+        final long[] range = parseContentRange(head.contentRange());
+        if (range != null && range[2] >= 0) {
+            return range[2];
+        }
+        return head.contentLength();
+    }
+
+    /**
+     * Writes the object content to the file.
+     *
+     * @param head the HEAD response for the first part
+     * @return the response of the first part with the content length of the whole object
+     */
+    public GetObjectResponse download(final String bucket, final String key, final HeadObjectResponse head, final Path file)
+            throws IOException {
+        final long size = getObjectSize(head);
+        final List<Part> parts = new ArrayList<>();
+        if (head.partsCount() != null && head.partsCount() > 1) {
+            for (int i = 1; i <= head.partsCount(); i++) {
+                parts.add(new Part(i));
+            }
+        } else {
+            for (long start = 0; start < size; start += partSize) {
+                parts.add(new Part(start, Math.min(start + partSize, size) - 1));
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Downloading {}/{} ({} bytes) in {} parts.", bucket, key, size, parts.size());
+        }
+        if (parts.isEmpty()) {
+            // an empty object has no range to request
+            try (ResponseInputStream<GetObjectResponse> in = client.getObject(bucket, key, head.eTag(), null, null)) {
+                Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                return in.response();
+            }
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size);
+            final FileChannel channel = raf.getChannel();
+            final List<Future<GetObjectResponse>> futures = new ArrayList<>(parts.size());
+            for (final Part part : parts) {
+                futures.add(executorService.submit(() -> downloadPart(bucket, key, head.eTag(), part, channel)));
+            }
+            GetObjectResponse first = null;
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    final GetObjectResponse response = futures.get(i).get();
+                    if (i == 0) {
+                        first = response;
+                    }
+                }
+            } catch (final InterruptedException e) {
+                throw new InterruptedRuntimeException(e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof final IOException cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof final RuntimeException cause) {
+                    throw cause;
+                }
+                throw new IOException("Failed to download " + bucket + "/" + key, e.getCause());
+            } finally {
+                futures.forEach(f -> f.cancel(true));
+            }
+
+            long written = 0;
+            for (final Part part : parts) {
+                written += part.position - part.start;
+            }
+            if (written != size) {
+                throw new IOException("Downloaded " + written + " bytes of " + size + " bytes: " + bucket + "/" + key);
+            }
+            return first.toBuilder().contentLength(size).contentRange(null).build();
+        }
+    }
+
+    protected GetObjectResponse downloadPart(final String bucket, final String key, final String eTag, final Part part,
+            final FileChannel channel) throws IOException {
+        for (int attempt = 0;; attempt++) {
+            try (ResponseInputStream<GetObjectResponse> in = part.start < 0 ? client.getObject(bucket, key, eTag, part.number, null)
+                    : client.getObject(bucket, key, eTag, null, "bytes=" + part.position + "-" + part.end)) {
+                final GetObjectResponse response = in.response();
+                if (part.start < 0) {
+                    final long[] range = parseContentRange(response.contentRange());
+                    if (range == null) {
+                        throw new IOException("No content range for part " + part.number + " of " + bucket + "/" + key);
+                    }
+                    part.start = range[0];
+                    part.end = range[1];
+                    part.position = range[0];
+                }
+                copy(in, channel, part);
+                if (part.position != part.end + 1) {
+                    throw new IOException("Part " + part + " of " + bucket + "/" + key + " ended early.");
+                }
+                return response;
+            } catch (final IOException | SdkException e) {
+                if (attempt >= retries || !isRetryable(e)) {
+                    throw e;
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Retrying part {} of {}/{}.", part, bucket, key, e);
+                }
+            }
+        }
+    }
+
+    protected void copy(final InputStream in, final FileChannel channel, final Part part) throws IOException {
+        final byte[] bytes = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(bytes)) != -1) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, read);
+            while (buffer.hasRemaining()) {
+                part.position += channel.write(buffer, part.position);
+            }
+        }
+    }
+
+    protected boolean isRetryable(final Exception e) {
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        if (e instanceof final S3Exception s3Exception) {
+            // the object was changed or removed, or the request is not allowed
+            final int status = s3Exception.statusCode();
+            return status >= 500 || status == 408 || status == 429;
+        }
+        return true;
+    }
+
+    /**
+     * @return the first and last byte positions and the total size (-1 if unknown), or null if the header is not a byte range
+     */
+    protected static long[] parseContentRange(final String contentRange) {
+        if (contentRange == null) {
+            return null;
+        }
+        final Matcher matcher = CONTENT_RANGE_PATTERN.matcher(contentRange.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new long[] { Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)),
+                "*".equals(matcher.group(3)) ? -1 : Long.parseLong(matcher.group(3)) };
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * A byte range of the object, or a part whose range is known after its response arrives.
+     */
+    protected static class Part {
+        final Integer number;
+        long start;
+        long end;
+        long position;
+
+        Part(final int number) {
+            this.number = number;
+            start = -1;
+            end = -1;
+        }
+
+        Part(final long start, final long end) {
+            number = null;
+            this.start = start;
+            this.end = end;
+            position = start;
+        }
+
+        @Override
+        public String toString() {
+            return (number != null ? "#" + number + " " : "") + start + "-" + end + "@" + position;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+import org.codelibs.core.lang.StringUtil;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * A record of an S3 event notification.
+ */
+public class ObjectEvent {
+
+    protected static final String OBJECT_REMOVED = "ObjectRemoved:";
+
+    protected final String eventName;
+    protected final String bucket;
+    protected final String key;
+    protected final Long size;
+    protected final String eTag;
+    protected final Instant eventTime;
+    protected final String sequencer;
+
+    public ObjectEvent(final String eventName, final String bucket, final String key, final Long size, final String eTag,
+            final Instant eventTime, final String sequencer) {
+        this.eventName = eventName;
+        this.bucket = bucket;
+        this.key = key;
+        this.size = size;
+        this.eTag = eTag;
+        this.eventTime = eventTime;
+        this.sequencer = sequencer;
+    }
+
+    /**
+     * Passes the object events in a notification message to the consumer. The message is an S3 event notification
+     * with {@code Records}, or an SNS or SQS message whose {@code Message} or {@code Body} contains one.
+     * Other messages, such as the test event, are ignored.
+     */
+    public static void parse(final ObjectMapper mapper, final JsonNode message, final Consumer<ObjectEvent> consumer)
+            throws IOException {
+        for (final String field : new String[] { "Message", "Body" }) {
+            final JsonNode body = message.get(field);
+            if (body != null && body.isTextual()) {
+                parse(mapper, mapper.readTree(body.asText()), consumer);
+                return;
+            }
+        }
+        for (final JsonNode record : message.path("Records")) {
+            final String eventName = record.path("eventName").asText();
+            final JsonNode s3 = record.path("s3");
+            if (StringUtil.isBlank(eventName) || s3.isMissingNode()) {
+                continue;
+            }
+            final JsonNode object = s3.path("object");
+            // keys are URL-encoded in event notifications
+            final String key = URLDecoder.decode(object.path("key").asText(), StandardCharsets.UTF_8);
+            final String eventTime = record.path("eventTime").asText(null);
+            consumer.accept(new ObjectEvent(eventName, s3.path("bucket").path("name").asText(), key,
+                    object.hasNonNull("size") ? object.get("size").asLong() : null, object.path("eTag").asText(null),
+                    eventTime != null ? Instant.parse(eventTime) : null, object.path("sequencer").asText(null)));
+        }
+    }
+
+    public boolean isRemoved() {
+        return eventName.startsWith(OBJECT_REMOVED);
+    }
+
+    /**
+     * @return true if this event happened after the other event on the same key
+     */
+    public boolean isAfter(final ObjectEvent other) {
+        if (sequencer != null && other.sequencer != null) {
+            // sequencers are hexadecimal values, compared after the shorter one is padded with zeros on the right
+            final int length = Math.max(sequencer.length(), other.sequencer.length());
+            return padRight(sequencer, length).compareTo(padRight(other.sequencer, length)) >= 0;
+        }
+        if (eventTime != null && other.eventTime != null) {
+            return !eventTime.isBefore(other.eventTime);
+        }
+        return true;
+    }
+
+    private static String padRight(final String value, final int length) {
+        return value.toUpperCase(Locale.ROOT) + "0".repeat(length - value.length());
+    }
+
+    /**
+     * @return the object in the shape of a listing entry
+     */
+    public S3Object toObject() {
+        final S3Object.Builder builder = S3Object.builder().key(key).size(size).lastModified(eventTime);
+        if (StringUtil.isNotBlank(eTag)) {
+            // ListObjectsV2 returns the ETag in quotes
+            builder.eTag(eTag.startsWith("\"") ? eTag : "\"" + eTag + "\"");
+        }
+        return builder.build();
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return "ObjectEvent [eventName=" + eventName + ", bucket=" + bucket + ", key=" + key + ", size=" + size + ", eTag=" + eTag
+                + ", eventTime=" + eventTime + ", sequencer=" + sequencer + "]";
+    }
+}
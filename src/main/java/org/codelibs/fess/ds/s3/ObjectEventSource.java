@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.util.function.Consumer;
+
+/**
+ * Provides S3 event notifications for the event-driven crawl, which processes only the objects in the events
+ * instead of listing the buckets.
+ * <p>
+ * An implementation is selected by the {@code event_source} parameter. It is either {@code file} for
+ * {@link FileEventSource}, or the name of a class with a public constructor that takes {@code DataStoreParams}.
+ */
+public interface ObjectEventSource extends AutoCloseable {
+
+    /**
+     * Passes the pending events to the consumer, and returns when no events are left.
+     */
+    void read(Consumer<ObjectEvent> consumer);
+
+    /**
+     * Called after all events passed by {@link #read(Consumer)} have been processed, so that the source can acknowledge
+     * or remove them. Events that are not committed are read again by the next crawl.
+     */
+    void commit();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,682 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * A read-only, memory-mapped list of object keys with their ETag, last modified time and size.
+ * <p>
+ * Entries are sorted by the UTF-8 bytes of the key and front-coded: each entry stores only the part of the key
+ * that differs from the previous one. Every {@value #RESTART_INTERVAL}th entry stores its full key, and an index of
+ * these restart points at the end of the file is used to look up a key with a binary search, so the file is never
+ * loaded onto the heap.
+ * <pre>
+ * header:  int magic, int version
+ * entry:   varint shared, varint suffix length, suffix, varint etag length, etag, zigzag lastModified, zigzag size
+ * index:   long offset of each restart entry
+ * trailer: long index offset, long restart count, long entry count
+ * </pre>
+ */
+public class ObjectManifest implements AutoCloseable, Iterable<ObjectManifest.Entry> {
+
+    private static final Logger logger = LogManager.getLogger(ObjectManifest.class);
+
+    protected static final int MAGIC = 0x53334d46; // S3MF
+    protected static final int VERSION = 1;
+    protected static final int HEADER_SIZE = 8;
+    protected static final int TRAILER_SIZE = 24;
+    protected static final int RESTART_INTERVAL = 32;
+    protected static final int SEGMENT_BITS = 30;
+    protected static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+    protected static final Comparator<byte[]> KEY_COMPARATOR = Arrays::compareUnsigned;
+
+    protected final Path path;
+    protected final MappedByteBuffer[] segments;
+    protected final long indexOffset;
+    protected final long restartCount;
+    protected final long entryCount;
+
+    protected ObjectManifest(final Path path, final MappedByteBuffer[] segments, final long indexOffset, final long restartCount,
+            final long entryCount) {
+        this.path = path;
+        this.segments = segments;
+        this.indexOffset = indexOffset;
+        this.restartCount = restartCount;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Opens the manifest file.
+     *
+     * @return the manifest, or an empty manifest if the file does not exist
+     */
+    public static ObjectManifest open(final Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return empty(path);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long length = channel.size();
+            if (length < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException(path + " is not a manifest file.");
+            }
+            final MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                final long position = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, length - position));
+            }
+            final ObjectManifest manifest = new ObjectManifest(path, segments, 0, 0, 0);
+            if (manifest.getInt(0) != MAGIC || manifest.getInt(4) != VERSION) {
+                throw new IOException(path + " is not a manifest file.");
+            }
+            final long trailer = length - TRAILER_SIZE;
+            final long indexOffset = manifest.getLong(trailer);
+            final long restartCount = manifest.getLong(trailer + 8);
+            if (indexOffset < HEADER_SIZE || indexOffset + restartCount * 8 != trailer) {
+                throw new IOException(path + " is broken.");
+            }
+            return new ObjectManifest(path, segments, indexOffset, restartCount, manifest.getLong(trailer + 16));
+        }
+    }
+
+    public static ObjectManifest empty(final Path path) {
+        return new ObjectManifest(path, new MappedByteBuffer[0], HEADER_SIZE, 0, 0);
+    }
+
+    public long size() {
+        return entryCount;
+    }
+
+    /**
+     * @return the entry of the key, or null if the manifest does not contain it
+     */
+    public Entry get(final String key) {
+        final byte[] target = key.getBytes(StandardCharsets.UTF_8);
+        // find the last restart entry whose key is not greater than the target
+        long low = 0;
+        long high = restartCount - 1;
+        long block = -1;
+        while (low <= high) {
+            final long mid = (low + high) >>> 1;
+            final Cursor cursor = new Cursor(getRestartOffset(mid));
+            cursor.readKey();
+            final int cmp = Arrays.compareUnsigned(cursor.key, 0, cursor.keyLength, target, 0, target.length);
+            if (cmp == 0) {
+                return cursor.readEntry();
+            }
+            if (cmp < 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return null;
+        }
+
+        final long end = block + 1 < restartCount ? getRestartOffset(block + 1) : indexOffset;
+        final Cursor cursor = new Cursor(getRestartOffset(block));
+        while (cursor.position < end) {
+            cursor.readKey();
+            final int cmp = Arrays.compareUnsigned(cursor.key, 0, cursor.keyLength, target, 0, target.length);
+            if (cmp == 0) {
+                return cursor.readEntry();
+            }
+            if (cmp > 0) {
+                return null;
+            }
+            cursor.skipValue();
+        }
+        return null;
+    }
+
+    /**
+     * Iterates over the entries in key order.
+     */
+    @Override
+    public Iterator<Entry> iterator() {
+        final Cursor cursor = new Cursor(HEADER_SIZE);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.position < indexOffset;
+            }
+
+            @Override
+            public Entry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                cursor.readKey();
+                return cursor.readEntry();
+            }
+        };
+    }
+
+    /**
+     * Passes the entries of this manifest whose keys are not in the other manifest to the consumer,
+     * reading both manifests once in key order.
+     */
+    public void forEachMissing(final ObjectManifest other, final Consumer<Entry> consumer) {
+        final Iterator<Entry> iterator = other.iterator();
+        Entry current = iterator.hasNext() ? iterator.next() : null;
+        for (final Entry entry : this) {
+            while (current != null && KEY_COMPARATOR.compare(current.key, entry.key) < 0) {
+                current = iterator.hasNext() ? iterator.next() : null;
+            }
+            if (current == null || KEY_COMPARATOR.compare(current.key, entry.key) > 0) {
+                consumer.accept(entry);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // the mappings are released when the buffers are collected
+        Arrays.fill(segments, null);
+    }
+
+    @Override
+    public String toString() {
+        return "ObjectManifest [path=" + path + ", entries=" + entryCount + "]";
+    }
+
+    protected long getRestartOffset(final long index) {
+        return getLong(indexOffset + index * 8);
+    }
+
+    protected int getByte(final long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & (SEGMENT_SIZE - 1))) & 0xff;
+    }
+
+    protected int getInt(final long position) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = value << 8 | getByte(position + i);
+        }
+        return value;
+    }
+
+    protected long getLong(final long position) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | getByte(position + i);
+        }
+        return value;
+    }
+
+    /**
+     * Decodes the entries sequentially from a position.
+     */
+    protected class Cursor {
+        long position;
+        byte[] key = new byte[64];
+        int keyLength;
+
+        Cursor(final long position) {
+            this.position = position;
+        }
+
+        void readKey() {
+            final int shared = (int) readVarLong();
+            final int suffixLength = (int) readVarLong();
+            keyLength = shared + suffixLength;
+            if (key.length < keyLength) {
+                key = Arrays.copyOf(key, Math.max(keyLength, key.length * 2));
+            }
+            readBytes(key, shared, suffixLength);
+        }
+
+        Entry readEntry() {
+            final byte[] eTag = new byte[(int) readVarLong()];
+            readBytes(eTag, 0, eTag.length);
+            final long lastModified = readZigZag();
+            final long size = readZigZag();
+            return new Entry(Arrays.copyOf(key, keyLength), new String(eTag, StandardCharsets.UTF_8), lastModified, size);
+        }
+
+        void skipValue() {
+            final long eTagLength = readVarLong();
+            position += eTagLength;
+            readVarLong();
+            readVarLong();
+        }
+
+        void readBytes(final byte[] bytes, final int offset, final int length) {
+            for (int i = 0; i < length; i++) {
+                bytes[offset + i] = (byte) getByte(position++);
+            }
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0;; shift += 7) {
+                final int b = getByte(position++);
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        long readZigZag() {
+            final long value = readVarLong();
+            return value >>> 1 ^ -(value & 1);
+        }
+    }
+
+    /**
+     * The listing state of an object.
+     */
+    public static class Entry {
+        protected final byte[] key;
+        protected final String eTag;
+        protected final long lastModified;
+        protected final long size;
+
+        protected Entry(final byte[] key, final String eTag, final long lastModified, final long size) {
+            this.key = key;
+            this.eTag = eTag != null ? eTag : "";
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        public Entry(final String key, final String eTag, final long lastModified, final long size) {
+            this(key.getBytes(StandardCharsets.UTF_8), eTag, lastModified, size);
+        }
+
+        /**
+         * @param complete false to record only the key, so that the object is not treated as unchanged by the next crawl
+         */
+        public static Entry of(final S3Object object, final boolean complete) {
+            if (!complete) {
+                return new Entry(object.key(), null, -1L, -1L);
+            }
+            return new Entry(object.key(), object.eTag(), object.lastModified() != null ? object.lastModified().toEpochMilli() : -1L,
+                    object.size() != null ? object.size() : -1L);
+        }
+
+        public String getKey() {
+            return new String(key, StandardCharsets.UTF_8);
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isComplete() {
+            return !eTag.isEmpty();
+        }
+
+        /**
+         * @return true if the listing entry has the same ETag, last modified time and size
+         */
+        public boolean matches(final S3Object object) {
+            final Entry other = of(object, true);
+            return isComplete() && eTag.equals(other.eTag) && lastModified == other.lastModified && size == other.size;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof final Entry other)) {
+                return false;
+            }
+            return Arrays.equals(key, other.key) && eTag.equals(other.eTag) && lastModified == other.lastModified && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(Arrays.hashCode(key), eTag, lastModified, size);
+        }
+
+        @Override
+        public String toString() {
+            return "{key=" + getKey() + ",eTag=" + eTag + ",lastModified=" + lastModified + ",size=" + size + "}";
+        }
+    }
+
+    /**
+     * Builds a new manifest file from entries added in any order.
+     * <p>
+     * Entries are sorted in memory and spilled to sorted run files once {@code runSize} entries are buffered, and the
+     * runs are merged into the manifest on commit. The manifest is written to a temporary file and moved over the
+     * previous one, so an interrupted crawl leaves the previous manifest in place. If an entry is added more than once,
+     * a complete entry is preferred.
+     */
+    public static class Writer implements AutoCloseable {
+        protected final Path path;
+        protected final int runSize;
+        protected final List<Entry> buffer = new ArrayList<>();
+        protected final List<Path> runs = new ArrayList<>();
+        protected long count;
+        protected boolean closed;
+
+        public Writer(final Path path, final int runSize) {
+            this.path = path;
+            this.runSize = runSize;
+        }
+
+        public synchronized void add(final Entry entry) throws IOException {
+            if (closed) {
+                throw new IOException(path + " has been closed.");
+            }
+            buffer.add(entry);
+            count++;
+            if (buffer.size() >= runSize) {
+                runs.add(writeRun());
+            }
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /**
+         * Adds the entries of a manifest file, which is copied so that the file is left in place.
+         */
+        public synchronized void addRun(final Path manifest) throws IOException {
+            if (closed) {
+                throw new IOException(path + " has been closed.");
+            }
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            final Path run = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".run");
+            boolean success = false;
+            try {
+                Files.copy(manifest, run, StandardCopyOption.REPLACE_EXISTING);
+                try (ObjectManifest entries = ObjectManifest.open(run)) {
+                    count += entries.size();
+                }
+                runs.add(run);
+                success = true;
+            } finally {
+                if (!success) {
+                    Files.deleteIfExists(run);
+                }
+            }
+        }
+
+        /**
+         * Writes the manifest file and replaces the previous one.
+         */
+        public synchronized void commit() throws IOException {
+            final Path temp = finish();
+            try {
+                replace(temp);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        /**
+         * Writes the entries to a temporary file next to the manifest without replacing it. No entries can be added afterwards.
+         *
+         * @return the temporary file, which the caller passes to {@link #replace(Path)} or deletes
+         */
+        public synchronized Path finish() throws IOException {
+            if (closed) {
+                throw new IOException(path + " has been closed.");
+            }
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            final Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            boolean success = false;
+            try {
+                if (runs.isEmpty()) {
+                    buffer.sort((e1, e2) -> KEY_COMPARATOR.compare(e1.key, e2.key));
+                    try (Output output = new Output(temp)) {
+                        for (final Entry entry : buffer) {
+                            output.add(entry);
+                        }
+                    }
+                } else {
+                    if (!buffer.isEmpty()) {
+                        runs.add(writeRun());
+                    }
+                    merge(temp);
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Wrote {} entries to {} from {} runs.", count, temp, runs.size());
+                }
+                success = true;
+                return temp;
+            } finally {
+                if (!success) {
+                    Files.deleteIfExists(temp);
+                }
+                close();
+            }
+        }
+
+        /**
+         * Replaces the manifest with a file written by {@link #finish()}.
+         */
+        public void replace(final Path temp) throws IOException {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            buffer.clear();
+            for (final Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (final IOException e) {
+                    logger.warn("Failed to delete {}.", run, e);
+                }
+            }
+            runs.clear();
+        }
+
+        protected Path writeRun() throws IOException {
+            buffer.sort((e1, e2) -> KEY_COMPARATOR.compare(e1.key, e2.key));
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            final Path run = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".run");
+            try (Output output = new Output(run)) {
+                for (final Entry entry : buffer) {
+                    output.add(entry);
+                }
+            }
+            buffer.clear();
+            return run;
+        }
+
+        protected void merge(final Path target) throws IOException {
+            final List<ObjectManifest> manifests = new ArrayList<>();
+            try (Output output = new Output(target)) {
+                final PriorityQueue<RunIterator> queue = new PriorityQueue<>(
+                        Comparator.<RunIterator, byte[]> comparing(r -> r.head.key, KEY_COMPARATOR).thenComparingInt(r -> r.index));
+                for (int i = 0; i < runs.size(); i++) {
+                    final ObjectManifest manifest = ObjectManifest.open(runs.get(i));
+                    manifests.add(manifest);
+                    final RunIterator run = new RunIterator(i, manifest.iterator());
+                    if (run.advance()) {
+                        queue.add(run);
+                    }
+                }
+                while (!queue.isEmpty()) {
+                    final RunIterator run = queue.poll();
+                    output.add(run.head);
+                    if (run.advance()) {
+                        queue.add(run);
+                    }
+                }
+            } finally {
+                manifests.forEach(ObjectManifest::close);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Writer [path=" + path + ", entries=" + count + ", runs=" + runs.size() + "]";
+        }
+    }
+
+    protected static class RunIterator {
+        final int index;
+        final Iterator<Entry> iterator;
+        Entry head;
+
+        RunIterator(final int index, final Iterator<Entry> iterator) {
+            this.index = index;
+            this.iterator = iterator;
+        }
+
+        boolean advance() {
+            head = iterator.hasNext() ? iterator.next() : null;
+            return head != null;
+        }
+    }
+
+    /**
+     * Writes sorted entries in the manifest format, merging entries with the same key.
+     */
+    protected static class Output implements AutoCloseable {
+        final OutputStream out;
+        long position;
+        long[] restarts = new long[1024];
+        long restartCount;
+        long entryCount;
+        Entry pending;
+        byte[] previousKey = new byte[0];
+
+        Output(final Path path) throws IOException {
+            out = new BufferedOutputStream(Files.newOutputStream(path), 65536);
+            writeInt(MAGIC);
+            writeInt(VERSION);
+        }
+
+        void add(final Entry entry) throws IOException {
+            if (pending != null) {
+                if (Arrays.equals(pending.key, entry.key)) {
+                    if (!pending.isComplete()) {
+                        pending = entry;
+                    }
+                    return;
+                }
+                write(pending);
+            }
+            pending = entry;
+        }
+
+        void write(final Entry entry) throws IOException {
+            int shared = 0;
+            if (entryCount % RESTART_INTERVAL == 0) {
+                if (restartCount == restarts.length) {
+                    restarts = Arrays.copyOf(restarts, restarts.length * 2);
+                }
+                restarts[(int) restartCount++] = position;
+            } else {
+                shared = Arrays.mismatch(previousKey, entry.key);
+                if (shared < 0) {
+                    shared = entry.key.length;
+                }
+            }
+            writeVarLong(shared);
+            writeVarLong(entry.key.length - shared);
+            writeBytes(entry.key, shared, entry.key.length - shared);
+            final byte[] eTag = entry.eTag.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(eTag.length);
+            writeBytes(eTag, 0, eTag.length);
+            writeVarLong(entry.lastModified << 1 ^ entry.lastModified >> 63);
+            writeVarLong(entry.size << 1 ^ entry.size >> 63);
+            previousKey = entry.key;
+            entryCount++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (out) {
+                if (pending != null) {
+                    write(pending);
+                    pending = null;
+                }
+                final long indexOffset = position;
+                for (int i = 0; i < restartCount; i++) {
+                    writeLong(restarts[i]);
+                }
+                writeLong(indexOffset);
+                writeLong(restartCount);
+                writeLong(entryCount);
+            }
+        }
+
+        void writeBytes(final byte[] bytes, final int offset, final int length) throws IOException {
+            out.write(bytes, offset, length);
+            position += length;
+        }
+
+        void writeInt(final int value) throws IOException {
+            for (int i = 3; i >= 0; i--) {
+                out.write(value >>> i * 8);
+            }
+            position += 4;
+        }
+
+        void writeLong(final long value) throws IOException {
+            for (int i = 7; i >= 0; i--) {
+                out.write((int) (value >>> i * 8));
+            }
+            position += 8;
+        }
+
+        void writeVarLong(final long value) throws IOException {
+            long v = value;
+            while ((v & ~0x7fL) != 0) {
+                out.write((int) (v & 0x7f | 0x80));
+                position++;
+                v >>>= 7;
+            }
+            out.write((int) v);
+            position++;
+        }
+    }
+}
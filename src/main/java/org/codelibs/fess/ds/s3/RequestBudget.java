@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codelibs.core.exception.InterruptedRuntimeException;
+import org.codelibs.fess.exception.DataStoreException;
+
+/**
+ * Limits the request rates and the transfer rate of each bucket with token buckets, and the requests of a crawl.
+ * <p>
+ * A bucket holds the tokens of one second. A request or a transfer larger than the tokens left takes them in advance,
+ * and the next one waits until they are earned back. A rate of zero or less means no limit.
+ */
+public class RequestBudget {
+
+    protected final double listRate;
+    protected final double getRate;
+    protected final double bytesRate;
+    protected final long maxRequests;
+    protected final AtomicLong requests = new AtomicLong();
+    protected volatile boolean exhausted;
+    protected final Map<String, Rates> rates = new ConcurrentHashMap<>();
+
+    /**
+     * @param listRate the LIST requests per second of a bucket
+     * @param getRate the GET and HEAD requests per second of a bucket
+     * @param bytesRate the bytes per second downloaded from a bucket
+     * @param maxRequests the requests of the crawl, or 0 for no limit
+     */
+    public RequestBudget(final double listRate, final double getRate, final double bytesRate, final long maxRequests) {
+        this.listRate = listRate;
+        this.getRate = getRate;
+        this.bytesRate = bytesRate;
+        this.maxRequests = maxRequests;
+    }
+
+    /**
+     * @return true if the exception or one of its causes is thrown because the requests of the crawl are used up
+     */
+    public static boolean isExhausted(final Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ExhaustedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits until the rates of the bucket allow a LIST request, and counts it.
+     *
+     * @param bucket the bucket of the request, or null for a request to the service
+     */
+    public void acquireList(final String bucket) {
+        count();
+        if (listRate > 0) {
+            sleep(getRates(bucket).list.take(1));
+        }
+    }
+
+    /**
+     * Waits until the rates of the bucket allow a GET or HEAD request, and counts it.
+     * The request also waits for the bytes taken in advance by the previous transfers.
+     */
+    public void acquireGet(final String bucket) {
+        count();
+        if (getRate > 0) {
+            sleep(getRates(bucket).get.take(1));
+        }
+        if (bytesRate > 0) {
+            sleep(getRates(bucket).bytes.take(0));
+        }
+    }
+
+    /**
+     * Takes the bytes from the transfer rate of the bucket.
+     *
+     * @return the nanoseconds to wait until the bytes are earned back
+     */
+    public long transferred(final String bucket, final long bytes) {
+        if (bytesRate <= 0) {
+            return 0;
+        }
+        return getRates(bucket).bytes.take(bytes);
+    }
+
+    /**
+     * @return true if the transfer rate is limited
+     */
+    public boolean isBytesLimited() {
+        return bytesRate > 0;
+    }
+
+    protected void count() {
+        if (requests.incrementAndGet() > maxRequests && maxRequests > 0) {
+            requests.decrementAndGet();
+            exhausted = true;
+            throw new ExhaustedException("The crawl used up its " + maxRequests + " requests.");
+        }
+    }
+
+    protected Rates getRates(final String bucket) {
+        return rates.computeIfAbsent(bucket != null ? bucket : "", k -> new Rates());
+    }
+
+    public static void sleep(final long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the requests sent in the crawl
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the requests left in the crawl, or -1 if they are not limited
+     */
+    public long getRemainingRequests() {
+        return maxRequests > 0 ? maxRequests - requests.get() : -1;
+    }
+
+    /**
+     * @return true if a request was rejected because the crawl used up its requests
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestBudget [listRate=" + listRate + ", getRate=" + getRate + ", bytesRate=" + bytesRate + ", requests=" + requests.get()
+                + "/" + maxRequests + "]";
+    }
+
+    protected class Rates {
+        final TokenBucket list = new TokenBucket(listRate);
+        final TokenBucket get = new TokenBucket(getRate);
+        final TokenBucket bytes = new TokenBucket(bytesRate);
+    }
+
+    /**
+     * The tokens earned at a rate up to the tokens of one second. The tokens can go below zero.
+     */
+    protected static class TokenBucket {
+        final double rate;
+        double tokens;
+        long lastTime = System.nanoTime();
+
+        TokenBucket(final double rate) {
+            this.rate = rate;
+            tokens = rate;
+        }
+
+        /**
+         * @return the nanoseconds to wait until the tokens are not below zero
+         */
+        synchronized long take(final long permits) {
+            final long now = System.nanoTime();
+            tokens = Math.min(tokens + (now - lastTime) * rate / 1_000_000_000d, rate);
+            lastTime = now;
+            tokens -= permits;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1_000_000_000d / rate);
+        }
+    }
+
+    /**
+     * Thrown when the crawl used up its requests.
+     */
+    public static class ExhaustedException extends DataStoreException {
+
+        private static final long serialVersionUID = 1L;
+
+        public ExhaustedException(final String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.script.ScriptEngine;
+import org.codelibs.fess.util.ComponentUtil;
+
+/**
+ * The field mappings of a crawl, parsed once and evaluated for every object.
+ * <p>
+ * An expression that is a variable of the evaluation context, or a property path over maps such as
+ * {@code object.contents}, is resolved by map lookups. Other expressions, and paths that do not run through maps,
+ * are evaluated by the script engine, which is looked up once per crawl.
+ * <p>
+ * The expressions are also scanned for the properties they read from each variable, so that values nobody reads
+ * are not computed. A variable used in any other way than {@code variable.property}, such as a method call,
+ * counts as fully used.
+ */
+public class ScriptMapping {
+
+    protected static final Pattern PROPERTY_PATH_PATTERN = Pattern.compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)+");
+
+    protected static final Pattern IDENTIFIER_PATTERN = Pattern.compile("(?<![\\w$.])[A-Za-z_$][\\w$]*");
+
+    protected static final Pattern PROPERTY_ACCESS_PATTERN = Pattern.compile("\\s*\\??\\.\\s*([A-Za-z_$][\\w$]*)(?![\\w$]|\\s*[({])");
+
+    protected final String scriptType;
+    protected final List<Field> fields = new ArrayList<>();
+    // the properties read from each variable
+    protected final Map<String, Set<String>> properties = new HashMap<>();
+    // the variables used without a property access
+    protected final Set<String> variables = new HashSet<>();
+    protected volatile ScriptEngine scriptEngine;
+
+    /**
+     * @param scriptMap the expressions by field name
+     * @param scriptType the type of the script engine for expressions that are not property paths
+     */
+    public ScriptMapping(final Map<String, String> scriptMap, final String scriptType) {
+        this.scriptType = scriptType;
+        for (final Map.Entry<String, String> entry : scriptMap.entrySet()) {
+            fields.add(new Field(entry.getKey(), entry.getValue()));
+            if (entry.getValue() != null) {
+                scanReferences(entry.getValue());
+            }
+        }
+    }
+
+    // private, because it is called by the constructor
+    private void scanReferences(final String expression) {
+        final Matcher matcher = IDENTIFIER_PATTERN.matcher(expression);
+        final Matcher accessMatcher = PROPERTY_ACCESS_PATTERN.matcher(expression);
+        while (matcher.find()) {
+            accessMatcher.region(matcher.end(), expression.length());
+            if (accessMatcher.lookingAt()) {
+                properties.computeIfAbsent(matcher.group(), k -> new HashSet<>()).add(accessMatcher.group(1));
+            } else {
+                variables.add(matcher.group());
+            }
+        }
+    }
+
+    /**
+     * @return the properties of the variable that the expressions read, or null if the variable is used as a whole
+     */
+    public Set<String> getReferencedProperties(final String variable) {
+        if (variables.contains(variable)) {
+            return null;
+        }
+        return properties.getOrDefault(variable, Set.of());
+    }
+
+    /**
+     * Evaluates the expressions and puts the values that are not null to the data map.
+     *
+     * @param resultMap the variables of the expressions
+     */
+    public void evaluate(final Map<String, Object> resultMap, final Map<String, Object> dataMap) {
+        for (final Field field : fields) {
+            final Object value = evaluate(field, resultMap);
+            if (value != null) {
+                dataMap.put(field.name, value);
+            }
+        }
+    }
+
+    protected Object evaluate(final Field field, final Map<String, Object> resultMap) {
+        if (StringUtil.isEmpty(field.expression)) {
+            return StringUtil.EMPTY;
+        }
+        if (resultMap.containsKey(field.expression)) {
+            return resultMap.get(field.expression);
+        }
+        if (field.path != null && resultMap.containsKey(field.path[0])) {
+            Object value = resultMap.get(field.path[0]);
+            int i = 1;
+            while (i < field.path.length && value instanceof final Map<?, ?> map) {
+                value = map.get(field.path[i]);
+                i++;
+            }
+            if (i == field.path.length) {
+                return value;
+            }
+        }
+        return getScriptEngine().evaluate(field.expression, resultMap);
+    }
+
+    protected ScriptEngine getScriptEngine() {
+        if (scriptEngine == null) {
+            scriptEngine = ComponentUtil.getScriptEngineFactory().getScriptEngine(scriptType);
+        }
+        return scriptEngine;
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptMapping [scriptType=" + scriptType + ", fields=" + fields + "]";
+    }
+
+    protected static class Field {
+        final String name;
+        final String expression;
+        // null if the expression is not a property path
+        final String[] path;
+
+        Field(final String name, final String expression) {
+            this.name = name;
+            this.expression = expression;
+            final String trimmed = expression != null ? expression.trim() : null;
+            path = trimmed != null && PROPERTY_PATH_PATTERN.matcher(trimmed).matches() ? trimmed.split("\\.") : null;
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + expression + (path != null ? " (path)" : "");
+        }
+    }
+}
@@ -22,13 +22,16 @@ import static org.codelibs.fess.ds.s3.LocalAmazonS3.getInstance;
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -39,6 +42,8 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import software.amazon.awssdk.services.s3.model.Bucket;
+
 public class AmazonS3ClientTest {
 
     private static LocalAmazonS3 local;
@@ -81,6 +86,26 @@ public class AmazonS3ClientTest {
         }
     }
 
+    @Test
+    public void test_getObjectsInParallel() {
+        for (final String bucketName : BUCKETS) {
+            final List<String> objects = Collections.synchronizedList(new ArrayList<>());
+            client.getObjects(bucketName, 1, 4, 3, object -> objects.add(object.key()));
+            assertThat(objects, hasItems(PATHS));
+            assertEquals(PATHS.length, objects.size());
+        }
+    }
+
+    @Test
+    public void test_getCommonPrefixes() {
+        for (final String bucketName : BUCKETS) {
+            final List<String> objects = new ArrayList<>();
+            final List<String> prefixes = client.getCommonPrefixes(bucketName, null, "/", 1, object -> objects.add(object.key()));
+            assertEquals(0, objects.size());
+            assertEquals(List.of("files/"), prefixes);
+        }
+    }
+
     @Test
     public void test_getObject() {
         for (final String bucketName : BUCKETS) {
@@ -94,6 +119,23 @@ public class AmazonS3ClientTest {
         }
     }
 
+    @Test
+    public void test_getObjectAsync() throws Exception {
+        final DataStoreParams params = local.getParams();
+        params.put(AmazonS3Client.ASYNC_FETCH, "true");
+        try (final AmazonS3Client asyncClient = new AmazonS3Client(params)) {
+            assertTrue(asyncClient.isAsync());
+            for (final String bucketName : BUCKETS) {
+                for (final Map.Entry<String, String> entry : FILE_MAP.entrySet()) {
+                    final ByteArrayOutputStream out =
+                            asyncClient.getObjectAsync(bucketName, entry.getKey(), response -> new ByteArrayOutputStream()).get();
+                    assertEquals(entry.getValue(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+                    assertNull(asyncClient.getObjectAsync(bucketName, entry.getKey(), response -> null).get());
+                }
+            }
+        }
+    }
+
     @Test
     public void test_getBucketsWithFilter() {
         final List<String> buckets = new ArrayList<>();
@@ -102,6 +144,23 @@ public class AmazonS3ClientTest {
         assertEquals("fess-0", buckets.get(0));
     }
 
+    @Test
+    public void test_getBucketsWithCreationDate() {
+        final List<Bucket> buckets = new ArrayList<>();
+        client.getBuckets(new String[] { "fess-0" }, buckets::add);
+        assertEquals(1, buckets.size());
+        assertNotNull(buckets.get(0).creationDate());
+    }
+
+    @Test
+    public void test_getBucketsWithMissingBucket() {
+        final List<String> buckets = new ArrayList<>();
+        client.getBuckets(new String[] { "fess-missing", "fess-1", "fess-0" }, bucket -> buckets.add(bucket.name()));
+        assertEquals(2, buckets.size());
+        assertEquals("fess-1", buckets.get(0));
+        assertEquals("fess-0", buckets.get(1));
+    }
+
     @Test
     public void test_close() {
         final AmazonS3Client testClient = local.getAmazonS3Client();
@@ -168,6 +227,36 @@ public class AmazonS3ClientTest {
         }
     }
 
+    @Test
+    public void test_getLongValue() {
+        final DataStoreParams params = new DataStoreParams();
+        params.put(AmazonS3Client.MULTIPART_SIZE, "1048576");
+        params.put(AmazonS3Client.MULTIPART_THRESHOLD, "-1");
+        params.put(AmazonS3Client.MULTIPART_THREADS, "4x");
+        params.put(AmazonS3Client.MULTIPART_RETRIES, "-1");
+        assertEquals(1048576L, AmazonS3Client.getLongValue(params, AmazonS3Client.MULTIPART_SIZE, 10L, 1L));
+        assertEquals(-1L, AmazonS3Client.getLongValue(params, AmazonS3Client.MULTIPART_THRESHOLD, 10L, Long.MIN_VALUE));
+        assertEquals(4, AmazonS3Client.getIntValue(params, AmazonS3Client.MULTIPART_THREADS, 4, 1));
+        assertEquals(3, AmazonS3Client.getIntValue(params, AmazonS3Client.MULTIPART_RETRIES, 3, 0));
+        assertEquals(5, AmazonS3Client.getIntValue(params, "missing", 5, 0));
+
+        params.put(AmazonS3Client.MULTIPART_SIZE, "0");
+        assertEquals(10L, AmazonS3Client.getLongValue(params, AmazonS3Client.MULTIPART_SIZE, 10L, 1L));
+    }
+
+    @Test
+    public void test_getDoubleValue() {
+        final DataStoreParams params = new DataStoreParams();
+        params.put(AmazonS3Client.MAX_LIST_RATE, "2.5");
+        params.put(AmazonS3Client.MAX_GET_RATE, "-1");
+        params.put(AmazonS3Client.MAX_BYTES_RATE, "1m");
+        params.put(AmazonS3Client.MAX_REQUESTS, "-10");
+        assertEquals(2.5d, AmazonS3Client.getDoubleValue(params, AmazonS3Client.MAX_LIST_RATE, 0d, 0d), 0d);
+        assertEquals(0d, AmazonS3Client.getDoubleValue(params, AmazonS3Client.MAX_GET_RATE, 0d, 0d), 0d);
+        assertEquals(0d, AmazonS3Client.getDoubleValue(params, AmazonS3Client.MAX_BYTES_RATE, 0d, 0d), 0d);
+        assertEquals(0L, AmazonS3Client.getLongValue(params, AmazonS3Client.MAX_REQUESTS, 0L, 0L));
+    }
+
     @Test
     public void test_customEndpoint() {
         final DataStoreParams params = local.getParams();
@@ -19,12 +19,15 @@ import static org.codelibs.fess.ds.s3.LocalAmazonS3.FILE_MAP;
 import static org.codelibs.fess.ds.s3.LocalAmazonS3.TEST_REGION;
 import static org.codelibs.fess.ds.s3.LocalAmazonS3.getInstance;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -34,16 +37,24 @@ import org.apache.logging.log4j.Logger;
 import org.apache.tika.io.FilenameUtils;
 import org.codelibs.fess.ds.callback.IndexUpdateCallback;
 import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.exception.DataStoreException;
+import org.codelibs.fess.helper.CrawlingInfoHelper;
+import org.codelibs.fess.helper.SystemHelper;
 import org.codelibs.fess.mylasta.direction.FessConfig;
 import org.codelibs.fess.opensearch.config.exentity.DataConfig;
 import org.codelibs.fess.util.ComponentUtil;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.lastaflute.di.core.factory.SingletonLaContainerFactory;
 
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.Bucket;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ObjectStorageClass;
+import software.amazon.awssdk.services.s3.model.S3Object;
 
 public class AmazonS3DataStoreTest {
 
@@ -52,6 +63,9 @@ public class AmazonS3DataStoreTest {
     private static LocalAmazonS3 local;
     private static AmazonS3DataStore dataStore;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @BeforeClass
     public static void setUp() throws Exception {
         local = getInstance();
@@ -167,6 +181,266 @@ public class AmazonS3DataStoreTest {
         }, paramMap, scriptMap, defaultDataMap);
     }
 
+    @Test
+    public void test_storeDataWithAsyncFetch() {
+        final DataConfig dataConfig = new DataConfig();
+        final DataStoreParams paramMap = local.getParams();
+        paramMap.put("async_fetch", "true");
+        paramMap.put("max_in_flight", "2");
+        final Map<String, String> scriptMap = new HashMap<>();
+        final Map<String, Object> defaultDataMap = new HashMap<>();
+
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        scriptMap.put(fessConfig.getIndexFieldUrl(), "object.url");
+        scriptMap.put(fessConfig.getIndexFieldContent(), "object.contents");
+
+        final AtomicInteger count = new AtomicInteger(0);
+        dataStore.storeData(dataConfig, new TestCallback() {
+            @Override
+            public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                assertNotNull(dataMap.get(fessConfig.getIndexFieldUrl()));
+                assertNotNull(dataMap.get(fessConfig.getIndexFieldContent()));
+                count.incrementAndGet();
+            }
+        }, paramMap, scriptMap, defaultDataMap);
+
+        assertEquals(LocalAmazonS3.BUCKETS.length * LocalAmazonS3.PATHS.length, count.get());
+    }
+
+    @Test
+    public void test_storeDataWithSniffMimeType() {
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final Map<String, String> scriptMap = new HashMap<>();
+        scriptMap.put(fessConfig.getIndexFieldUrl(), "object.url");
+        scriptMap.put(fessConfig.getIndexFieldContent(), "object.contents");
+
+        // small sniff size so that objects are sniffed by range requests
+        for (final String async : new String[] { "false", "true" }) {
+            final DataStoreParams paramMap = local.getParams();
+            paramMap.put("sniff_mimetype", "true");
+            paramMap.put("sniff_size", "4");
+            paramMap.put("supported_mimetypes", "text/plain");
+            paramMap.put("async_fetch", async);
+            final AtomicInteger count = new AtomicInteger(0);
+            dataStore.storeData(new DataConfig(), new TestCallback() {
+                @Override
+                public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                    count.incrementAndGet();
+                }
+            }, paramMap, scriptMap, new HashMap<>());
+            assertEquals(LocalAmazonS3.BUCKETS.length * LocalAmazonS3.PATHS.length, count.get());
+        }
+
+        for (final String sniffSize : new String[] { "4", "1000000" }) {
+            final DataStoreParams paramMap = local.getParams();
+            paramMap.put("sniff_mimetype", "true");
+            paramMap.put("sniff_size", sniffSize);
+            paramMap.put("supported_mimetypes", "application/pdf");
+            final AtomicInteger count = new AtomicInteger(0);
+            dataStore.storeData(new DataConfig(), new TestCallback() {
+                @Override
+                public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                    count.incrementAndGet();
+                }
+            }, paramMap, scriptMap, new HashMap<>());
+            assertEquals(0, count.get());
+        }
+    }
+
+    @Test
+    public void test_storeDataWithMetadataOnly() {
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final Map<String, String> scriptMap = new HashMap<>();
+        scriptMap.put(fessConfig.getIndexFieldUrl(), "object.url");
+        scriptMap.put(fessConfig.getIndexFieldTitle(), "object.key");
+        scriptMap.put(fessConfig.getIndexFieldContentLength(), "object.size");
+
+        final AtomicInteger count = new AtomicInteger(0);
+        dataStore.storeData(new DataConfig(), new TestCallback() {
+            @Override
+            public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                assertNotNull(dataMap.get(fessConfig.getIndexFieldUrl()));
+                assertNotNull(dataMap.get(fessConfig.getIndexFieldTitle()));
+                assertNotNull(dataMap.get(fessConfig.getIndexFieldContentLength()));
+                count.incrementAndGet();
+            }
+        }, local.getParams(), scriptMap, new HashMap<>());
+        assertEquals(LocalAmazonS3.BUCKETS.length * LocalAmazonS3.PATHS.length, count.get());
+    }
+
+    @Test
+    public void test_storeDataWithVirtualThreads() {
+        final DataConfig dataConfig = new DataConfig();
+        final DataStoreParams paramMap = local.getParams();
+        paramMap.put("executor_type", "virtual");
+        paramMap.put("fetch_threads", "100");
+        final Map<String, String> scriptMap = new HashMap<>();
+        final Map<String, Object> defaultDataMap = new HashMap<>();
+
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        scriptMap.put(fessConfig.getIndexFieldUrl(), "object.url");
+
+        final AtomicInteger count = new AtomicInteger(0);
+        dataStore.storeData(dataConfig, new TestCallback() {
+            @Override
+            public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                count.incrementAndGet();
+            }
+        }, paramMap, scriptMap, defaultDataMap);
+
+        assertEquals(LocalAmazonS3.BUCKETS.length * LocalAmazonS3.PATHS.length, count.get());
+    }
+
+    @Test
+    public void test_storeDataIncremental() {
+        final DataConfig dataConfig = new DataConfig();
+        final Map<String, String> scriptMap = new HashMap<>();
+        final Map<String, Object> defaultDataMap = new HashMap<>();
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        scriptMap.put(fessConfig.getIndexFieldUrl(), "object.url");
+
+        final AtomicInteger count = new AtomicInteger(0);
+        final TestCallback callback = new TestCallback() {
+            @Override
+            public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                count.incrementAndGet();
+            }
+        };
+
+        for (int i = 0; i < 2; i++) {
+            final DataStoreParams paramMap = local.getParams();
+            paramMap.put("incremental", "true");
+            paramMap.put("manifest_dir", tempFolder.getRoot().getAbsolutePath());
+            paramMap.put("delete_old_docs", "false");
+            count.set(0);
+            dataStore.storeData(dataConfig, callback, paramMap, scriptMap, defaultDataMap);
+            // unchanged objects are skipped by the second crawl
+            assertEquals(i == 0 ? LocalAmazonS3.BUCKETS.length * LocalAmazonS3.PATHS.length : 0, count.get());
+        }
+    }
+
+    @Test
+    public void test_storeIncrementalWithDeleteOldDocs() {
+        final AtomicInteger count = new AtomicInteger(0);
+        final TestCallback callback = new TestCallback() {
+            @Override
+            public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                count.incrementAndGet();
+            }
+        };
+
+        // Fess reads delete_old_docs from the parameters of the data config, which store() passes as a copy
+        final DataConfig dataConfig = createDataConfig("incremental=true\nmanifest_dir=" + tempFolder.getRoot().getAbsolutePath());
+        try {
+            dataStore.store(dataConfig, callback, local.getParams());
+            fail();
+        } catch (final DataStoreException e) {
+            assertTrue(e.getMessage().contains("delete_old_docs"));
+        }
+        assertEquals(0, count.get());
+
+        dataConfig.setHandlerParameter(dataConfig.getHandlerParameter() + "\ndelete_old_docs=false");
+        dataStore.store(dataConfig, callback, local.getParams());
+        assertEquals(LocalAmazonS3.BUCKETS.length * LocalAmazonS3.PATHS.length, count.get());
+    }
+
+    @Test
+    public void test_storeEventsWithDeleteOldDocs() {
+        final AtomicInteger count = new AtomicInteger(0);
+        final TestCallback callback = new TestCallback() {
+            @Override
+            public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                count.incrementAndGet();
+            }
+        };
+
+        final DataConfig dataConfig = createDataConfig("event_source=file\nevent_path=" + tempFolder.getRoot().getAbsolutePath());
+        try {
+            dataStore.store(dataConfig, callback, local.getParams());
+            fail();
+        } catch (final DataStoreException e) {
+            assertTrue(e.getMessage().contains("delete_old_docs"));
+        }
+
+        dataConfig.setHandlerParameter(dataConfig.getHandlerParameter() + "\ndelete_old_docs=false");
+        dataStore.store(dataConfig, callback, local.getParams());
+        // no events
+        assertEquals(0, count.get());
+    }
+
+    @Test
+    public void test_storeIncrementalEvents() throws Exception {
+        final AtomicInteger count = new AtomicInteger(0);
+        final TestCallback callback = new TestCallback() {
+            @Override
+            public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                assertNotNull(dataMap.get(ComponentUtil.getFessConfig().getIndexFieldUrl()));
+                count.incrementAndGet();
+            }
+        };
+
+        final Path dir = tempFolder.newFolder("events").toPath();
+        Files.writeString(dir.resolve("001.json"), """
+                {"Records":[{"eventVersion":"2.1","eventSource":"aws:s3","eventTime":"2024-01-01T00:00:00.000Z",
+                 "eventName":"ObjectCreated:Put","s3":{"bucket":{"name":"fess-0"},
+                 "object":{"key":"files/sample-0.txt","size":10,"eTag":"abc","sequencer":"0A"}}}]}""");
+        // incremental is ignored, as the event crawl has no manifest
+        final DataConfig dataConfig =
+                createDataConfig("event_source=file\nevent_path=" + dir + "\nincremental=true\ndelete_old_docs=false");
+        dataStore.store(dataConfig, callback, local.getParams());
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void test_storeRequiresDeleteOldDocs() {
+        final TestCallback callback = new TestCallback() {
+            @Override
+            public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                fail();
+            }
+        };
+        for (final String parameter : new String[] { "checkpoint=true", "max_crawl_duration=60000", "shard_count=2\nshard_index=1" }) {
+            try {
+                dataStore.store(createDataConfig(parameter), callback, local.getParams());
+                fail(parameter);
+            } catch (final DataStoreException e) {
+                assertTrue(e.getMessage().contains("delete_old_docs"));
+            }
+        }
+    }
+
+    @Test
+    public void test_storeShardedEvents() {
+        final TestCallback callback = new TestCallback() {
+            @Override
+            public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                fail();
+            }
+        };
+        try {
+            dataStore.store(createDataConfig("event_source=file\nevent_path=" + tempFolder.getRoot().getAbsolutePath()
+                    + "\nshard_count=2\nshard_index=1\ndelete_old_docs=false"), callback, local.getParams());
+            fail();
+        } catch (final DataStoreException e) {
+            assertTrue(e.getMessage().contains("shard_count"));
+        }
+    }
+
+    private static DataConfig createDataConfig(final String handlerParameter) {
+        if (!SingletonLaContainerFactory.getContainer().hasComponentDef("systemHelper")) {
+            // the helpers used by AbstractDataStore.store()
+            SingletonLaContainerFactory.getContainer().register(new SystemHelper(), "systemHelper");
+            SingletonLaContainerFactory.getContainer().register(new CrawlingInfoHelper(), "crawlingInfoHelper");
+        }
+        final DataConfig dataConfig = new DataConfig();
+        dataConfig.setHandlerParameter(handlerParameter);
+        dataConfig.setHandlerScript(ComponentUtil.getFessConfig().getIndexFieldUrl() + "=object.url");
+        dataConfig.setBoost(1.0f);
+        dataConfig.setPermissions(new String[0]);
+        dataConfig.setVirtualHosts(new String[0]);
+        return dataConfig;
+    }
+
     @Test
     public void test_includePatternParameter() {
         // Test that include_pattern parameter can be set
@@ -181,6 +455,28 @@ public class AmazonS3DataStoreTest {
         assertEquals(".*sample-0.*", paramMap.getAsString("include_pattern"));
     }
 
+    @Test
+    public void test_storeDataWithPrefixes() {
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final Map<String, String> scriptMap = new HashMap<>();
+        scriptMap.put(fessConfig.getIndexFieldUrl(), "object.url");
+
+        for (final String parallelism : new String[] { "1", "2" }) {
+            final DataStoreParams paramMap = local.getParams();
+            paramMap.put("prefixes", "files/sample-0, other/");
+            paramMap.put("listing_parallelism", parallelism);
+            final AtomicInteger count = new AtomicInteger(0);
+            dataStore.storeData(new DataConfig(), new TestCallback() {
+                @Override
+                public void test(DataStoreParams paramMap, Map<String, Object> dataMap) {
+                    assertTrue(((String) dataMap.get(fessConfig.getIndexFieldUrl())).endsWith("/files/sample-0.txt"));
+                    count.incrementAndGet();
+                }
+            }, paramMap, scriptMap, new HashMap<>());
+            assertEquals(LocalAmazonS3.BUCKETS.length, count.get());
+        }
+    }
+
     @Test
     public void test_excludePatternParameter() {
         // Test that exclude_pattern parameter can be set
@@ -321,6 +617,31 @@ public class AmazonS3DataStoreTest {
         });
     }
 
+    @Test
+    public void test_finishStoppedObject() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        final AmazonS3DataStore.Config config = new AmazonS3DataStore.Config(paramMap);
+        final ScriptMapping scriptMapping = new ScriptMapping(Map.of(), null);
+        final Bucket bucket = Bucket.builder().name("bucket").build();
+        try (config.extractor; final CrawlCheckpoint checkpoint = new CrawlCheckpoint(tempFolder.newFolder("checkpoint").toPath())) {
+            final CrawlCheckpoint.Listing listing = checkpoint.open("bucket", null, false);
+            assertTrue(listing.listed("a.txt"));
+            assertTrue(listing.listed("b.txt"));
+
+            // a.txt is not fetched because the crawl used up its requests
+            final AmazonS3DataStore.ObjectTask stopped = new AmazonS3DataStore.ObjectTask(new DataConfig(), null, paramMap,
+                    scriptMapping, Map.of(), config, null, null, checkpoint, bucket, S3Object.builder().key("a.txt").build());
+            stopped.stopped = true;
+            dataStore.finishObject(stopped);
+            dataStore.finishObject(new AmazonS3DataStore.ObjectTask(new DataConfig(), null, paramMap, scriptMapping, Map.of(), config,
+                    null, null, checkpoint, bucket, S3Object.builder().key("b.txt").build()));
+
+            // the checkpoint does not move past a.txt
+            assertNull(listing.getStartAfter());
+            assertEquals(1L, config.stoppedObjects.sum());
+        }
+    }
+
     @Test
     public void test_configDefaults() {
         final DataStoreParams paramMap = new DataStoreParams();
@@ -353,6 +674,24 @@ public class AmazonS3DataStoreTest {
         }, paramMap, scriptMap, defaultDataMap);
     }
 
+    @Test
+    public void test_isTargetObject() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("supported_mimetypes", "text/.*");
+        final AmazonS3DataStore.Config config = new AmazonS3DataStore.Config(paramMap);
+
+        assertTrue(dataStore.isTargetObject(config, S3Object.builder().key("dir/sample.txt").size(10L).build()));
+        assertTrue(dataStore.isTargetObject(config, S3Object.builder().key("dir/sample").size(10L).build()));
+        assertFalse(dataStore.isTargetObject(config, S3Object.builder().key("dir/").size(0L).build()));
+        assertFalse(dataStore.isTargetObject(config, S3Object.builder().key("dir/sample.zip").size(10L).build()));
+        assertFalse(dataStore.isTargetObject(config,
+                S3Object.builder().key("dir/sample.txt").size(10L).storageClass(ObjectStorageClass.GLACIER).build()));
+        assertFalse(dataStore.isTargetObject(config,
+                S3Object.builder().key("dir/sample.txt").size(10L).storageClass(ObjectStorageClass.DEEP_ARCHIVE).build()));
+        assertTrue(dataStore.isTargetObject(config,
+                S3Object.builder().key("dir/sample.txt").size(10L).storageClass(ObjectStorageClass.STANDARD_IA).build()));
+    }
+
     @Test
     public void test_ignoreErrorParameter() {
         // Test that ignore_error parameter can be set
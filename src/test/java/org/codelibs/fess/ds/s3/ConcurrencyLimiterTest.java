@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void test_getPartition() {
+        assertEquals("GET bucket/dir/", ConcurrencyLimiter.getPartition("GET", "bucket", "dir/sub/file.txt"));
+        assertEquals("GET bucket/", ConcurrencyLimiter.getPartition("GET", "bucket", "file.txt"));
+        assertEquals("LIST bucket/", ConcurrencyLimiter.getPartition("LIST", "bucket", null));
+        assertEquals("LIST bucket/dir/", ConcurrencyLimiter.getPartition("LIST", "bucket", "dir/"));
+    }
+
+    @Test
+    public void test_acquire() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 4);
+        final ConcurrencyLimiter.Permit p1 = limiter.acquire("GET bucket/a/");
+        // another partition has its own limit
+        limiter.acquire("GET bucket/b/").release();
+
+        final CompletableFuture<ConcurrencyLimiter.Permit> p2 = CompletableFuture.supplyAsync(() -> limiter.acquire("GET bucket/a/"));
+        try {
+            p2.get(200, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            // expected
+        }
+        assertFalse(p2.isDone());
+        p1.release();
+        // a permit is released once
+        p1.release();
+        p2.get(10, TimeUnit.SECONDS).release();
+    }
+
+    @Test
+    public void test_increase() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 2, 4);
+        final String partition = "GET bucket/";
+        final ConcurrencyLimiter.Permit p1 = limiter.acquire(partition);
+        final ConcurrencyLimiter.Permit p2 = limiter.acquire(partition);
+        int samples = 0;
+        while (limiter.getLimit(partition) < 3) {
+            p1.succeeded(MILLIS);
+            samples++;
+        }
+        // the limit grows by one for each window of requests with a flat latency
+        assertEquals(3, samples);
+        final ConcurrencyLimiter.Permit p3 = limiter.acquire(partition);
+        while (limiter.getLimit(partition) < 4) {
+            p1.succeeded(MILLIS);
+        }
+        final ConcurrencyLimiter.Permit p4 = limiter.acquire(partition);
+        for (int i = 0; i < 100; i++) {
+            p1.succeeded(MILLIS);
+        }
+        // never above the maximum
+        assertEquals(4, limiter.getLimit(partition));
+        p1.release();
+        p2.release();
+        p3.release();
+        p4.release();
+
+        // the limit does not grow while it is not used up
+        final ConcurrencyLimiter idle = new ConcurrencyLimiter(1, 2, 4);
+        final ConcurrencyLimiter.Permit permit = idle.acquire(partition);
+        for (int i = 0; i < 100; i++) {
+            permit.succeeded(MILLIS);
+        }
+        assertEquals(2, idle.getLimit(partition));
+    }
+
+    @Test
+    public void test_decrease() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 32, 64);
+        final String partition = "GET bucket/";
+        final ConcurrencyLimiter.Permit permit = limiter.acquire(partition);
+        permit.succeeded(10_000 * MILLIS);
+        limiter.throttled(partition);
+        assertEquals(16, limiter.getLimit(partition));
+        // the retries of the same burst do not cut the limit again
+        limiter.throttled(partition);
+        assertEquals(16, limiter.getLimit(partition));
+
+        final ConcurrencyLimiter fast = new ConcurrencyLimiter(2, 32, 64);
+        final ConcurrencyLimiter.Permit p = fast.acquire(partition);
+        p.succeeded(MILLIS);
+        for (int i = 0; i < 10; i++) {
+            fast.throttled(partition);
+            sleep(5);
+        }
+        // never below the minimum
+        assertEquals(2, fast.getLimit(partition));
+
+        // a rising latency shrinks the limit
+        final ConcurrencyLimiter queued = new ConcurrencyLimiter(2, 32, 64);
+        final ConcurrencyLimiter.Permit q = queued.acquire(partition);
+        q.succeeded(MILLIS);
+        q.succeeded(10 * MILLIS);
+        assertEquals(32, queued.getLimit(partition));
+        q.succeeded(10 * MILLIS);
+        assertTrue(queued.getLimit(partition) < 32);
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class ContentBudgetTest {
+
+    @Test
+    public void test_reserve() throws Exception {
+        final ContentBudget budget = new ContentBudget(100, 1000);
+        final ContentBudget.Reservation r1 = budget.reserve(60, 0);
+        final ContentBudget.Reservation r2 = budget.reserve(40, 500);
+        assertEquals(100, budget.getMemoryUsed());
+        assertEquals(500, budget.getDiskUsed());
+
+        // waits until the memory is released
+        final CompletableFuture<ContentBudget.Reservation> r3 = CompletableFuture.supplyAsync(() -> budget.reserve(50, 0));
+        try {
+            r3.get(200, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            // expected
+        }
+        assertFalse(r3.isDone());
+        budget.release(r1);
+        r3.get(10, TimeUnit.SECONDS);
+        assertEquals(90, budget.getMemoryUsed());
+
+        budget.release(r2);
+        budget.release(r3.get());
+        budget.release(null);
+        assertEquals(0, budget.getMemoryUsed());
+        assertEquals(0, budget.getDiskUsed());
+    }
+
+    @Test
+    public void test_oversized() throws Exception {
+        final ContentBudget budget = new ContentBudget(100, 1000);
+        // a reservation over the limit is admitted when nothing else is reserved
+        final ContentBudget.Reservation r1 = budget.reserve(0, 5000);
+        assertEquals(5000, budget.getDiskUsed());
+        final CompletableFuture<ContentBudget.Reservation> r2 = CompletableFuture.supplyAsync(() -> budget.reserve(10, 10));
+        try {
+            r2.get(200, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            // expected
+        }
+        assertFalse(r2.isDone());
+        budget.release(r1);
+        assertEquals(10, r2.get(10, TimeUnit.SECONDS).disk);
+
+        final ContentBudget unlimited = new ContentBudget(0, -1);
+        unlimited.reserve(Long.MAX_VALUE / 2, Long.MAX_VALUE / 2);
+        assertNotNull(unlimited.reserve(Long.MAX_VALUE / 4, Long.MAX_VALUE / 4));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.fess.crawler.exception.ExecutionTimeoutException;
+import org.codelibs.fess.crawler.exception.MaxLengthExceededException;
+import org.codelibs.fess.exception.DataStoreException;
+import org.junit.Test;
+
+public class ContentExtractorTest {
+
+    @Test
+    public void test_limits() {
+        final Map<String, Long> limits = ContentExtractor.parseLimits(" application/pdf:100, text/*:10 ,");
+        assertEquals(2, limits.size());
+        assertEquals(100, ContentExtractor.getLimit(limits, "application/pdf", 1));
+        assertEquals(100, ContentExtractor.getLimit(limits, "Application/PDF", 1));
+        assertEquals(10, ContentExtractor.getLimit(limits, "text/plain", 1));
+        assertEquals(1, ContentExtractor.getLimit(limits, "application/zip", 1));
+        assertEquals(1, ContentExtractor.getLimit(limits, null, 1));
+        assertTrue(ContentExtractor.parseLimits("").isEmpty());
+        try {
+            ContentExtractor.parseLimits("application/pdf");
+            fail();
+        } catch (final DataStoreException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_extract() throws Exception {
+        try (final ContentExtractor extractor =
+                new ContentExtractor(1, 0, Collections.emptyMap(), 0, ContentExtractor.parseLimits("application/pdf:3"))) {
+            assertEquals("abcd", extractor.extract("text/plain", 4, new ByteArrayInputStream("abcd".getBytes()), in -> read(in)));
+            try {
+                extractor.extract("application/pdf", 4, new ByteArrayInputStream("abcd".getBytes()), in -> read(in));
+                fail();
+            } catch (final MaxLengthExceededException e) {
+                // expected
+            }
+            try {
+                extractor.extract("text/plain", 4, new ByteArrayInputStream("abcd".getBytes()), in -> {
+                    throw new IllegalStateException("broken");
+                });
+                fail();
+            } catch (final IllegalStateException e) {
+                assertEquals("broken", e.getMessage());
+            }
+            assertEquals(0, extractor.getRunaways());
+        }
+    }
+
+    @Test
+    public void test_timeout() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        try (final ContentExtractor extractor =
+                new ContentExtractor(1, 0, ContentExtractor.parseLimits("application/pdf:100"), 0, Collections.emptyMap())) {
+            try {
+                // a parser that ignores interrupts
+                extractor.extract("application/pdf", 4, new ByteArrayInputStream("abcd".getBytes()), in -> {
+                    while (true) {
+                        try {
+                            if (blocked.await(10, TimeUnit.SECONDS)) {
+                                return "late";
+                            }
+                        } catch (final InterruptedException e) {
+                            // ignored
+                        }
+                    }
+                });
+                fail();
+            } catch (final ExecutionTimeoutException e) {
+                // expected
+            }
+            assertEquals(1, extractor.getRunaways());
+            // the permit of the cancelled extraction is given back
+            assertEquals("abcd", extractor.extract("text/plain", 4, new ByteArrayInputStream("abcd".getBytes()), in -> read(in)));
+
+            blocked.countDown();
+            for (int i = 0; i < 100 && extractor.getRunaways() > 0; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, extractor.getRunaways());
+            assertEquals(1, extractor.permits.availablePermits());
+        }
+    }
+
+    private static String read(final InputStream in) {
+        try {
+            return new String(in.readAllBytes());
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CrawlCheckpointTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void test_resume() throws Exception {
+        final Path directory = tempFolder.getRoot().toPath().resolve("checkpoint");
+        try (CrawlCheckpoint checkpoint = new CrawlCheckpoint(directory)) {
+            assertFalse(checkpoint.isResumed("bucket"));
+            final CrawlCheckpoint.Listing listing = checkpoint.open("bucket", "dir/", false);
+            assertNull(listing.getStartAfter());
+            assertTrue(listing.listed("dir/a"));
+            assertTrue(listing.listed("dir/b"));
+            assertTrue(listing.listed("dir/c"));
+            // the objects finish in any order
+            checkpoint.done("bucket", "dir/b");
+            assertNull(listing.getStartAfter());
+            checkpoint.done("bucket", "dir/a");
+            assertEquals("dir/b", listing.getStartAfter());
+
+            final CrawlCheckpoint.Listing completed = checkpoint.open("bucket", "other/", false);
+            assertTrue(completed.listed("other/a"));
+            completed.finish();
+            assertFalse(completed.isCompleted());
+            checkpoint.done("bucket", "other/a");
+            assertTrue(completed.isCompleted());
+            checkpoint.save();
+        }
+        assertTrue(Files.exists(directory.resolve("bucket.checkpoint")));
+
+        try (CrawlCheckpoint checkpoint = new CrawlCheckpoint(directory)) {
+            assertTrue(checkpoint.isResumed("bucket"));
+            final CrawlCheckpoint.Listing listing = checkpoint.open("bucket", "dir/", false);
+            assertEquals("dir/b", listing.getStartAfter());
+            assertFalse(listing.isCompleted());
+            assertTrue(checkpoint.open("bucket", "other/", false).isCompleted());
+            // a delimiter call of the same prefix is another listing
+            assertFalse(checkpoint.open("bucket", "dir/", true).isCompleted());
+            checkpoint.clear();
+        }
+        assertFalse(Files.exists(directory.resolve("bucket.checkpoint")));
+    }
+
+    @Test
+    public void test_listed() {
+        try (CrawlCheckpoint checkpoint = new CrawlCheckpoint(tempFolder.getRoot().toPath())) {
+            final CrawlCheckpoint.Listing listing = checkpoint.open("bucket", null, true);
+            assertTrue(listing.listed("b"));
+            checkpoint.done("bucket", "b");
+            // the objects up to the checkpoint are listed again by a delimiter call
+            assertFalse(listing.listed("a"));
+            assertFalse(listing.listed("b"));
+            // keys are in the order of their UTF-8 bytes
+            assertTrue(listing.listed("～"));
+            checkpoint.done("bucket", "～");
+            assertTrue(listing.listed("😀"));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.codelibs.fess.crawler.exception.ExecutionTimeoutException;
+import org.junit.Test;
+
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+public class CrawlMetricsTest {
+
+    @Test
+    public void test_record() {
+        final CrawlMetrics metrics = new CrawlMetrics();
+        final long now = System.nanoTime();
+        for (int i = 1; i <= 100; i++) {
+            metrics.record(CrawlMetrics.Stage.GET, now - TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        metrics.recordError(CrawlMetrics.Stage.GET, now, S3Exception.builder().statusCode(503).message("Slow Down").build());
+        metrics.recordError(CrawlMetrics.Stage.GET, now, new IllegalStateException());
+        metrics.addDownloadedBytes(1000);
+        metrics.objectIndexed();
+        metrics.objectDiscarded();
+        metrics.objectFailed();
+
+        final CrawlMetricsMXBean.StageStats stats = metrics.getStageStats(CrawlMetrics.Stage.GET);
+        assertEquals(102, stats.getCount());
+        assertEquals(2, stats.getErrors());
+        // the percentiles are accurate to a quarter of a power of two
+        assertTrue(stats.getP50Millis() >= 48 && stats.getP50Millis() <= 64);
+        assertTrue(stats.getP99Millis() >= 99 && stats.getP99Millis() <= 128);
+        assertTrue(stats.getMaxMillis() >= 100);
+        assertEquals(1, metrics.getThrottledRequests());
+        assertEquals(1000, metrics.getDownloadedBytes());
+        assertEquals(1, metrics.getIndexedObjects());
+        assertEquals(1, metrics.getDiscardedObjects());
+        assertEquals(1, metrics.getFailedObjects());
+        assertEquals(1, metrics.getStages().size());
+        assertTrue(metrics.getSummary().contains("get={count=102,errors=2,"));
+    }
+
+    @Test
+    public void test_recordExtraction() {
+        final CrawlMetrics metrics = new CrawlMetrics();
+        final long now = System.nanoTime();
+        metrics.recordExtraction("text/plain", now - TimeUnit.MILLISECONDS.toNanos(1), null);
+        metrics.recordExtraction("application/pdf", now - TimeUnit.MILLISECONDS.toNanos(100), null);
+        metrics.recordExtraction("application/pdf", now - TimeUnit.MILLISECONDS.toNanos(300),
+                new ExecutionTimeoutException("timed out"));
+        metrics.recordExtraction(null, now, new IllegalStateException());
+
+        final Map<String, CrawlMetricsMXBean.StageStats> extractions = metrics.getExtractions();
+        assertEquals("application/pdf", extractions.keySet().iterator().next());
+        assertEquals(2, extractions.get("application/pdf").getCount());
+        assertEquals(1, extractions.get("application/pdf").getErrors());
+        assertEquals(1, extractions.get("unknown").getErrors());
+        assertEquals(1, metrics.getTimedOutExtractions());
+        assertTrue(metrics.getSummary().contains("extractTime={application/pdf="));
+        assertTrue(metrics.getSummary().contains("extractTimeouts=1"));
+    }
+
+    @Test
+    public void test_timerBuckets() {
+        for (long nanos = 0; nanos < 100_000; nanos++) {
+            final int index = CrawlMetrics.Timer.getIndex(nanos);
+            assertTrue(nanos <= CrawlMetrics.Timer.getUpperBound(index));
+            assertTrue(index == 0 || nanos > CrawlMetrics.Timer.getUpperBound(index - 1));
+        }
+        assertTrue(CrawlMetrics.Timer.getIndex(Long.MAX_VALUE) < 64 * CrawlMetrics.Timer.SUB_BUCKETS);
+    }
+
+    @Test
+    public void test_register() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("org.codelibs.fess.ds.s3:type=CrawlMetrics,name=\"test\"");
+        final CrawlMetrics metrics = new CrawlMetrics();
+        metrics.register("test");
+        try {
+            metrics.objectIndexed();
+            metrics.record(CrawlMetrics.Stage.STORE, System.nanoTime());
+            assertEquals(1L, server.getAttribute(name, "IndexedObjects"));
+            final TabularData stages = (TabularData) server.getAttribute(name, "Stages");
+            final CompositeData store = (CompositeData) stages.get(new Object[] { "store" }).get("value");
+            assertEquals(1L, store.get("count"));
+        } finally {
+            metrics.close();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class CrawlPipelineTest {
+
+    @Test
+    public void test_stages() throws Exception {
+        final AtomicInteger stored = new AtomicInteger();
+        final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        try (final CrawlPipeline pipeline = new CrawlPipeline(2, 2, 1, 1, 1, 1)) {
+            for (int i = 0; i < 100; i++) {
+                pipeline.fetch(() -> {
+                    threadNames.add(Thread.currentThread().getName());
+                    pipeline.extract(() -> {
+                        threadNames.add(Thread.currentThread().getName());
+                        pipeline.store(() -> {
+                            threadNames.add(Thread.currentThread().getName());
+                            stored.incrementAndGet();
+                        });
+                    });
+                });
+            }
+            assertTrue(pipeline.shutdown(10, TimeUnit.SECONDS));
+        }
+        assertEquals(100, stored.get());
+        assertFalse(threadNames.contains(Thread.currentThread().getName()));
+        assertTrue(threadNames.contains("s3-fetch-1"));
+        assertTrue(threadNames.contains("s3-extract-1"));
+        assertTrue(threadNames.contains("s3-store-1"));
+    }
+
+    @Test
+    public void test_virtualThreads() throws Exception {
+        final AtomicInteger stored = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final Set<Boolean> virtual = ConcurrentHashMap.newKeySet();
+        try (final CrawlPipeline pipeline = new CrawlPipeline(true, 100, 0, 2, 0, 1, 0, 100)) {
+            for (int i = 0; i < 500; i++) {
+                pipeline.fetch(() -> {
+                    virtual.add(Thread.currentThread().isVirtual());
+                    pipeline.extract(() -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        running.decrementAndGet();
+                        pipeline.store(() -> stored.incrementAndGet());
+                    });
+                });
+            }
+            assertTrue(pipeline.shutdown(10, TimeUnit.SECONDS));
+        }
+        assertEquals(500, stored.get());
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(Set.of(Boolean.TRUE), virtual);
+    }
+
+    @Test
+    public void test_fetchAsync() throws Exception {
+        final AtomicInteger stored = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final ExecutorService server = Executors.newFixedThreadPool(8);
+        try (final CrawlPipeline pipeline = new CrawlPipeline(1, 1, 1, 1, 1, 1, 3)) {
+            for (int i = 0; i < 50; i++) {
+                pipeline.fetch(() -> pipeline.fetchAsync(() -> CompletableFuture.supplyAsync(() -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(5L);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    inFlight.decrementAndGet();
+                    return "ok";
+                }, server), (result, t) -> pipeline.extract(() -> stored.incrementAndGet())));
+            }
+            assertTrue(pipeline.shutdown(10, TimeUnit.SECONDS));
+        } finally {
+            server.shutdownNow();
+        }
+        assertEquals(50, stored.get());
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void test_backpressure() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger submitted = new AtomicInteger();
+        try (final CrawlPipeline pipeline = new CrawlPipeline(1, 1, 1, 1, 1, 1)) {
+            final Thread producer = new Thread(() -> {
+                for (int i = 0; i < 3; i++) {
+                    pipeline.fetch(() -> {
+                        try {
+                            latch.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                    submitted.incrementAndGet();
+                }
+            });
+            producer.start();
+            // one running and one queued, so the third submission waits
+            Thread.sleep(500L);
+            assertEquals(2, submitted.get());
+            latch.countDown();
+            producer.join(5000L);
+            assertEquals(3, submitted.get());
+            assertTrue(pipeline.shutdown(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void test_shutdownTimeout() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Runnable blocked = () -> {
+            try {
+                latch.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try (final CrawlPipeline pipeline = new CrawlPipeline(1, 1, 1, 1, 1, 1)) {
+            pipeline.fetch(blocked);
+            pipeline.extract(blocked);
+            pipeline.store(blocked);
+            final long start = System.nanoTime();
+            assertFalse(pipeline.shutdown(500, TimeUnit.MILLISECONDS));
+            // the timeout covers all stages, not each of them
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500L);
+        } finally {
+            latch.countDown();
+        }
+    }
+}
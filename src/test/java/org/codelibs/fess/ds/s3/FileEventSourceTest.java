@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codelibs.fess.entity.DataStoreParams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+public class FileEventSourceTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static String record(final String eventName, final String key, final String sequencer) {
+        return """
+                {"eventVersion":"2.1","eventSource":"aws:s3","eventTime":"2024-01-01T00:00:00.000Z","eventName":"%s",
+                 "s3":{"bucket":{"name":"fess-0"},"object":{"key":"%s","size":10,"eTag":"abc","sequencer":"%s"}}}"""
+                .formatted(eventName, key, sequencer);
+    }
+
+    @Test
+    public void test_read() throws Exception {
+        final Path dir = tempFolder.newFolder("events").toPath();
+        Files.writeString(dir.resolve("001.json"), "{\"Records\":[" + record("ObjectCreated:Put", "docs/a+b%2Bc.txt", "0A") + ","
+                + record("ObjectRemoved:Delete", "docs/d.txt", "0B") + "]}");
+        // SQS messages, one per line
+        final String body = ("{\"Records\":[" + record("ObjectCreated:Copy", "docs/e.txt", "0C") + "]}").replace("\"", "\\\"")
+                .replace("\n", "");
+        Files.writeString(dir.resolve("002.json"), "{\"MessageId\":\"1\",\"Body\":\"" + body + "\"}\n"
+                + "{\"MessageId\":\"2\",\"Body\":\"{\\\"Service\\\":\\\"Amazon S3\\\",\\\"Event\\\":\\\"s3:TestEvent\\\"}\"}\n");
+
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("event_path", dir.toString());
+        try (FileEventSource source = new FileEventSource(paramMap)) {
+            final List<ObjectEvent> events = new ArrayList<>();
+            source.read(events::add);
+            assertEquals(3, events.size());
+            assertEquals("docs/a b+c.txt", events.get(0).getKey());
+            assertFalse(events.get(0).isRemoved());
+            assertTrue(events.get(1).isRemoved());
+            assertEquals("ObjectCreated:Copy", events.get(2).getEventName());
+
+            final S3Object object = events.get(0).toObject();
+            assertEquals("\"abc\"", object.eTag());
+            assertEquals(10L, object.size().longValue());
+            assertEquals(Instant.parse("2024-01-01T00:00:00Z"), object.lastModified());
+
+            source.commit();
+        }
+        assertTrue(Files.exists(dir.resolve("001.json.done")));
+        assertTrue(Files.exists(dir.resolve("002.json.done")));
+
+        try (FileEventSource source = new FileEventSource(paramMap)) {
+            final List<ObjectEvent> events = new ArrayList<>();
+            source.read(events::add);
+            assertTrue(events.isEmpty());
+        }
+    }
+
+    @Test
+    public void test_isAfter() {
+        final ObjectEvent e1 = new ObjectEvent("ObjectCreated:Put", "b", "k", 1L, null, Instant.ofEpochSecond(2), "0055AED6DCD90281E5");
+        final ObjectEvent e2 =
+                new ObjectEvent("ObjectRemoved:Delete", "b", "k", null, null, Instant.ofEpochSecond(1), "0055AED6DCD90281E6");
+        final ObjectEvent e3 = new ObjectEvent("ObjectCreated:Put", "b", "k", 1L, null, Instant.ofEpochSecond(3), "0055AED6DCD90281E");
+        assertTrue(e2.isAfter(e1));
+        assertFalse(e1.isAfter(e2));
+        // shorter sequencers are padded with zeros
+        assertFalse(e3.isAfter(e1));
+        assertNull(e2.toObject().size());
+    }
+}
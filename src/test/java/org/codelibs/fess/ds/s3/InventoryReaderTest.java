@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.codelibs.fess.exception.DataStoreException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+public class InventoryReaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String SCHEMA = "Bucket, Key, VersionId, IsLatest, IsDeleteMarker, Size, LastModifiedDate, ETag, StorageClass";
+
+    @Test
+    public void test_getObjects() throws Exception {
+        final Path root = tempFolder.getRoot().toPath();
+        final Path manifestPath = root.resolve("inventory/fess-0/config/2024-01-01T00-00Z/manifest.json");
+        Files.createDirectories(manifestPath.getParent());
+        Files.writeString(manifestPath, """
+                {
+                  "sourceBucket" : "fess-0",
+                  "destinationBucket" : "arn:aws:s3:::inventory-bucket",
+                  "version" : "2016-11-30",
+                  "fileFormat" : "CSV",
+                  "fileSchema" : "%s",
+                  "files" : [ {
+                    "key" : "inventory/fess-0/config/data/file-0.csv.gz"
+                  }, {
+                    "key" : "inventory/fess-0/config/data/file-1.csv.gz"
+                  } ]
+                }
+                """.formatted(SCHEMA));
+        writeFile(root.resolve("inventory/fess-0/config/data/file-0.csv.gz"), //
+                "\"fess-0\",\"docs/a.txt\",\"\",\"true\",\"false\",\"10\",\"2024-01-01T00:00:00.000Z\",\"abc\",\"STANDARD\"",
+                "\"fess-0\",\"docs/b%20c%2Bd.txt\",\"\",\"true\",\"false\",\"20\",\"2024-01-02T00:00:00.000Z\",\"def\",\"GLACIER\"");
+        writeFile(root.resolve("inventory/fess-0/config/data/file-1.csv.gz"), //
+                "\"fess-0\",\"docs/old.txt\",\"v1\",\"false\",\"false\",\"30\",\"2024-01-01T00:00:00.000Z\",\"ghi\",\"STANDARD\"",
+                "\"fess-0\",\"docs/deleted.txt\",\"v2\",\"true\",\"true\",\"\",\"2024-01-03T00:00:00.000Z\",\"\",\"\"",
+                "\"fess-0\",\"%E6%97%A5%E6%9C%AC%E8%AA%9E.txt\","
+                        + "\"v3\",\"true\",\"false\",\"40\",\"2024-01-04T00:00:00.000Z\",\"jkl\",\"STANDARD\"");
+
+        final InventoryReader reader = new InventoryReader(null);
+        final InventoryReader.Manifest manifest = reader.readManifest(manifestPath.toString());
+        assertEquals("fess-0", manifest.getSourceBucket());
+        assertEquals(2, manifest.getFiles().size());
+
+        for (final int parallelism : new int[] { 1, 2 }) {
+            final List<S3Object> objects = new ArrayList<>();
+            reader.getObjects(manifest, parallelism, object -> {
+                synchronized (objects) {
+                    objects.add(object);
+                }
+            });
+            objects.sort(Comparator.comparing(S3Object::key));
+            assertEquals(3, objects.size());
+            assertEquals("docs/a.txt", objects.get(0).key());
+            assertEquals(10L, objects.get(0).size().longValue());
+            assertEquals(Instant.parse("2024-01-01T00:00:00Z"), objects.get(0).lastModified());
+            assertEquals("\"abc\"", objects.get(0).eTag());
+            assertEquals("STANDARD", objects.get(0).storageClassAsString());
+            assertEquals("docs/b c+d.txt", objects.get(1).key());
+            assertEquals("GLACIER", objects.get(1).storageClassAsString());
+            assertEquals("日本語.txt", objects.get(2).key());
+        }
+    }
+
+    @Test
+    public void test_unsupportedFormat() throws Exception {
+        final Path manifestPath = tempFolder.getRoot().toPath().resolve("manifest.json");
+        Files.writeString(manifestPath, """
+                {"sourceBucket":"fess-0","destinationBucket":"arn:aws:s3:::inventory","fileFormat":"ORC",
+                 "fileSchema":"struct<bucket:string>","files":[]}
+                """);
+        try {
+            new InventoryReader(null).readManifest(manifestPath.toString());
+            fail();
+        } catch (final DataStoreException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_parseLine() {
+        final InventoryReader reader = new InventoryReader(null);
+        assertEquals(List.of("a", "b,c", "d\"e", ""), reader.parseLine("\"a\",\"b,c\",\"d\"\"e\",\"\""));
+        assertEquals(List.of("a", "1", ""), reader.parseLine("a,1,"));
+    }
+
+    private void writeFile(final Path path, final String... lines) throws Exception {
+        Files.createDirectories(path.getParent());
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+            for (final String line : lines) {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
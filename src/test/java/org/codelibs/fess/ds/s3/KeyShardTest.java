@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.codelibs.fess.exception.DataStoreException;
+import org.junit.Test;
+
+public class KeyShardTest {
+
+    @Test
+    public void test_owns() {
+        final KeyShard[] shards = { new KeyShard(0, 3, 0), new KeyShard(1, 3, 0), new KeyShard(2, 3, 0) };
+        final int[] counts = new int[shards.length];
+        for (int i = 0; i < 3000; i++) {
+            final String key = "dir" + i % 10 + "/file" + i + ".txt";
+            int owners = 0;
+            for (final KeyShard shard : shards) {
+                if (shard.owns(key)) {
+                    owners++;
+                    counts[shard.getIndex()]++;
+                }
+            }
+            assertEquals(1, owners);
+        }
+        for (final int count : counts) {
+            assertTrue("count " + count, count > 900 && count < 1100);
+        }
+        // the same on every node
+        assertEquals(KeyShard.getShard("dir0/file0.txt", 3), KeyShard.getShard(new String("dir0/file0.txt"), 3));
+    }
+
+    @Test
+    public void test_ownsKey() {
+        final KeyShard shard = new KeyShard(0, 3, 2);
+        // the owner of a subtree at the shard depth below the listing prefix
+        assertEquals(shard.owns("docs/a/b/"), shard.ownsKey("docs/a/b/c/file.txt", "docs/"));
+        assertEquals(shard.owns("a/b/"), shard.ownsKey("a/b/c/file.txt", ""));
+        assertEquals(shard.owns("docs/report/x/"), shard.ownsKey("docs/report/x/file.txt", "docs/rep"));
+        // the keys above the shard depth belong to the shard of their key
+        assertEquals(shard.owns("docs/a/file.txt"), shard.ownsKey("docs/a/file.txt", "docs/"));
+        assertEquals(shard.owns("other/a/b/file.txt"), shard.ownsKey("other/a/b/file.txt", "docs/"));
+        final KeyShard keyShard = new KeyShard(1, 3, 0);
+        assertEquals(keyShard.owns("docs/a/b/file.txt"), keyShard.ownsKey("docs/a/b/file.txt", "docs/"));
+    }
+
+    @Test
+    public void test_invalid() {
+        for (final int[] values : new int[][] { { 3, 3, 0 }, { -1, 3, 0 }, { 0, 0, 0 }, { 0, 2, -1 } }) {
+            try {
+                new KeyShard(values[0], values[1], values[2]);
+                fail();
+            } catch (final DataStoreException e) {
+                // expected
+            }
+        }
+    }
+}
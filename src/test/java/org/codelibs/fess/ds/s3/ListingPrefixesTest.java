@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ListingPrefixesTest {
+
+    private static final String BUCKET_URL = "https://fess.s3.ap-northeast-1.amazonaws.com/";
+
+    @Test
+    public void test_getLiteralPrefix() {
+        assertEquals("https://fess.s3.ap-northeast-1.amazonaws.com/reports/2025/",
+                ListingPrefixes.getLiteralPrefix("https://fess\\.s3\\.ap-northeast-1\\.amazonaws\\.com/reports/2025/.*"));
+        assertEquals("http://a/b", ListingPrefixes.getLiteralPrefix("^http://a/b[0-9]+"));
+        // the last character is optional
+        assertEquals("http://a/", ListingPrefixes.getLiteralPrefix("http://a/b?c"));
+        assertEquals("http://a/", ListingPrefixes.getLiteralPrefix("http://a/b{0,1}"));
+        assertEquals("http://a/b", ListingPrefixes.getLiteralPrefix("http://a/b+"));
+        assertEquals("http://a/", ListingPrefixes.getLiteralPrefix("http://a/\\d+"));
+        assertEquals("http://a/", ListingPrefixes.getLiteralPrefix("http://a/(b|c)/.*"));
+        assertEquals("", ListingPrefixes.getLiteralPrefix("http://a/b/.*|http://a/c/.*"));
+        assertEquals("", ListingPrefixes.getLiteralPrefix(".*/reports/.*"));
+        assertEquals("", ListingPrefixes.getLiteralPrefix("(?i)http://a/.*"));
+    }
+
+    @Test
+    public void test_getLiteralPrefixWithBucketUrl() {
+        // the dots in the bucket URL do not need to be escaped
+        assertEquals(BUCKET_URL + "docs/",
+                ListingPrefixes.getLiteralPrefix("https://fess.s3.ap-northeast-1.amazonaws.com/docs/.*", BUCKET_URL));
+        assertEquals(BUCKET_URL + "docs/file", ListingPrefixes.getLiteralPrefix(BUCKET_URL + "docs/file.txt", BUCKET_URL));
+        assertEquals("https://other", ListingPrefixes.getLiteralPrefix("https://other.s3.amazonaws.com/docs/.*", BUCKET_URL));
+        assertEquals("https://fess", ListingPrefixes.getLiteralPrefix("https://fess.*", BUCKET_URL));
+        assertEquals("https://fess.s3.ap-northeast-1.amazonaws.com/tmp/",
+                ListingPrefixes.getSubtreePrefix("https://fess.s3.ap-northeast-1.amazonaws.com/tmp/.*", BUCKET_URL));
+    }
+
+    @Test
+    public void test_getSubtreePrefix() {
+        assertEquals("http://a/tmp/", ListingPrefixes.getSubtreePrefix("http://a/tmp/.*"));
+        assertEquals("http://a/tmp/", ListingPrefixes.getSubtreePrefix("^http://a/tmp/.*$"));
+        assertNull(ListingPrefixes.getSubtreePrefix("http://a/tmp/.*\\.log"));
+        assertNull(ListingPrefixes.getSubtreePrefix("http://a/tmp/"));
+        assertNull(ListingPrefixes.getSubtreePrefix(".*"));
+        assertNull(ListingPrefixes.getSubtreePrefix("http://a/tmp/.*|http://a/b"));
+    }
+
+    @Test
+    public void test_toKeyPrefix() {
+        assertEquals("reports/2025/", ListingPrefixes.toKeyPrefix(BUCKET_URL + "reports/2025/", BUCKET_URL, false));
+        assertEquals("", ListingPrefixes.toKeyPrefix("https://fess.s3", BUCKET_URL, false));
+        assertNull(ListingPrefixes.toKeyPrefix("https://other.s3.ap-northeast-1.amazonaws.com/", BUCKET_URL, false));
+        // keys are not encoded
+        assertEquals("a", ListingPrefixes.toKeyPrefix(BUCKET_URL + "a%20b/", BUCKET_URL, false));
+        assertNull(ListingPrefixes.toKeyPrefix(BUCKET_URL + "a%20b/", BUCKET_URL, true));
+        assertEquals("tmp/", ListingPrefixes.toKeyPrefix(BUCKET_URL + "tmp/", BUCKET_URL, true));
+        assertNull(ListingPrefixes.toKeyPrefix("https://fess.s3", BUCKET_URL, true));
+    }
+
+    @Test
+    public void test_normalize() {
+        assertEquals(List.of("a/", "b/"), ListingPrefixes.normalize(List.of("b/", "a/b/", "a/", "b/c", "a/")));
+        assertEquals(List.of(), ListingPrefixes.normalize(List.of()));
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codelibs.fess.entity.DataStoreParams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+public class MultipartDownloaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void test_downloadRanges() throws Exception {
+        final byte[] data = newData(1000);
+        try (PartClient client = new PartClient(data, 0, 2)) {
+            final HeadObjectResponse head = client.headObject("bucket", "key", 1);
+            assertEquals(1000L, MultipartDownloader.getObjectSize(head));
+            final Path file = tempFolder.newFile().toPath();
+            final GetObjectResponse response = client.downloadObject("bucket", "key", head, file);
+            assertArrayEquals(data, Files.readAllBytes(file));
+            assertEquals(1000L, response.contentLength().longValue());
+            assertNull(response.contentRange());
+            assertEquals("text/plain", response.contentType());
+            // 10 ranges of 100 bytes and a retry for each first attempt that was cut off
+            assertEquals(12, client.requests.get());
+        }
+    }
+
+    @Test
+    public void test_downloadParts() throws Exception {
+        final byte[] data = newData(1000);
+        try (PartClient client = new PartClient(data, 300, 1)) {
+            final HeadObjectResponse head = client.headObject("bucket", "key", 1);
+            assertEquals(4, head.partsCount().intValue());
+            assertEquals(1000L, MultipartDownloader.getObjectSize(head));
+            final Path file = tempFolder.newFile().toPath();
+            client.downloadObject("bucket", "key", head, file);
+            assertArrayEquals(data, Files.readAllBytes(file));
+            // the part that was cut off is resumed with a range request
+            assertEquals(1, client.ranges.size());
+        }
+    }
+
+    @Test
+    public void test_downloadEmptyObject() throws Exception {
+        try (PartClient client = new PartClient(new byte[0], 0, 0)) {
+            final HeadObjectResponse head = client.headObject("bucket", "key", 1);
+            assertEquals(0L, MultipartDownloader.getObjectSize(head));
+            final Path file = tempFolder.newFile().toPath();
+            final GetObjectResponse response = client.downloadObject("bucket", "key", head, file);
+            assertEquals(0L, Files.size(file));
+            assertEquals(0L, response.contentLength().longValue());
+            assertEquals("text/plain", response.contentType());
+            // a single GET without a range
+            assertEquals(1, client.requests.get());
+            assertTrue(client.ranges.isEmpty());
+        }
+    }
+
+    @Test
+    public void test_changedObject() throws Exception {
+        try (PartClient client = new PartClient(newData(1000), 0, 0)) {
+            final HeadObjectResponse head = client.headObject("bucket", "key", 1).toBuilder().eTag("\"old\"").build();
+            client.downloadObject("bucket", "key", head, tempFolder.newFile().toPath());
+            fail();
+        } catch (final S3Exception e) {
+            assertEquals(412, e.statusCode());
+        }
+    }
+
+    @Test
+    public void test_isMultipartDownload() {
+        try (PartClient client = new PartClient(new byte[0], 0, 0)) {
+            assertFalse(client.isMultipartDownload(null));
+            assertFalse(client.isMultipartDownload(99L));
+            assertTrue(client.isMultipartDownload(100L));
+        }
+    }
+
+    private static byte[] newData(final int size) {
+        final byte[] data = new byte[size];
+        new Random(1).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Serves an object from memory. The first requests are cut off in the middle of the body.
+     */
+    static class PartClient extends AmazonS3Client {
+        final byte[] data;
+        final int uploadPartSize;
+        final AtomicInteger failures;
+        final AtomicInteger requests = new AtomicInteger();
+        final Set<String> ranges = ConcurrentHashMap.newKeySet();
+
+        PartClient(final byte[] data, final int uploadPartSize, final int failures) {
+            super(newParams());
+            this.data = data;
+            this.uploadPartSize = uploadPartSize;
+            this.failures = new AtomicInteger(failures);
+        }
+
+        static DataStoreParams newParams() {
+            final DataStoreParams params = new DataStoreParams();
+            params.put(REGION, "us-east-1");
+            params.put(ACCESS_KEY_ID, "test");
+            params.put(SECRET_KEY, "test");
+            params.put(ENDPOINT, "http://localhost:9");
+            params.put(MULTIPART_THRESHOLD, "100");
+            params.put(MULTIPART_SIZE, "100");
+            params.put(MULTIPART_THREADS, "3");
+            return params;
+        }
+
+        @Override
+        public HeadObjectResponse headObject(final String bucket, final String key, final Integer partNumber) {
+            final HeadObjectResponse.Builder builder = HeadObjectResponse.builder().eTag("\"etag\"").contentType("text/plain");
+            if (uploadPartSize > 0) {
+                builder.partsCount((data.length + uploadPartSize - 1) / uploadPartSize)
+                        .contentLength((long) Math.min(uploadPartSize, data.length))
+                        .contentRange("bytes 0-" + (Math.min(uploadPartSize, data.length) - 1) + "/" + data.length);
+            } else {
+                builder.contentLength((long) data.length);
+            }
+            return builder.build();
+        }
+
+        @Override
+        public ResponseInputStream<GetObjectResponse> getObject(final String bucket, final String key, final String eTag,
+                final Integer partNumber, final String range) {
+            requests.incrementAndGet();
+            if (!"\"etag\"".equals(eTag)) {
+                throw (S3Exception) S3Exception.builder().statusCode(412).message("Precondition Failed").build();
+            }
+            final int start;
+            final int end;
+            if (partNumber != null) {
+                start = (partNumber - 1) * uploadPartSize;
+                end = Math.min(start + uploadPartSize, data.length) - 1;
+            } else if (range == null) {
+                start = 0;
+                end = data.length - 1;
+            } else {
+                ranges.add(range);
+                final String[] values = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(values[0]);
+                end = Integer.parseInt(values[1]);
+            }
+            final GetObjectResponse response = GetObjectResponse.builder()
+                    .eTag(eTag)
+                    .contentType("text/plain")
+                    .contentLength((long) end - start + 1)
+                    .contentRange(partNumber != null || range != null ? "bytes " + start + "-" + end + "/" + data.length : null)
+                    .build();
+            InputStream in = new ByteArrayInputStream(data, start, end - start + 1);
+            if (failures.getAndDecrement() > 0) {
+                in = new BrokenInputStream(in, (end - start + 1) / 2);
+            }
+            return new ResponseInputStream<>(response, AbortableInputStream.create(in));
+        }
+    }
+
+    static class BrokenInputStream extends InputStream {
+        private final InputStream in;
+        private int remaining;
+
+        BrokenInputStream(final InputStream in, final int length) {
+            this.in = in;
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining-- <= 0) {
+                throw new IOException("Connection reset");
+            }
+            return in.read();
+        }
+    }
+}
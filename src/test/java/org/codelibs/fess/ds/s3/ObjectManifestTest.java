@@ -0,0 +1,270 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+public class ObjectManifestTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void test_writeAndRead() throws Exception {
+        final Path path = tempFolder.getRoot().toPath().resolve("test.manifest");
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(String.format("dir%02d/file%04d.txt", i % 7, i));
+        }
+        keys.add("日本語/ファイル.txt");
+        Collections.shuffle(keys, new Random(1));
+
+        // small runs so that the entries are merged from several run files
+        try (ObjectManifest.Writer writer = new ObjectManifest.Writer(path, 100)) {
+            for (final String key : keys) {
+                writer.add(new ObjectManifest.Entry(key, "etag-" + key, key.length(), key.hashCode()));
+            }
+            writer.commit();
+        }
+        assertEquals(List.of("test.manifest"), Files.list(tempFolder.getRoot().toPath()).map(p -> p.getFileName().toString()).toList());
+
+        try (ObjectManifest manifest = ObjectManifest.open(path)) {
+            assertEquals(keys.size(), manifest.size());
+            for (final String key : keys) {
+                final ObjectManifest.Entry entry = manifest.get(key);
+                assertEquals(key, entry.getKey());
+                assertEquals("etag-" + key, entry.getETag());
+                assertEquals(key.length(), entry.getLastModified());
+                assertEquals(key.hashCode(), entry.getSize());
+            }
+            assertNull(manifest.get(""));
+            assertNull(manifest.get("dir00/"));
+            assertNull(manifest.get("dir03/file0003.txt0"));
+            assertNull(manifest.get("zzz"));
+
+            final List<String> sorted = new ArrayList<>(keys);
+            Collections.sort(sorted);
+            final List<String> actual = new ArrayList<>();
+            manifest.forEach(entry -> actual.add(entry.getKey()));
+            assertEquals(sorted, actual);
+        }
+    }
+
+    @Test
+    public void test_duplicateKeys() throws Exception {
+        final Path path = tempFolder.getRoot().toPath().resolve("test.manifest");
+        try (ObjectManifest.Writer writer = new ObjectManifest.Writer(path, 2)) {
+            writer.add(new ObjectManifest.Entry("a", null, -1L, -1L));
+            writer.add(new ObjectManifest.Entry("b", "b1", 1L, 1L));
+            writer.add(new ObjectManifest.Entry("a", "a1", 1L, 1L));
+            writer.add(new ObjectManifest.Entry("b", null, -1L, -1L));
+            writer.commit();
+        }
+        try (ObjectManifest manifest = ObjectManifest.open(path)) {
+            assertEquals(2, manifest.size());
+            assertEquals("a1", manifest.get("a").getETag());
+            assertEquals("b1", manifest.get("b").getETag());
+        }
+    }
+
+    @Test
+    public void test_forEachMissing() throws Exception {
+        final Path previousPath = tempFolder.getRoot().toPath().resolve("previous.manifest");
+        final Path currentPath = tempFolder.getRoot().toPath().resolve("current.manifest");
+        try (ObjectManifest.Writer previous = new ObjectManifest.Writer(previousPath, 50);
+                ObjectManifest.Writer current = new ObjectManifest.Writer(currentPath, 50)) {
+            for (int i = 0; i < 300; i++) {
+                previous.add(new ObjectManifest.Entry(String.format("key%03d", i), "e", 0L, 0L));
+                if (i % 3 != 0) {
+                    current.add(new ObjectManifest.Entry(String.format("key%03d", i), "e", 0L, 0L));
+                }
+            }
+            current.add(new ObjectManifest.Entry("new", "e", 0L, 0L));
+            previous.commit();
+            current.commit();
+        }
+
+        final List<String> missing = new ArrayList<>();
+        try (ObjectManifest previous = ObjectManifest.open(previousPath); ObjectManifest current = ObjectManifest.open(currentPath)) {
+            previous.forEachMissing(current, entry -> missing.add(entry.getKey()));
+        }
+        assertEquals(100, missing.size());
+        assertEquals("key000", missing.get(0));
+        assertEquals("key297", missing.get(99));
+    }
+
+    @Test
+    public void test_missingFile() throws Exception {
+        try (ObjectManifest manifest = ObjectManifest.open(tempFolder.getRoot().toPath().resolve("none.manifest"))) {
+            assertEquals(0, manifest.size());
+            assertNull(manifest.get("a"));
+            assertFalse(manifest.iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void test_manifestStore() throws Exception {
+        final Path directory = tempFolder.getRoot().toPath().resolve("manifest");
+        final Instant now = Instant.now();
+        final S3Object object1 = S3Object.builder().key("a.txt").eTag("\"1\"").lastModified(now).size(10L).build();
+        final S3Object object2 = S3Object.builder().key("b.txt").eTag("\"2\"").lastModified(now).size(20L).build();
+
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            assertFalse(store.isUnchanged("bucket1", object1));
+            store.record("bucket1", object1, true);
+            store.record("bucket1", object2, false);
+            store.commit();
+        }
+        assertTrue(Files.exists(directory.resolve("bucket1.manifest")));
+
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            assertTrue(store.isUnchanged("bucket1", object1));
+            assertFalse(store.isUnchanged("bucket1", object2));
+            assertFalse(store.isUnchanged("bucket1", object1.toBuilder().eTag("\"3\"").build()));
+            assertFalse(store.isUnchanged("bucket1", object1.toBuilder().size(11L).build()));
+            assertFalse(store.isUnchanged("bucket2", object1));
+            // not committed
+            store.record("bucket1", object2, true);
+        }
+
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            assertTrue(store.isUnchanged("bucket1", object1));
+            assertFalse(store.isUnchanged("bucket1", object2));
+        }
+
+        // b.txt is removed from bucket1
+        final List<List<String>> removed = new ArrayList<>();
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            store.record("bucket1", object1, true);
+            store.commit(10, (bucket, keys) -> {
+                assertEquals("bucket1", bucket);
+                removed.add(keys);
+            });
+        }
+        assertEquals(List.of(List.of("b.txt")), removed);
+
+        // the previous manifest is kept if the removed keys cannot be handled
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            assertTrue(store.isUnchanged("bucket1", object1));
+            store.commit(10, (bucket, keys) -> {
+                throw new IllegalStateException();
+            });
+            fail();
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            assertTrue(store.isUnchanged("bucket1", object1));
+        }
+    }
+
+    @Test
+    public void test_manifestStoreEmptyBucket() throws Exception {
+        final Path directory = tempFolder.getRoot().toPath().resolve("manifest");
+        final Instant now = Instant.now();
+        final S3Object object1 = S3Object.builder().key("a.txt").eTag("\"1\"").lastModified(now).size(10L).build();
+        final S3Object object2 = S3Object.builder().key("b.txt").eTag("\"2\"").lastModified(now).size(20L).build();
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            store.begin("bucket1");
+            store.record("bucket1", object1, true);
+            store.record("bucket1", object2, true);
+            store.commit();
+        }
+
+        // all objects are deleted from bucket1, so the crawl records nothing
+        final List<String> removed = new ArrayList<>();
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            store.begin("bucket1");
+            store.commit(10, (bucket, keys) -> {
+                assertEquals("bucket1", bucket);
+                removed.addAll(keys);
+            });
+        }
+        assertEquals(List.of("a.txt", "b.txt"), removed);
+
+        removed.clear();
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            assertFalse(store.isUnchanged("bucket1", object1));
+            store.commit(10, (bucket, keys) -> removed.addAll(keys));
+        }
+        assertTrue(removed.isEmpty());
+    }
+
+    @Test
+    public void test_suspendAndResume() throws Exception {
+        final Path directory = tempFolder.getRoot().toPath().resolve("manifest");
+        final Instant now = Instant.now();
+        final S3Object object1 = S3Object.builder().key("a.txt").eTag("\"1\"").lastModified(now).size(10L).build();
+        final S3Object object2 = S3Object.builder().key("b.txt").eTag("\"2\"").lastModified(now).size(20L).build();
+        final S3Object object3 = S3Object.builder().key("c.txt").eTag("\"3\"").lastModified(now).size(30L).build();
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            store.record("bucket1", object1, true);
+            store.record("bucket1", object2, true);
+            store.record("bucket1", object3, true);
+            store.commit();
+        }
+
+        // the first window crawls a.txt
+        try (ManifestStore store = new ManifestStore(directory, 10, bucket -> true)) {
+            store.record("bucket1", object1, true);
+            assertTrue(store.suspend());
+        }
+        assertTrue(Files.exists(directory.resolve("bucket1.manifest.partial")));
+
+        // the second window resumes after a.txt, and b.txt was removed
+        final List<String> removed = new ArrayList<>();
+        try (ManifestStore store = new ManifestStore(directory, 10, bucket -> true)) {
+            store.record("bucket1", object3, true);
+            store.commit(10, (bucket, keys) -> removed.addAll(keys));
+        }
+        assertEquals(List.of("b.txt"), removed);
+        assertFalse(Files.exists(directory.resolve("bucket1.manifest.partial")));
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            assertTrue(store.isUnchanged("bucket1", object1));
+            assertTrue(store.isUnchanged("bucket1", object3));
+        }
+
+        // a partial manifest is not used by a crawl that starts from the first key
+        try (ManifestStore store = new ManifestStore(directory, 10, bucket -> true)) {
+            store.record("bucket1", object1, true);
+            assertTrue(store.suspend());
+        }
+        removed.clear();
+        try (ManifestStore store = new ManifestStore(directory, 10)) {
+            store.record("bucket1", object3, true);
+            store.commit(10, (bucket, keys) -> removed.addAll(keys));
+        }
+        assertEquals(List.of("a.txt"), removed);
+    }
+}
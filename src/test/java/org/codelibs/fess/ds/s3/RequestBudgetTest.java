@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class RequestBudgetTest {
+
+    @Test
+    public void test_maxRequests() {
+        final RequestBudget budget = new RequestBudget(0, 0, 0, 3);
+        budget.acquireList("bucket");
+        budget.acquireGet("bucket");
+        budget.acquireGet("other");
+        assertEquals(3, budget.getRequests());
+        assertEquals(0, budget.getRemainingRequests());
+        assertFalse(budget.isExhausted());
+        try {
+            budget.acquireGet("bucket");
+            fail();
+        } catch (final RequestBudget.ExhaustedException e) {
+            assertTrue(RequestBudget.isExhausted(new RuntimeException(e)));
+        }
+        assertTrue(budget.isExhausted());
+        assertEquals(3, budget.getRequests());
+    }
+
+    @Test
+    public void test_unlimited() {
+        final RequestBudget budget = new RequestBudget(0, 0, 0, 0);
+        for (int i = 0; i < 1000; i++) {
+            budget.acquireGet("bucket");
+        }
+        assertEquals(1000, budget.getRequests());
+        assertEquals(-1, budget.getRemainingRequests());
+        assertFalse(budget.isBytesLimited());
+        assertEquals(0, budget.transferred("bucket", 1_000_000));
+        assertFalse(RequestBudget.isExhausted(new RuntimeException()));
+    }
+
+    @Test
+    public void test_rate() {
+        final RequestBudget budget = new RequestBudget(10, 0, 0, 0);
+        final long start = System.nanoTime();
+        // the tokens of one second, and 5 more at 10 per second
+        for (int i = 0; i < 15; i++) {
+            budget.acquireList("bucket");
+        }
+        final long elapsed = (System.nanoTime() - start) / 1_000_000L;
+        assertTrue("elapsed " + elapsed, elapsed >= 400);
+        // another bucket has its own tokens
+        final long start2 = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            budget.acquireList("other");
+        }
+        assertTrue((System.nanoTime() - start2) / 1_000_000L < 400);
+    }
+
+    @Test
+    public void test_transferred() {
+        final RequestBudget budget = new RequestBudget(0, 0, 1000, 0);
+        assertTrue(budget.isBytesLimited());
+        assertEquals(0, budget.transferred("bucket", 1000));
+        // the bytes taken in advance are earned back in about half a second
+        final long wait = budget.transferred("bucket", 500) / 1_000_000L;
+        assertTrue("wait " + wait, wait > 300 && wait <= 500);
+        final long start = System.nanoTime();
+        budget.acquireGet("bucket");
+        assertTrue((System.nanoTime() - start) / 1_000_000L >= 300);
+    }
+}
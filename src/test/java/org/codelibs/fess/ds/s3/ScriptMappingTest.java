@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codelibs.fess.script.ScriptEngine;
+import org.junit.Test;
+
+public class ScriptMappingTest {
+
+    @Test
+    public void test_evaluate() {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("url", "object.url");
+        scriptMap.put("title", " object.meta.title ");
+        scriptMap.put("missing", "object.nothing");
+        scriptMap.put("param", "bucket_name");
+        scriptMap.put("empty", "");
+        scriptMap.put("script", "object.key + \"!\"");
+        scriptMap.put("bean", "object.size.value");
+        scriptMap.put("container", "container.name");
+
+        final List<String> evaluated = new ArrayList<>();
+        final ScriptMapping scriptMapping = new ScriptMapping(scriptMap, "groovy") {
+            @Override
+            protected ScriptEngine getScriptEngine() {
+                return (template, paramMap) -> {
+                    evaluated.add(template);
+                    return "script:" + template;
+                };
+            }
+        };
+
+        final Map<String, Object> objectMap = new HashMap<>();
+        objectMap.put("url", "https://bucket.s3.amazonaws.com/a.txt");
+        objectMap.put("key", "a.txt");
+        objectMap.put("size", 10L);
+        objectMap.put("meta", Map.of("title", "Title"));
+        final Map<String, Object> resultMap = new HashMap<>();
+        resultMap.put("bucket_name", "bucket");
+        resultMap.put("object", objectMap);
+        final Map<String, Object> dataMap = new HashMap<>();
+        scriptMapping.evaluate(resultMap, dataMap);
+
+        assertEquals("https://bucket.s3.amazonaws.com/a.txt", dataMap.get("url"));
+        assertEquals("Title", dataMap.get("title"));
+        assertFalse(dataMap.containsKey("missing"));
+        assertEquals("bucket", dataMap.get("param"));
+        assertEquals("", dataMap.get("empty"));
+        assertEquals("script:object.key + \"!\"", dataMap.get("script"));
+        assertEquals("script:object.size.value", dataMap.get("bean"));
+        assertEquals("script:container.name", dataMap.get("container"));
+        // only the expressions that are not property paths over the maps go to the script engine
+        assertEquals(List.of("object.key + \"!\"", "object.size.value", "container.name"), evaluated);
+    }
+
+    @Test
+    public void test_getReferencedProperties() {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("url", "object.url");
+        scriptMap.put("title", "object?.key + \" \" + object.meta.title");
+        scriptMap.put("param", "bucket_name");
+        ScriptMapping scriptMapping = new ScriptMapping(scriptMap, "groovy");
+        assertEquals(Set.of("url", "key", "meta"), scriptMapping.getReferencedProperties("object"));
+        assertEquals(Set.of(), scriptMapping.getReferencedProperties("other"));
+        assertNull(scriptMapping.getReferencedProperties("bucket_name"));
+
+        // a method call or an index reads any property
+        scriptMap.put("contents", "object.get(\"contents\")");
+        scriptMapping = new ScriptMapping(scriptMap, "groovy");
+        assertNull(scriptMapping.getReferencedProperties("object"));
+        scriptMap.put("contents", "object[\"contents\"]");
+        scriptMapping = new ScriptMapping(scriptMap, "groovy");
+        assertNull(scriptMapping.getReferencedProperties("object"));
+    }
+}